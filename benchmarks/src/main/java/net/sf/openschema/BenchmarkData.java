@@ -0,0 +1,100 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.openschema.util.CsvToRdfFilterStream;
+import net.sf.openschema.util.KnowledgeBaseGenerator;
+import net.sf.openschema.util.SchemaToXmlFilterStream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.xml.sax.InputSource;
+
+/**
+ * The data the benchmarks run over: the biography sample (schema, frames and ontology) or, for scales above one, a
+ * synthetic knowledge base with that many people (see <tt>KnowledgeBaseGenerator</tt>).
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class BenchmarkData {
+	/** Number of people in the synthetic data, 1 for the sample. */
+	@Param({ "1", "100", "1000" })
+	public int scale;
+	/** Maximum number of values of the multi-valued attributes in the synthetic data. */
+	@Param({ "4" })
+	public int fanOut;
+	/** Skew of the synthetic data. */
+	@Param({ "1.0" })
+	public double skew;
+
+	/** The schema, with a node for each predicate. */
+	public BenchmarkPlanner planner;
+	/** The frames. */
+	public FrameSet frames;
+	/** The ontology. */
+	public Ontology ontology;
+	/** The initial mapping, as in the demo. */
+	public Map<String, Frame> initialMapping;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		File samples = new File(System.getProperty("openschema.samples", "../samples"));
+		InputStream baseOntology = new FileInputStream(new File(samples, "ontology.rdfs"));
+		if (scale == 1) {
+			this.ontology = new RDFOntology(baseOntology, "file://ontology.rdfs");
+			this.frames = new RDFFrameSet(new CsvToRdfFilterStream(new FileInputStream(new File(samples, "sean.csv"))),
+					"file://sean.csv");
+		} else {
+			KnowledgeBaseGenerator generator = new KnowledgeBaseGenerator(scale, fanOut, 3, 4, skew, 42);
+			this.ontology = generator.generateOntology(baseOntology);
+			this.frames = generator.generateFrames();
+		}
+		baseOntology.close();
+		this.planner = new BenchmarkPlanner(new InputSource(new InputStreamReader(new SchemaToXmlFilterStream(
+				new FileInputStream(new File(samples, "template-biography.schema"))))), new SimpleFocusChooser(
+				ontology));
+		this.initialMapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+	}
+
+	/** The clauses of a plan, in order. */
+	public static List<Map<String, Object>> clauses(DocumentPlan plan) {
+		List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+		for (List<List<Map<String, Object>>> paragraph : plan.getParagraphs())
+			for (List<Map<String, Object>> aggregation : paragraph)
+				result.addAll(aggregation);
+		return result;
+	}
+}
@@ -0,0 +1,54 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBException;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A planner giving the benchmarks access to its predicates and to the search for their values.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class BenchmarkPlanner extends OpenSchemaPlanner {
+	public BenchmarkPlanner(InputSource source, LocalChooser chooser) throws JAXBException {
+		super(source, chooser);
+	}
+
+	/** A node for each predicate, with all its variables unbound. */
+	public List<Node> predicateNodes() {
+		List<Node> result = new ArrayList<Node>();
+		for (String id : predicates.keySet())
+			result.add(defineNode(PREDICATE_NODE, "benchmark-" + id, id, new String[0]));
+		return result;
+	}
+
+	/** All the predicates. */
+	public List<Predicate> getPredicates() {
+		return new ArrayList<Predicate>(predicates.values());
+	}
+}
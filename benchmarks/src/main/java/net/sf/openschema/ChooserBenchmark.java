@@ -0,0 +1,60 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Extracting the potential foci of the clauses of a plan, as the chooser does for each candidate clause.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class ChooserBenchmark {
+	protected LocalChooser chooser;
+	protected FrameSet frames;
+	protected List<Map<String, Object>> clauses;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkData data) {
+		this.chooser = data.planner.chooser;
+		this.frames = data.frames;
+		this.clauses = BenchmarkData.clauses(data.planner.instantiate(data.frames, data.initialMapping,
+				data.ontology));
+	}
+
+	@Benchmark
+	public int extractPotentialFoci() {
+		int result = 0;
+		for (Map<String, Object> clause : clauses)
+			result += chooser.extractPotentialFoci(clause, frames).size();
+		return result;
+	}
+}
@@ -0,0 +1,87 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checking an equality between two multi-valued paths ("a.birth.year == b.birth.year"), both through
+ * <tt>Property.check</tt> and through the compiled evaluator, for frames with a growing number of values. The values
+ * of the two frames only meet at their last ones, so the whole of both paths is walked.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class EqualityBenchmark {
+	/** Number of values of the path from each frame. */
+	@Param({ "2", "8", "32", "128" })
+	public int values;
+
+	protected Property property;
+	protected Property.Evaluator evaluator;
+	protected Map<Object, Frame> map;
+	protected Frame[] array;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Frame[] people = new Frame[2];
+		for (int i = 0; i < 2; i++) {
+			people[i] = new MapFrame("person-" + i, "c-person");
+			for (int j = 0; j < values; j++) {
+				Frame event = new MapFrame("event-" + i + "-" + j, "c-event");
+				event.add("year", new Integer(i * (values - 1) + j));
+				people[i].add("birth", event);
+			}
+		}
+		this.property = Property.parse("a.birth.year == b.birth.year", new HashSet<String>(Arrays
+				.asList(new String[] { "a", "b" })));
+		Map<Object, Integer> slots = new HashMap<Object, Integer>();
+		slots.put("a", new Integer(0));
+		slots.put("b", new Integer(1));
+		this.evaluator = property.compile(slots);
+		this.map = new HashMap<Object, Frame>();
+		map.put("a", people[0]);
+		map.put("b", people[1]);
+		this.array = people;
+	}
+
+	@Benchmark
+	public boolean checkMap() {
+		return property.check(map, null);
+	}
+
+	@Benchmark
+	public boolean checkCompiled() {
+		return evaluator.check(array, null);
+	}
+}
@@ -0,0 +1,79 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Access to the values of all the frames (<tt>MapFrame</tt>s, both in the sample and in the synthetic data).
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class FrameBenchmark {
+	protected List<Frame> frames;
+	protected List<String[]> keys;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkData data) {
+		this.frames = new ArrayList<Frame>(data.frames.getFrames());
+		this.keys = new ArrayList<String[]>();
+		for (Frame frame : frames)
+			keys.add(frame.keySet().toArray(new String[0]));
+	}
+
+	@Benchmark
+	public int get() {
+		int result = 0;
+		for (int i = 0; i < frames.size(); i++) {
+			Frame frame = frames.get(i);
+			for (String key : keys.get(i))
+				result += frame.get(key).size();
+		}
+		return result;
+	}
+
+	@Benchmark
+	public int getMissing() {
+		int result = 0;
+		for (Frame frame : frames)
+			result += frame.get("no-such-key").size();
+		return result;
+	}
+
+	@Benchmark
+	public int containsKey() {
+		int result = 0;
+		for (Frame frame : frames)
+			if (frame.containsKey("name"))
+				result++;
+		return result;
+	}
+}
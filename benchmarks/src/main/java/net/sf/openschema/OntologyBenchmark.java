@@ -0,0 +1,78 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Ontology queries between the types of the frames and the types the schema uses.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class OntologyBenchmark {
+	protected Ontology ontology;
+	protected List<Object> frameTypes;
+	protected List<Object> schemaTypes;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkData data) {
+		this.ontology = data.ontology;
+		Set<Object> types = new LinkedHashSet<Object>();
+		for (Frame frame : data.frames.getFrames())
+			types.add(frame.getType());
+		this.frameTypes = new ArrayList<Object>(types);
+		types = new LinkedHashSet<Object>();
+		for (OpenSchemaPlanner.Predicate predicate : data.planner.getPredicates())
+			types.addAll(predicate.getVars().values());
+		this.schemaTypes = new ArrayList<Object>(types);
+	}
+
+	@Benchmark
+	public int isA() {
+		int result = 0;
+		for (Object child : frameTypes)
+			for (Object parent : schemaTypes)
+				if (ontology.isA(child, parent))
+					result++;
+		return result;
+	}
+
+	@Benchmark
+	public double distance() {
+		double result = 0;
+		for (Object concept1 : schemaTypes)
+			for (Object concept2 : schemaTypes)
+				result += ontology.distance(concept1, concept2);
+		return result;
+	}
+}
@@ -0,0 +1,117 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checking the properties of all the predicates over assignments of frames of the right types, both through
+ * <tt>Property.check</tt> and through the compiled evaluators used by the solver.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class PropertyBenchmark {
+	/** Number of assignments per predicate. */
+	protected static final int ASSIGNMENTS = 64;
+
+	protected List<Property> properties;
+	protected List<Property.Evaluator> evaluators;
+	/** Assignments, as maps, for each property. */
+	protected List<List<Map<Object, Frame>>> maps;
+	/** Assignments, as arrays, for each property. */
+	protected List<List<Frame[]>> arrays;
+	protected Ontology ontology;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkData data) {
+		this.ontology = data.ontology;
+		this.properties = new ArrayList<Property>();
+		this.evaluators = new ArrayList<Property.Evaluator>();
+		this.maps = new ArrayList<List<Map<Object, Frame>>>();
+		this.arrays = new ArrayList<List<Frame[]>>();
+		for (OpenSchemaPlanner.Predicate predicate : data.planner.getPredicates()) {
+			List<String> vars = new ArrayList<String>(predicate.getVars().keySet());
+			Map<Object, Integer> slots = new HashMap<Object, Integer>();
+			List<List<Frame>> domains = new ArrayList<List<Frame>>();
+			for (int i = 0; i < vars.size(); i++) {
+				slots.put(vars.get(i), new Integer(i));
+				domains.add(OpenSchemaPlanner.framesUnderType(predicate.getVars().get(vars.get(i)), data.ontology,
+						data.frames));
+			}
+			List<Map<Object, Frame>> predicateMaps = new ArrayList<Map<Object, Frame>>();
+			List<Frame[]> predicateArrays = new ArrayList<Frame[]>();
+			for (int a = 0; a < ASSIGNMENTS; a++) {
+				Map<Object, Frame> map = new HashMap<Object, Frame>();
+				Frame[] array = new Frame[vars.size()];
+				for (int i = 0; i < vars.size(); i++) {
+					List<Frame> domain = domains.get(i);
+					// a different stride for each variable, so the frames are combined in different ways
+					array[i] = domain.isEmpty() ? null : domain.get((a * (2 * i + 1)) % domain.size());
+					map.put(vars.get(i), array[i]);
+				}
+				predicateMaps.add(map);
+				predicateArrays.add(array);
+			}
+			for (Property property : predicate.getProperties()) {
+				properties.add(property);
+				evaluators.add(property.compile(slots));
+				maps.add(predicateMaps);
+				arrays.add(predicateArrays);
+			}
+		}
+	}
+
+	@Benchmark
+	public int checkMap() {
+		int passed = 0;
+		for (int p = 0; p < properties.size(); p++) {
+			Property property = properties.get(p);
+			for (Map<Object, Frame> assignment : maps.get(p))
+				if (property.check(assignment, ontology))
+					passed++;
+		}
+		return passed;
+	}
+
+	@Benchmark
+	public int checkCompiled() {
+		int passed = 0;
+		for (int p = 0; p < evaluators.size(); p++) {
+			Property.Evaluator evaluator = evaluators.get(p);
+			for (Frame[] assignment : arrays.get(p))
+				if (evaluator.check(assignment, ontology))
+					passed++;
+		}
+		return passed;
+	}
+}
@@ -0,0 +1,58 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Searching for all the values of each predicate of the schema, with all their variables unbound.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+	protected BenchmarkData data;
+	protected List<OpenSchemaPlanner.Node> nodes;
+
+	@Setup(Level.Trial)
+	public void setUp(BenchmarkData data) {
+		this.data = data;
+		this.nodes = data.planner.predicateNodes();
+	}
+
+	@Benchmark
+	public int searchValues() {
+		int result = 0;
+		for (OpenSchemaPlanner.Node node : nodes)
+			result += data.planner.searchValues(node, Collections.<String, Frame> emptyMap(), data.ontology,
+					data.frames).size();
+		return result;
+	}
+}
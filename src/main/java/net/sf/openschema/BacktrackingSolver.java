@@ -0,0 +1,810 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A simple constraint satisfaction engine for the predicate properties. Variables are assigned one at a time and each
+ * property is evaluated as soon as all the variables it restricts (<tt>Property.variables()</tt>) are bound: unary
+ * properties filter the domains before the search starts and the rest are used to filter the domain of their last
+ * variable (forward checking) once all their other variables have been assigned. A branch is abandoned as soon as a
+ * domain becomes empty.
+ * <p>
+ * The solver finds the same assignments as checking every property over the cartesian product of the domains, as
+ * properties only look at the values of their own variables. It works as a cursor: assignments are produced one at a
+ * time by <tt>next</tt>, in canonical order, so callers only pay for the assignments they consume. The canonical order
+ * sorts assignments by their "var=ID;" renderings, with the variables in name order. The variables with a single
+ * possible value go first, as they do not change the order; then the first variable with more than one value in name
+ * order (the lead variable), with its domain sorted, so the assignments come out grouped by its value in canonical
+ * order; the rest are ordered so each one allows checking as many properties as possible as early as possible. If
+ * that order is not the name order, the assignments sharing a value of the lead variable are found together and
+ * sorted before being produced. The domains are sorted by the ranks of their frames
+ * (<tt>FrameOrdinals.sortByRank</tt>), computed once per frame set, so the IDs are only compared for domains with
+ * frames the ordinals do not cover. Comparing frames by ID followed by ';' gives the canonical order unless an ID
+ * contains a ';' itself; in that case all the assignments are found first and sorted by their renderings.
+ * <p>
+ * The properties are compiled (<tt>Property.compile</tt>) against the positions of the variables, so the partial
+ * assignment is an array indexed by depth and checking a property does not allocate. The properties checked at the same
+ * point are sorted by their rank in the <tt>PropertyStatistics</tt>, if given, and checking stops at the first one
+ * that fails; the solver counts how often each property passes, timing a sample of the checks, and adds the counts to
+ * the statistics every time <tt>next</tt> returns.
+ * <p>
+ * Frames are handled through their ordinals (<tt>FrameOrdinals</tt>): the domains are arrays of ordinals and each
+ * assignment found can be copied out as a tuple of ordinals (<tt>copyTuple</tt>), in the order of
+ * <tt>getVariables</tt>, which is how the planner keeps the values it caches. Frames without an ordinal, such as
+ * values given in the initial mapping that are not part of the frame set, are numbered by the solver after the others.
+ *
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+class BacktrackingSolver {
+	/** Ontology, passed to the properties. */
+	protected Ontology ontology;
+	/** Variables, in the order they are assigned. */
+	protected Object[] varOrder;
+	/** Ordinals of the frames, null if the solver numbers all of them itself. */
+	protected FrameOrdinals ordinals;
+	/** Number of frames with an ordinal in <tt>ordinals</tt>; the solver numbers the rest from here on. */
+	protected int base;
+	/** Frames numbered by the solver, in order. */
+	protected List<Frame> extra;
+	/** Ordinals given by the solver. */
+	protected Map<Frame, Integer> extraOrdinals;
+	/** Initial domains, as sorted ordinals, in the same order as the variables. */
+	protected int[][] domains;
+	/** Properties without variables, checked once. */
+	protected List<Check> groundProperties;
+	/**
+	 * Properties to check after assigning the variable at a given depth, indexed by depth and then by the depth of the
+	 * variable whose domain they filter.
+	 */
+	protected Map<Integer, List<Check>>[] forwardChecks;
+	/** All the checks, to report their counts. */
+	protected List<Check> checks;
+	/** Statistics where the counts are reported and the checks sorted by (can be null). */
+	protected PropertyStatistics statistics;
+	/** Current partial assignment, indexed by depth (null for unassigned variables). */
+	protected Frame[] assignment;
+	/** Domains at each depth of the search, after forward checking. */
+	protected int[][][] levelDomains;
+	/** Position of the value being tried at each depth. */
+	protected int[] position;
+	/** Current depth of the search, -1 before starting. */
+	protected int depth;
+	/** Whether all the assignments have been produced. */
+	protected boolean exhausted;
+	/** Limits checked while searching, during a call to <tt>next</tt> (or null). */
+	protected PlanningLimits limits;
+	/** Number of values tried, to check the limits periodically. */
+	protected long tried;
+	/** Number of assignments produced so far. */
+	protected long found;
+	/** Whether to time the search (see <tt>getNanos</tt>). */
+	protected boolean timed;
+	/** Time spent searching, if timed. */
+	protected long nanos;
+	/** Depth of the lead variable, -1 if all the variables have a single value. */
+	protected int leadDepth;
+	/**
+	 * Depths of the variables to compare when sorting the assignments found together, in name order; null if the
+	 * search already produces them in canonical order.
+	 */
+	protected int[] sortDepths;
+	/** Whether the assignments are all found together and sorted by their "var=ID;" renderings. */
+	protected boolean byRendering;
+	/** Assignments found together and sorted, null if the search already produces them in canonical order. */
+	protected List<int[]> segment;
+	/** Position of the next assignment of the segment to produce. */
+	protected int segmentNext;
+	/** Whether the segment is being filled, so the search can be resumed if the limits expire. */
+	protected boolean filling;
+	/** Value of the lead variable in the segment being filled. */
+	protected int segmentLead;
+	/** First assignment found that belongs to the next segment (or null). */
+	protected int[] pending;
+	/** Current assignment, when produced from the segment. */
+	protected int[] tuple;
+
+	/** Number of values tried between checks of the limits. */
+	protected static final int CHECK_INTERVAL = 1024;
+	/** One in this many checks of each property is timed. */
+	protected static final int SAMPLE_INTERVAL = 64;
+
+	/** Canonical order of frames, by ID (compared as each ID followed by ';', without building the strings). */
+	public static final Comparator<Frame> CANONICAL_ORDER = new Comparator<Frame>() {
+		public int compare(Frame f1, Frame f2) {
+			String id1 = f1.getID();
+			String id2 = f2.getID();
+			int length = Math.min(id1.length(), id2.length());
+			for (int i = 0; i < length; i++)
+				if (id1.charAt(i) != id2.charAt(i))
+					return id1.charAt(i) - id2.charAt(i);
+			if (id1.length() == id2.length())
+				return 0;
+			// the shorter one continues with ';', if the longer one does too the shorter one ends first
+			if (id1.length() < id2.length())
+				return id2.charAt(length) == ';' ? -1 : ';' - id2.charAt(length);
+			return id1.charAt(length) == ';' ? 1 : id1.charAt(length) - ';';
+		}
+	};
+
+	/**
+	 * Set up the solver.
+	 *
+	 * @param allVars
+	 *            mapping from variable to the list of values it can take.
+	 * @param properties
+	 *            the properties the assignments should satisfy.
+	 * @param ontology
+	 *            the ontology, for ontological properties.
+	 */
+	public BacktrackingSolver(Map<Object, List<Frame>> allVars, List<Property> properties, Ontology ontology) {
+		this(allVars, properties, ontology, null);
+	}
+
+	/**
+	 * Set up the solver, ordering the checks by the given statistics and adding the counts to them.
+	 * 
+	 * @param allVars
+	 *            mapping from variable to the list of values it can take.
+	 * @param properties
+	 *            the properties the assignments should satisfy.
+	 * @param ontology
+	 *            the ontology, for ontological properties.
+	 * @param statistics
+	 *            the property statistics, can be null (checks are then done in the order of the properties).
+	 */
+	public BacktrackingSolver(Map<Object, List<Frame>> allVars, List<Property> properties, Ontology ontology,
+			PropertyStatistics statistics) {
+		this(allVars, properties, ontology, statistics, null);
+	}
+
+	/**
+	 * Set up the solver, using the given ordinals for the frames.
+	 * 
+	 * @param allVars
+	 *            mapping from variable to the list of values it can take.
+	 * @param properties
+	 *            the properties the assignments should satisfy.
+	 * @param ontology
+	 *            the ontology, for ontological properties.
+	 * @param statistics
+	 *            the property statistics, can be null.
+	 * @param ordinals
+	 *            the ordinals of the frames in the domains, null to number them in the solver.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BacktrackingSolver(Map<Object, List<Frame>> allVars, List<Property> properties, Ontology ontology,
+			PropertyStatistics statistics, FrameOrdinals ordinals) {
+		this.ontology = ontology;
+		this.statistics = statistics;
+		this.ordinals = ordinals;
+		this.base = ordinals == null ? 0 : ordinals.size();
+		this.varOrder = orderVariables(allVars, properties);
+		this.assignment = new Frame[varOrder.length];
+		Map<Object, Integer> depthOf = new HashMap<Object, Integer>();
+		for (int i = 0; i < varOrder.length; i++)
+			depthOf.put(varOrder[i], new Integer(i));
+
+		this.domains = new int[varOrder.length][];
+		for (int i = 0; i < varOrder.length; i++)
+			domains[i] = sortedDomain(allVars.get(varOrder[i]));
+		this.groundProperties = new ArrayList<Check>();
+		this.forwardChecks = new Map[varOrder.length];
+		for (int i = 0; i < varOrder.length; i++)
+			forwardChecks[i] = new HashMap<Integer, List<Check>>();
+		this.checks = new ArrayList<Check>(properties.size());
+
+		List<List<Check>> unary = new ArrayList<List<Check>>(Collections.<List<Check>> nCopies(varOrder.length, null));
+		for (Property property : properties) {
+			Check check = new Check(property, property.compile(depthOf), statistics);
+			checks.add(check);
+			int last = -1;
+			int secondLast = -1;
+			for (String var : property.variables()) {
+				Integer depth = depthOf.get(var);
+				if (depth == null)
+					continue; // not a variable of this predicate, it will be seen as unbound
+				int d = depth.intValue();
+				if (d > last) {
+					secondLast = last;
+					last = d;
+				} else if (d > secondLast)
+					secondLast = d;
+			}
+			if (last == -1)
+				groundProperties.add(check);
+			else if (secondLast == -1) {
+				if (unary.get(last) == null)
+					unary.set(last, new ArrayList<Check>());
+				unary.get(last).add(check);
+			} else {
+				Integer target = new Integer(last);
+				if (!forwardChecks[secondLast].containsKey(target))
+					forwardChecks[secondLast].put(target, new ArrayList<Check>());
+				forwardChecks[secondLast].get(target).add(check);
+			}
+		}
+		// cheapest and most selective checks first
+		if (statistics != null) {
+			Collections.sort(groundProperties, BY_RANK);
+			for (int i = 0; i < varOrder.length; i++) {
+				if (unary.get(i) != null)
+					Collections.sort(unary.get(i), BY_RANK);
+				for (List<Check> targetChecks : forwardChecks[i].values())
+					Collections.sort(targetChecks, BY_RANK);
+			}
+		}
+		// node consistency
+		for (int i = 0; i < varOrder.length; i++)
+			if (unary.get(i) != null)
+				domains[i] = filter(i, domains[i], unary.get(i));
+		report();
+		prepareOrder(allVars);
+
+		this.levelDomains = new int[varOrder.length + 1][][];
+		this.position = new int[varOrder.length];
+		this.depth = -1;
+		this.exhausted = false;
+	}
+
+	/** The ordinals of some frames, in canonical order. */
+	protected int[] sortedDomain(List<Frame> domain) {
+		int[] result = new int[domain.size()];
+		boolean ranked = true;
+		for (int i = 0; i < result.length; i++) {
+			result[i] = ordinal(domain.get(i));
+			ranked &= result[i] < base;
+		}
+		if (result.length > 1) {
+			if (ranked)
+				ordinals.sortByRank(result);
+			else { // some frames are only numbered by the solver, compare the IDs
+				List<Frame> sorted = new ArrayList<Frame>(domain);
+				Collections.sort(sorted, CANONICAL_ORDER);
+				for (int i = 0; i < result.length; i++)
+					result[i] = ordinal(sorted.get(i));
+			}
+		}
+		return result;
+	}
+
+	/** The ordinal of a frame, numbering it if it has none. */
+	protected int ordinal(Frame frame) {
+		int result = ordinals == null ? -1 : ordinals.getOrdinal(frame);
+		if (result >= 0)
+			return result;
+		if (extra == null) {
+			extra = new ArrayList<Frame>();
+			extraOrdinals = new IdentityHashMap<Frame, Integer>();
+		}
+		Integer known = extraOrdinals.get(frame);
+		if (known == null) {
+			known = new Integer(base + extra.size());
+			extra.add(frame);
+			extraOrdinals.put(frame, known);
+		}
+		return known.intValue();
+	}
+
+	/** The frame with a given ordinal. */
+	public Frame getFrame(int ordinal) {
+		return ordinal < base ? ordinals.getFrame(ordinal) : extra.get(ordinal - base);
+	}
+
+	/** The variables, in the order of the tuples. */
+	public Object[] getVariables() {
+		return varOrder;
+	}
+
+	/** Variables sorted by name, as in the canonical order. */
+	protected static final Comparator<Object> BY_NAME = new Comparator<Object>() {
+		public int compare(Object o1, Object o2) {
+			return o1.toString().compareTo(o2.toString());
+		}
+	};
+
+	/**
+	 * Decide in which order the variables are going to be assigned. Variables with a single value go first, then the
+	 * lead variable (the first one with more than one value in name order), then the variables that allow checking the
+	 * most properties given the variables already ordered, breaking ties by domain size.
+	 */
+	protected static Object[] orderVariables(Map<Object, List<Frame>> allVars, List<Property> properties) {
+		List<Object> pending = new ArrayList<Object>(allVars.keySet());
+		List<Object> ordered = new ArrayList<Object>(pending.size());
+		for (Object var : allVars.keySet())
+			if (allVars.get(var).size() == 1) {
+				ordered.add(var);
+				pending.remove(var);
+			}
+		if (!pending.isEmpty()) {
+			Object lead = Collections.min(pending, BY_NAME);
+			ordered.add(lead);
+			pending.remove(lead);
+		}
+		while (!pending.isEmpty()) {
+			Object best = null;
+			int bestChecks = -1;
+			int bestSize = Integer.MAX_VALUE;
+			for (Object var : pending) {
+				int checks = 0;
+				for (Property property : properties)
+					if (property.variables().contains(var)) {
+						boolean allOrdered = true;
+						for (String other : property.variables())
+							if (!other.equals(var) && pending.contains(other)) {
+								allOrdered = false;
+								break;
+							}
+						if (allOrdered)
+							checks++;
+					}
+				int size = allVars.get(var).size();
+				if (checks > bestChecks || (checks == bestChecks && size < bestSize)) {
+					best = var;
+					bestChecks = checks;
+					bestSize = size;
+				}
+			}
+			ordered.add(best);
+			pending.remove(best);
+		}
+		return ordered.toArray();
+	}
+
+	/**
+	 * Decide how to produce the assignments in canonical order: directly from the search if the variables with more
+	 * than one value are assigned in name order, or sorting the assignments found for each value of the lead variable
+	 * otherwise, or sorting all of them by their renderings if an ID contains ';'.
+	 */
+	protected void prepareOrder(Map<Object, List<Frame>> allVars) {
+		this.leadDepth = -1;
+		List<Integer> multiValued = new ArrayList<Integer>();
+		for (int i = 0; i < varOrder.length; i++)
+			if (allVars.get(varOrder[i]).size() != 1) {
+				if (leadDepth == -1)
+					leadDepth = i;
+				multiValued.add(new Integer(i));
+				for (Frame frame : allVars.get(varOrder[i]))
+					byRendering |= frame.getID().indexOf(';') != -1;
+			}
+		if (byRendering) {
+			multiValued.clear();
+			for (int i = 0; i < varOrder.length; i++)
+				multiValued.add(new Integer(i));
+		}
+		Collections.sort(multiValued, new Comparator<Integer>() {
+			public int compare(Integer d1, Integer d2) {
+				return BY_NAME.compare(varOrder[d1.intValue()], varOrder[d2.intValue()]);
+			}
+		});
+		boolean inOrder = true;
+		for (int i = 1; i < multiValued.size(); i++)
+			inOrder &= multiValued.get(i - 1).intValue() < multiValued.get(i).intValue();
+		if (inOrder && !byRendering)
+			return;
+		// the lead variable is the first to compare, but all the assignments found together share its value
+		this.sortDepths = new int[multiValued.size()];
+		for (int i = 0; i < sortDepths.length; i++)
+			sortDepths[i] = multiValued.get(i).intValue();
+		this.segment = new ArrayList<int[]>();
+	}
+
+	/**
+	 * Produce the next assignment satisfying the properties.
+	 * 
+	 * @return the assignment (a new map) or null if there are no more.
+	 */
+	public Map<Object, Frame> next() {
+		return next(null);
+	}
+
+	/**
+	 * Produce the next assignment satisfying the properties, checking some limits periodically. If they expire, a
+	 * <tt>PlanningLimits.Exceeded</tt> exception is thrown and the search can be resumed by calling this method again.
+	 * 
+	 * @param limits
+	 *            the limits, can be null.
+	 * @return the assignment (a new map) or null if there are no more.
+	 */
+	public Map<Object, Frame> next(PlanningLimits limits) {
+		return advance(limits) ? currentAssignment() : null;
+	}
+
+	/**
+	 * Advance to the next assignment satisfying the properties, to be copied with <tt>copyTuple</tt>. Limits are
+	 * handled as in <tt>next</tt>.
+	 * 
+	 * @param limits
+	 *            the limits, can be null.
+	 * @return false if there are no more assignments.
+	 */
+	public boolean advance(PlanningLimits limits) {
+		this.limits = limits;
+		long start = timed ? System.nanoTime() : 0;
+		try {
+			if (!(segment == null ? search() : searchSorted()))
+				return false;
+			found++;
+			return true;
+		} finally {
+			this.limits = null;
+			report();
+			if (timed)
+				nanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Copy the ordinals of the current assignment, in the order of <tt>getVariables</tt>.
+	 * 
+	 * @param tuple
+	 *            where to copy them.
+	 * @param offset
+	 *            the position of the first one.
+	 */
+	public void copyTuple(int[] tuple, int offset) {
+		if (this.tuple != null)
+			System.arraycopy(this.tuple, 0, tuple, offset, varOrder.length);
+		else
+			for (int i = 0; i < varOrder.length; i++)
+				tuple[offset + i] = levelDomains[i][i][position[i]];
+	}
+
+	/**
+	 * Build the assignment from a tuple of ordinals.
+	 * 
+	 * @param tuple
+	 *            the array holding the tuple.
+	 * @param offset
+	 *            the position of its first ordinal.
+	 * @return a new map from variable to value.
+	 */
+	public Map<Object, Frame> toAssignment(int[] tuple, int offset) {
+		Map<Object, Frame> result = new HashMap<Object, Frame>();
+		for (int i = 0; i < varOrder.length; i++)
+			result.put(varOrder[i], getFrame(tuple[offset + i]));
+		return result;
+	}
+
+	/** Add the counts of the checks to their totals and to the statistics, if any. */
+	protected void report() {
+		for (Check check : checks)
+			check.report(statistics);
+	}
+
+	/** Count a value tried and check the limits, if it is time to do so. */
+	protected void tick() {
+		if (++tried % CHECK_INTERVAL == 0 && limits != null)
+			limits.check();
+	}
+
+	/** Number of values tried so far, while filtering domains and searching. */
+	public long getTried() {
+		return tried;
+	}
+
+	/** Number of assignments produced so far. */
+	public long getFound() {
+		return found;
+	}
+
+	/** Time the search from now on. */
+	public void setTimed(boolean timed) {
+		this.timed = timed;
+	}
+
+	/** Time spent producing assignments, in nanoseconds, while timed. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/** The properties checked by this solver. */
+	public List<Property> getProperties() {
+		List<Property> result = new ArrayList<Property>(checks.size());
+		for (Check check : checks)
+			result.add(check.property);
+		return result;
+	}
+
+	/** Number of times the property at a given position of <tt>getProperties</tt> was checked. */
+	public long getChecks(int property) {
+		return checks.get(property).totalChecks;
+	}
+
+	/** Number of times the property at a given position of <tt>getProperties</tt> passed. */
+	public long getPasses(int property) {
+		return checks.get(property).totalPasses;
+	}
+
+	/** Size of the search space: the product of the sizes of the domains, after filtering them by unary properties. */
+	public long getSearchSpace() {
+		long result = 1;
+		for (int[] domain : domains)
+			if (domain.length == 0)
+				return 0;
+			else if (result > Long.MAX_VALUE / domain.length)
+				result = Long.MAX_VALUE;
+			else
+				result *= domain.length;
+		return result;
+	}
+
+	/** Advance the search to the next assignment, returning false if there are no more. */
+	protected boolean search() {
+		if (exhausted)
+			return false;
+		if (depth == -1) { // start
+			for (int[] domain : domains)
+				if (domain.length == 0)
+					return finish();
+			for (Check property : groundProperties)
+				if (!property.check(assignment, ontology))
+					return finish();
+			if (varOrder.length == 0) {
+				exhausted = true;
+				return true;
+			}
+			levelDomains[0] = domains;
+			depth = 0;
+			position[0] = -1;
+		} else if (depth == varOrder.length)
+			depth--; // backtrack from the last assignment produced
+
+		while (depth >= 0) {
+			tick();
+			int[] domain = levelDomains[depth][depth];
+			position[depth]++;
+			if (position[depth] >= domain.length) {
+				assignment[depth] = null;
+				depth--;
+				continue;
+			}
+			assignment[depth] = getFrame(domain[position[depth]]);
+			int[][] next;
+			try {
+				next = forwardCheck(depth, levelDomains[depth]);
+			} catch (PlanningLimits.Exceeded e) {
+				position[depth]--; // try this value again when resumed
+				throw e;
+			}
+			if (next == null)
+				continue;
+			depth++;
+			if (depth == varOrder.length)
+				return true;
+			levelDomains[depth] = next;
+			position[depth] = -1;
+		}
+		return finish();
+	}
+
+	/**
+	 * Advance to the next assignment in canonical order, taking it from the segment. When the segment is exhausted, it
+	 * is filled with the assignments sharing the value of the lead variable (or with all of them, if sorting by their
+	 * renderings) and sorted.
+	 */
+	protected boolean searchSorted() {
+		if (!filling) {
+			if (segmentNext < segment.size()) {
+				tuple = segment.get(segmentNext++);
+				return true;
+			}
+			segment.clear();
+			segmentNext = 0;
+			tuple = null;
+			if (pending == null) {
+				if (!search())
+					return false;
+				pending = new int[varOrder.length];
+				copyTuple(pending, 0);
+			}
+			segmentLead = pending[leadDepth];
+			filling = true;
+		}
+		while (true) {
+			if (pending == null) {
+				if (!search())
+					break;
+				pending = new int[varOrder.length];
+				copyTuple(pending, 0);
+			}
+			if (!byRendering && pending[leadDepth] != segmentLead)
+				break;
+			segment.add(pending);
+			pending = null;
+		}
+		filling = false;
+		sortSegment();
+		tuple = segment.get(segmentNext++);
+		return true;
+	}
+
+	/** Sort the assignments of the segment in canonical order. */
+	protected void sortSegment() {
+		if (byRendering) {
+			final Map<int[], String> renderings = new IdentityHashMap<int[], String>();
+			for (int[] found : segment) {
+				StringBuilder rendering = new StringBuilder();
+				for (int depth : sortDepths)
+					rendering.append(varOrder[depth]).append('=').append(getFrame(found[depth]).getID()).append(';');
+				renderings.put(found, rendering.toString());
+			}
+			Collections.sort(segment, new Comparator<int[]>() {
+				public int compare(int[] t1, int[] t2) {
+					return renderings.get(t1).compareTo(renderings.get(t2));
+				}
+			});
+		} else
+			Collections.sort(segment, new Comparator<int[]>() {
+				public int compare(int[] t1, int[] t2) {
+					for (int depth : sortDepths) {
+						int c = compareValues(t1[depth], t2[depth]);
+						if (c != 0)
+							return c;
+					}
+					return 0;
+				}
+			});
+	}
+
+	/** Compare the frames with two ordinals in canonical order. */
+	protected int compareValues(int o1, int o2) {
+		if (o1 == o2)
+			return 0;
+		if (o1 < base && o2 < base)
+			return ordinals.compare(o1, o2);
+		return CANONICAL_ORDER.compare(getFrame(o1), getFrame(o2));
+	}
+
+	/** The current (complete) assignment as a new map from variable to value. */
+	protected Map<Object, Frame> currentAssignment() {
+		Map<Object, Frame> result = new HashMap<Object, Frame>();
+		for (int i = 0; i < varOrder.length; i++)
+			result.put(varOrder[i], tuple == null ? assignment[i] : getFrame(tuple[i]));
+		return result;
+	}
+
+	/** Mark the search as exhausted, releasing the domains of the search. */
+	protected boolean finish() {
+		exhausted = true;
+		Arrays.fill(assignment, null);
+		Arrays.fill(levelDomains, null);
+		return false;
+	}
+
+	/**
+	 * Find all the (remaining) assignments satisfying the properties.
+	 * 
+	 * @return list of assignments, in canonical order.
+	 */
+	public List<Map<Object, Frame>> solve() {
+		List<Map<Object, Frame>> result = new ArrayList<Map<Object, Frame>>();
+		Map<Object, Frame> assignment = next();
+		while (assignment != null) {
+			result.add(assignment);
+			assignment = next();
+		}
+		return result;
+	}
+
+	/**
+	 * Filter the domains of the unassigned variables using the properties that are left with only one unbound variable
+	 * after assigning the variable at the given depth.
+	 *
+	 * @return the new domains or null if one of them became empty.
+	 */
+	protected int[][] forwardCheck(int depth, int[][] current) {
+		if (forwardChecks[depth].isEmpty())
+			return current;
+		int[][] next = current.clone();
+		for (Map.Entry<Integer, List<Check>> entry : forwardChecks[depth].entrySet()) {
+			int target = entry.getKey().intValue();
+			next[target] = filter(target, current[target], entry.getValue());
+			if (next[target].length == 0)
+				return null;
+		}
+		return next;
+	}
+
+	/** Keep the values of the variable at the given depth that satisfy all the properties. */
+	protected int[] filter(int depth, int[] domain, List<Check> properties) {
+		int[] result = new int[domain.length];
+		int kept = 0;
+		try {
+			for (int value : domain) {
+				tick();
+				assignment[depth] = getFrame(value);
+				boolean satisfied = true;
+				for (Check property : properties)
+					if (!property.check(assignment, ontology)) {
+						satisfied = false;
+						break;
+					}
+				if (satisfied)
+					result[kept++] = value;
+			}
+		} finally {
+			assignment[depth] = null;
+		}
+		return kept == domain.length ? domain : Arrays.copyOf(result, kept);
+	}
+
+	/** Checks sorted by the rank their property had when the solver was set up. */
+	protected static final Comparator<Check> BY_RANK = new Comparator<Check>() {
+		public int compare(Check c1, Check c2) {
+			return Double.compare(c1.rank, c2.rank);
+		}
+	};
+
+	/** A compiled property, counting how often it passes and timing a sample of its checks. */
+	protected static class Check {
+		protected final Property property;
+		protected final Property.Evaluator evaluator;
+		/** Rank of the property in the statistics, fixed so the order of the checks is stable. */
+		protected final double rank;
+		protected long checks;
+		protected long passes;
+		protected long samples;
+		protected long nanos;
+		/** Checks and passes over all the reports. */
+		protected long totalChecks;
+		protected long totalPasses;
+
+		Check(Property property, Property.Evaluator evaluator, PropertyStatistics statistics) {
+			this.property = property;
+			this.evaluator = evaluator;
+			this.rank = statistics == null ? 0.0 : statistics.getRank(property);
+		}
+
+		boolean check(Frame[] values, Ontology ontology) {
+			boolean passed;
+			if (checks++ % SAMPLE_INTERVAL == 0) {
+				long start = System.nanoTime();
+				passed = evaluator.check(values, ontology);
+				nanos += System.nanoTime() - start;
+				samples++;
+			} else
+				passed = evaluator.check(values, ontology);
+			if (passed)
+				passes++;
+			return passed;
+		}
+
+		/** Add the counts since the last report to the totals and to the statistics, if any. */
+		void report(PropertyStatistics statistics) {
+			totalChecks += checks;
+			totalPasses += passes;
+			if (statistics != null)
+				statistics.record(property, checks, passes, samples, nanos);
+			checks = passes = samples = nanos = 0;
+		}
+	}
+}
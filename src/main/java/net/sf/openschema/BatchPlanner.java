@@ -0,0 +1,204 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Instantiates a schema for many initial mappings (for example, one per entity to describe) in parallel, over the same
+ * frames and ontology. The planner is shared by all the tasks (see <tt>OpenSchemaPlanner</tt> for the conditions) and
+ * so is a <tt>TypeIndex</tt> over the frames, unless the frames are already a <tt>TypedFrameSet</tt>. If the frames
+ * were given to <tt>OpenSchemaPlanner.keepIndex</tt>, its extents are the ones the planner keeps for them, so they are
+ * also shared with other batches and instantiations.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class BatchPlanner {
+	/** The planner being instantiated. */
+	protected final OpenSchemaPlanner planner;
+	/** The executor running the instantiations. */
+	protected final ExecutorService executor;
+
+	/** Receives the document plans as they are completed. */
+	public interface Listener {
+		/**
+		 * Called, always from the thread that invoked <tt>instantiateAll</tt>, when an instantiation is finished.
+		 * 
+		 * @param position
+		 *            position of the initial mapping in the input.
+		 * @param initialMapping
+		 *            the initial mapping.
+		 * @param plan
+		 *            the resulting document plan.
+		 */
+		public void planned(int position, Map<String, Frame> initialMapping, DocumentPlan plan);
+	}
+
+	/**
+	 * Construct a batch planner using a given executor. The executor is not shut down by this class.
+	 * 
+	 * @param planner
+	 *            the planner to instantiate.
+	 * @param executor
+	 *            the executor where to run the instantiations.
+	 */
+	public BatchPlanner(OpenSchemaPlanner planner, ExecutorService executor) {
+		this.planner = planner;
+		this.executor = executor;
+	}
+
+	/**
+	 * Instantiate the schema for each initial mapping.
+	 * 
+	 * @param frames
+	 *            the data to fill the schema, shared by all instantiations.
+	 * @param initialMappings
+	 *            the initial mappings, one per document plan.
+	 * @param ontology
+	 *            the ontology, shared by all instantiations.
+	 * @return the document plans, in the same order as the initial mappings.
+	 */
+	public List<DocumentPlan> instantiateAll(FrameSet frames, List<Map<String, Frame>> initialMappings,
+			Ontology ontology) throws InterruptedException {
+		FrameSet indexed = index(frames, ontology);
+		List<Future<DocumentPlan>> futures = new ArrayList<Future<DocumentPlan>>(initialMappings.size());
+		try {
+			for (Map<String, Frame> initialMapping : initialMappings)
+				futures.add(executor.submit(new Instantiation(indexed, initialMapping, ontology, -1)));
+			List<DocumentPlan> result = new ArrayList<DocumentPlan>(futures.size());
+			for (Future<DocumentPlan> future : futures)
+				result.add(get(future));
+			return result;
+		} finally {
+			for (Future<DocumentPlan> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * Instantiate the schema for each initial mapping, passing the document plans to a listener as they are completed.
+	 * At most <tt>maxPending</tt> instantiations are submitted to the executor at any given time, so the initial
+	 * mappings can be produced lazily and only the plans not yet handed to the listener are kept in memory.
+	 * 
+	 * @param frames
+	 *            the data to fill the schema, shared by all instantiations.
+	 * @param initialMappings
+	 *            the initial mappings, one per document plan.
+	 * @param ontology
+	 *            the ontology, shared by all instantiations.
+	 * @param maxPending
+	 *            maximum number of instantiations submitted and not yet handed to the listener.
+	 * @param listener
+	 *            receives the document plans, in order of completion.
+	 */
+	public void instantiateAll(FrameSet frames, Iterable<Map<String, Frame>> initialMappings, Ontology ontology,
+			int maxPending, Listener listener) throws InterruptedException {
+		if (maxPending < 1)
+			throw new IllegalArgumentException("maxPending should be positive: " + maxPending);
+		FrameSet indexed = index(frames, ontology);
+		CompletionService<DocumentPlan> completion = new ExecutorCompletionService<DocumentPlan>(executor);
+		Map<Future<DocumentPlan>, Instantiation> pending = new HashMap<Future<DocumentPlan>, Instantiation>();
+		Iterator<Map<String, Frame>> it = initialMappings.iterator();
+		int submitted = 0;
+		try {
+			while (it.hasNext() || !pending.isEmpty()) {
+				while (it.hasNext() && pending.size() < maxPending) {
+					Instantiation task = new Instantiation(indexed, it.next(), ontology, submitted++);
+					pending.put(completion.submit(task), task);
+				}
+				Future<DocumentPlan> done = completion.take();
+				Instantiation task = pending.remove(done);
+				listener.planned(task.position, task.initialMapping, get(done));
+			}
+		} finally {
+			for (Future<DocumentPlan> future : pending.keySet())
+				future.cancel(true);
+		}
+	}
+
+	/**
+	 * Convenience method to instantiate the schema for each initial mapping on a new pool with the given number of
+	 * threads, shut down afterwards.
+	 * 
+	 * @return the document plans, in the same order as the initial mappings.
+	 */
+	public static List<DocumentPlan> instantiateAll(OpenSchemaPlanner planner, FrameSet frames,
+			List<Map<String, Frame>> initialMappings, Ontology ontology, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			return new BatchPlanner(planner, executor).instantiateAll(frames, initialMappings, ontology);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/** Share a type index among all the instantiations of a batch. */
+	protected FrameSet index(FrameSet frames, Ontology ontology) {
+		return frames instanceof TypedFrameSet ? frames : new TypeIndex(frames, ontology, planner.getIndex(frames));
+	}
+
+	/** Obtain the result of a finished instantiation, rethrowing its exception, if any. */
+	protected static DocumentPlan get(Future<DocumentPlan> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/** A single instantiation, as a task. */
+	protected class Instantiation implements Callable<DocumentPlan> {
+		protected final FrameSet frames;
+		protected final Map<String, Frame> initialMapping;
+		protected final Ontology ontology;
+		protected final int position;
+
+		public Instantiation(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, int position) {
+			this.frames = frames;
+			this.initialMapping = initialMapping;
+			this.ontology = ontology;
+			this.position = position;
+		}
+
+		public DocumentPlan call() {
+			return planner.instantiate(frames, initialMapping, ontology);
+		}
+	}
+}
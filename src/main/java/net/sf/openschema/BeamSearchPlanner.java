@@ -0,0 +1,185 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Instantiates a schema keeping several partial plans (beams) instead of committing to the first decision of the
+ * chooser. At each step, every continuation of every beam is scored (see <tt>PlanScorer</tt>) and the best
+ * <tt>width</tt> are kept, ranked by their score plus the best score reachable in the next <tt>lookahead</tt> steps.
+ * The chooser is only used to set the focus for each continuation. Beams share the values found in the cache, so the
+ * cost grows with the width (and exponentially with the lookahead, which should be kept small) but values are searched
+ * for only once. The plan with the best score among the finished ones is returned.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class BeamSearchPlanner {
+	/** The planner whose schema is instantiated. */
+	protected final OpenSchemaPlanner planner;
+	/** The scorer. */
+	protected final PlanScorer scorer;
+	/** Number of partial plans kept at each step. */
+	protected final int width;
+	/** Number of steps to look ahead when ranking partial plans. */
+	protected final int lookahead;
+
+	/**
+	 * Full constructor.
+	 * 
+	 * @param planner
+	 *            the planner whose schema is instantiated.
+	 * @param scorer
+	 *            the scorer for the partial plans.
+	 * @param width
+	 *            number of partial plans kept at each step, at least 1.
+	 * @param lookahead
+	 *            number of steps to look ahead when ranking partial plans, 0 to rank them by their score.
+	 */
+	public BeamSearchPlanner(OpenSchemaPlanner planner, PlanScorer scorer, int width, int lookahead) {
+		if (width < 1)
+			throw new IllegalArgumentException("The beam width should be positive: " + width);
+		if (lookahead < 0)
+			throw new IllegalArgumentException("The lookahead should not be negative: " + lookahead);
+		this.planner = planner;
+		this.scorer = scorer;
+		this.width = width;
+		this.lookahead = lookahead;
+	}
+
+	/** Same as <tt>OpenSchemaPlanner.instantiate</tt>, using beam search. */
+	public DocumentPlan instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology) {
+		DocumentPlan result = new DocumentPlan();
+		instantiate(frames, initialMapping, ontology, result);
+		return result;
+	}
+
+	/**
+	 * Same as <tt>OpenSchemaPlanner.instantiate</tt>, using beam search. The plan is passed to the sink once the search
+	 * is finished.
+	 */
+	public void instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink) {
+		Beam start = new Beam(null);
+		start.context = planner.new Context(frames, initialMapping, ontology, start.events);
+		List<Beam> beams = Collections.singletonList(start);
+		Beam best = null;
+		while (!beams.isEmpty()) {
+			List<Beam> candidates = new ArrayList<Beam>();
+			for (Beam beam : beams) {
+				List<Beam> continuations = expand(beam);
+				if (continuations.isEmpty()) {
+					if (best == null || beam.score > best.score)
+						best = beam;
+				} else
+					candidates.addAll(continuations);
+			}
+			for (Beam candidate : candidates)
+				candidate.rank = candidate.score + lookahead(candidate, lookahead);
+			Collections.sort(candidates, BY_RANK); // stable, ties are kept in expansion order
+			beams = candidates.size() > width ? candidates.subList(0, width) : candidates;
+		}
+
+		best.events.replay(sink, best.events.size());
+		sink.finish();
+	}
+
+	/**
+	 * All the continuations of a partial plan, one per node in its confusion set.
+	 * 
+	 * @return the continuations, empty if the plan is finished.
+	 */
+	protected List<Beam> expand(Beam beam) {
+		OpenSchemaPlanner.Context context = beam.context;
+		List<OpenSchemaPlanner.DecoratedNode> confusionSet = planner.computeConfusionSet(context.currentNode,
+				context.varMapping, context.cache, context.ontology, context.frames);
+		List<Beam> result = new ArrayList<Beam>(confusionSet.size());
+		if (confusionSet.isEmpty())
+			return result;
+		List<Frame> defaultFoci = new ArrayList<Frame>(confusionSet.size());
+		List<Map<String, Object>> fds = planner.describe(context, confusionSet, defaultFoci);
+		for (int i = 0; i < confusionSet.size(); i++) {
+			// let the chooser set the focus as if this were the only continuation
+			LocalChooser.Decision decision = planner.chooser.choose(Collections.singletonList(fds.get(i)),
+					Collections.singletonList(defaultFoci.get(i)), context.currentFocus, context.potentialFoci,
+					context.focusHistory, context.frames);
+			Beam next = new Beam(beam);
+			Map<String, Object> clause = planner.advance(next.context, confusionSet.get(i), decision);
+			next.score = beam.score
+					+ scorer.score(clause, context.currentFocus, context.potentialFoci, context.focusHistory,
+							next.context.currentFocus, next.context.potentialFoci);
+			result.add(next);
+		}
+		return result;
+	}
+
+	/** Best score that can be added to a partial plan in the given number of steps. */
+	protected double lookahead(Beam beam, int steps) {
+		if (steps == 0)
+			return 0;
+		double best = 0;
+		boolean first = true;
+		for (Beam next : expand(beam)) {
+			double score = next.score - beam.score + lookahead(next, steps - 1);
+			if (first || score > best)
+				best = score;
+			first = false;
+		}
+		return best;
+	}
+
+	/** Orders beams by decreasing rank. */
+	protected static final Comparator<Beam> BY_RANK = new Comparator<Beam>() {
+		public int compare(Beam b1, Beam b2) {
+			return Double.compare(b2.rank, b1.rank);
+		}
+	};
+
+	/** A partial plan. */
+	protected class Beam {
+		/** The state of the instantiation. */
+		protected OpenSchemaPlanner.Context context;
+		/** Everything passed to the sink by the context. */
+		protected final PlanEvents events;
+		/** Score of the plan so far. */
+		protected double score;
+		/** Score plus lookahead, to rank the plan. */
+		protected double rank;
+
+		/** Continue a partial plan, or start a new one if the parent is null (the context has to be set). */
+		protected Beam(Beam parent) {
+			if (parent == null) {
+				this.events = new PlanEvents((PlanSink) null);
+				this.score = 0;
+			} else {
+				this.events = new PlanEvents(parent.events);
+				this.score = parent.score;
+				this.context = parent.context.fork(events);
+			}
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+/**
+ * Lets another thread stop an instantiation in progress (see <tt>PlanningLimits</tt>).
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class CancellationToken {
+	/** Whether cancellation has been requested. */
+	protected volatile boolean cancelled;
+
+	/** Construct a token, not cancelled. */
+	public CancellationToken() {
+		this.cancelled = false;
+	}
+
+	/** Request the instantiations using this token to stop. */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/** Whether cancellation has been requested. */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,126 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A property whose check is Java code generated by <tt>SchemaCompiler</tt>, instead of a tree of Property subclasses
+ * built by <tt>parse</tt>. Subclasses implement <tt>check</tt> and <tt>compile</tt> with the paths of the property
+ * unrolled into loops; this class keeps the rest of what the planner needs to know about the property and some
+ * helpers for the generated code. Checks behave exactly as those of the parsed property.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public abstract class CompiledProperty extends Property {
+	/** The property, as written in the schema. */
+	private final String text;
+	/** Variables the property restricts. */
+	private final Set<String> variables;
+	/** Frame attributes the property reads. */
+	private final Set<String> attributes;
+	/** For equalities, the two sides; null otherwise. */
+	private final Object[] sides;
+
+	/**
+	 * Construct a property other than an equality.
+	 * 
+	 * @param text
+	 *            the property as written in the schema, returned by <tt>toString</tt>.
+	 * @param variables
+	 *            the variables it restricts.
+	 * @param attributes
+	 *            the frame attributes it reads.
+	 */
+	protected CompiledProperty(String text, String[] variables, String[] attributes) {
+		this.text = text;
+		this.variables = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(variables)));
+		this.attributes = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(attributes)));
+		this.sides = null;
+	}
+
+	/**
+	 * Construct an equality ('=='), whose sides are used to narrow the domains of its variables.
+	 * 
+	 * @param leftSide
+	 *            a reference to a variable or a path (see <tt>OpenSchemaPlanner.ref</tt>) or a ground string.
+	 * @param rightSide
+	 *            same as <tt>leftSide</tt>.
+	 */
+	protected CompiledProperty(String text, String[] variables, String[] attributes, Object leftSide,
+			Object rightSide) {
+		this.text = text;
+		this.variables = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(variables)));
+		this.attributes = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(attributes)));
+		this.sides = new Object[] { leftSide, rightSide };
+	}
+
+	public Set<String> variables() {
+		return variables;
+	}
+
+	public Set<String> attributes() {
+		return attributes;
+	}
+
+	protected Object[] getEqualitySides() {
+		return sides;
+	}
+
+	public String toString() {
+		return text;
+	}
+
+	/** The position of a variable in the array of values, -1 if it is not in the slots. */
+	protected static int slot(Map<Object, Integer> slots, String var) {
+		Integer slot = slots.get(var);
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/** The value at a position in the array of values, null for -1. */
+	protected static Frame value(Frame[] values, int slot) {
+		return slot == -1 ? null : values[slot];
+	}
+
+	/** The values of an attribute of a value, none if it is not a frame. */
+	@SuppressWarnings("unchecked")
+	protected static List<Object> follow(Object value, String attribute) {
+		return value instanceof Frame ? ((Frame) value).get(attribute) : Collections.EMPTY_LIST;
+	}
+
+	/** Whether a value at the end of a path is the target value (as in <tt>Property.reaches</tt>). */
+	protected static boolean same(Object target, Object value) {
+		return target == null ? value == null : target.equals(value);
+	}
+
+	/** Whether a value at the end of a path is a frame of a type under a concept. */
+	protected static boolean isA(Object value, String concept, Ontology ontology) {
+		return value instanceof Frame && ontology.isA(((Frame) value).getType(), concept);
+	}
+}
@@ -27,14 +27,17 @@ import java.util.Map;
 
 /**
  * A document plan, the output of document structuring schemata. In this case, a document plan is a list of paragraph.
- * Each paragraph is a list of aggregation segments. Each aggregation segment is a list of clauses.
+ * Each paragraph is a list of aggregation segments. Each aggregation segment is a list of clauses. It is also the
+ * <tt>PlanSink</tt> used when the whole plan is needed at once.
  * 
  * @author Pablo Ariel Duboue (pablo.duboue@gmail.com)
  */
 
-public class DocumentPlan {
+public class DocumentPlan implements PlanSink {
 	/** The document plan itself. */
 	protected List<List<List<Map<String, Object>>>> paragraphs;
+	/** Whether the instantiation stopped before finishing the plan. */
+	protected boolean truncated;
 
 	/** Empty constructor. */
 	public DocumentPlan() {
@@ -42,6 +45,7 @@ public class DocumentPlan {
 		List<List<Map<String, Object>>> aggr = new ArrayList<List<Map<String, Object>>>();
 		aggr.add(new ArrayList<Map<String, Object>>());
 		this.paragraphs.add(aggr);
+		this.truncated = false;
 	}
 
 	/** Adds a new clause to the open paragraph and aggregation segment. */
@@ -77,6 +81,20 @@ public class DocumentPlan {
 			lastPar.add(new ArrayList<Map<String, Object>>());
 	}
 
+	/** Marks the plan as truncated. */
+	public void truncate() {
+		truncated = true;
+	}
+
+	/** Nothing to do, the plan is already complete. */
+	public void finish() {
+	}
+
+	/** Whether the instantiation stopped before finishing the plan (see <tt>PlanningLimits</tt>). */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
 	/** Obtain the list of paragraphs. */
 	public List<List<List<Map<String, Object>>>> getParagraphs() {
 		return this.paragraphs;
@@ -0,0 +1,59 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores clauses using the same heuristics as <tt>SimpleFocusChooser</tt>: shifting the focus to a member of the
+ * previous potential focus list scores 3, keeping the focus 2, going back to a focus in the focus stack 1 and anything
+ * else 0. The links between the old and new potential focus lists, divided by the size of the new list (so at most 1),
+ * are added as a bonus.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class FocusScorer implements PlanScorer {
+	/** Used to compute the links between potential focus lists. */
+	protected final SimpleFocusChooser chooser;
+
+	/** Constructor, receives the ontology. */
+	public FocusScorer(Ontology ontology) {
+		this.chooser = new SimpleFocusChooser(ontology);
+	}
+
+	public double score(Map<String, Object> clause, Frame previousFocus, List<Frame> previousPotentialFoci,
+			List<Frame> focusStack, Frame focus, List<Frame> potentialFoci) {
+		double score = 0;
+		if (!focus.equals(previousFocus) && !focusStack.contains(focus) && previousPotentialFoci.contains(focus))
+			score = 3;
+		else if (focus.equals(previousFocus))
+			score = 2;
+		else if (focusStack.contains(focus))
+			score = 1;
+		if (!potentialFoci.isEmpty())
+			score += chooser.links(potentialFoci, previousPotentialFoci) / potentialFoci.size();
+		return score;
+	}
+}
@@ -0,0 +1,145 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dense integer ordinals for the frames of a <tt>FrameSet</tt>, from 0 to <tt>size() - 1</tt>. The planner uses them
+ * to represent the domains of the variables and the values found for a predicate as arrays of <tt>int</tt> instead
+ * of lists of frames and maps. Ordinals are given to frame objects: a different object with the same ID has no
+ * ordinal.
+ * <p>
+ * The frames are also ranked in the canonical order of the planner (by ID, see <tt>BacktrackingSolver</tt>), so
+ * sorting a domain compares integers instead of IDs. Ranking sorts all the frames, so it is only done once the domains
+ * sorted by comparing IDs add up to as many values as there are frames; before that, domains are sorted by comparing
+ * their frames. The planner keeps the ordinals of a frame set from one instantiation to the next, so the ranks are
+ * computed at most once per frame set.
+ * <p>
+ * The ordinals are fixed at construction and are safe to share among threads.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class FrameOrdinals {
+	/** The frames, indexed by ordinal. */
+	protected final Frame[] frames;
+	/** The ordinal of each frame. */
+	protected final Map<Frame, Integer> ordinals;
+	/** The rank of each frame, indexed by ordinal (null until computed). */
+	protected volatile int[] ranks;
+	/** The ordinal of the frame at each rank. */
+	protected int[] byRank;
+	/** Number of values sorted by comparing their frames, while not ranked. */
+	protected final AtomicLong compared;
+
+	/**
+	 * Number some frames, in the order of iteration.
+	 * 
+	 * @param frames
+	 *            the frames, usually <tt>FrameSet.getFrames()</tt>.
+	 */
+	public FrameOrdinals(Collection<Frame> frames) {
+		this.frames = frames.toArray(new Frame[frames.size()]);
+		this.ordinals = new IdentityHashMap<Frame, Integer>(this.frames.length);
+		for (int i = 0; i < this.frames.length; i++)
+			ordinals.put(this.frames[i], new Integer(i));
+		this.compared = new AtomicLong();
+	}
+
+	/** The ordinal of a frame, -1 if it has none. */
+	public int getOrdinal(Frame frame) {
+		Integer ordinal = ordinals.get(frame);
+		return ordinal == null ? -1 : ordinal.intValue();
+	}
+
+	/** The frame with a given ordinal. */
+	public Frame getFrame(int ordinal) {
+		return frames[ordinal];
+	}
+
+	/** Number of frames. */
+	public int size() {
+		return frames.length;
+	}
+
+	/** The position of the frame with a given ordinal in the canonical order. */
+	public int getRank(int ordinal) {
+		if (ranks == null)
+			rank();
+		return ranks[ordinal];
+	}
+
+	/** Compare the frames with two ordinals in canonical order, by rank if the frames are already ranked. */
+	public int compare(int ordinal1, int ordinal2) {
+		int[] ranks = this.ranks;
+		if (ranks != null)
+			return ranks[ordinal1] - ranks[ordinal2];
+		return BacktrackingSolver.CANONICAL_ORDER.compare(frames[ordinal1], frames[ordinal2]);
+	}
+
+	/**
+	 * Sort ordinals in the canonical order of their frames.
+	 * 
+	 * @param sorted
+	 *            the ordinals, sorted in place.
+	 */
+	public void sortByRank(int[] sorted) {
+		if (ranks == null && compared.addAndGet(sorted.length) <= frames.length) {
+			Frame[] values = new Frame[sorted.length];
+			for (int i = 0; i < sorted.length; i++)
+				values[i] = frames[sorted[i]];
+			Arrays.sort(values, BacktrackingSolver.CANONICAL_ORDER);
+			for (int i = 0; i < sorted.length; i++)
+				sorted[i] = getOrdinal(values[i]);
+			return;
+		}
+		if (ranks == null)
+			rank();
+		int[] ranks = this.ranks;
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = ranks[sorted[i]];
+		Arrays.sort(sorted);
+		for (int i = 0; i < sorted.length; i++)
+			sorted[i] = byRank[sorted[i]];
+	}
+
+	/** Rank the frames, sorting them once by ID. */
+	protected synchronized void rank() {
+		if (ranks != null)
+			return;
+		Frame[] sorted = frames.clone();
+		Arrays.sort(sorted, BacktrackingSolver.CANONICAL_ORDER);
+		int[] byRank = new int[sorted.length];
+		int[] ranks = new int[sorted.length];
+		for (int i = 0; i < sorted.length; i++) {
+			byRank[i] = getOrdinal(sorted[i]);
+			ranks[byRank[i]] = i;
+		}
+		this.byRank = byRank;
+		this.ranks = ranks; // last, it marks the tables as ready
+	}
+}
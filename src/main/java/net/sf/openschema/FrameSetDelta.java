@@ -0,0 +1,107 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A description of the changes applied to a <tt>FrameSet</tt> after a plan was recorded, used to re-plan incrementally
+ * (see <tt>OpenSchemaPlanner.replan</tt>). Changes are tracked conservatively: a changed attribute affects every
+ * predicate reading an attribute with that name, no matter the frame, and an added or removed frame affects every
+ * predicate with a variable of a type above the type of the frame. Changing the type of a frame affects everything.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class FrameSetDelta {
+	/** Names of the changed attributes. */
+	protected final Set<String> attributes;
+	/** Types of the added or removed frames. */
+	protected final List<Object> types;
+	/** Whether the type of an existing frame changed. */
+	protected boolean typeChanged;
+
+	/** Construct an empty delta. */
+	public FrameSetDelta() {
+		this.attributes = new HashSet<String>();
+		this.types = new ArrayList<Object>();
+		this.typeChanged = false;
+	}
+
+	/** An attribute of a frame was added, removed or changed its values. */
+	public void attributeChanged(Frame frame, String attribute) {
+		attributes.add(attribute);
+	}
+
+	/** A frame was added to the frame set. Attributes of other frames now pointing to it should be reported, too. */
+	public void frameAdded(Frame frame) {
+		types.add(frame.getType());
+	}
+
+	/** A frame was removed from the frame set. Attributes of other frames pointing to it should be reported, too. */
+	public void frameRemoved(Frame frame) {
+		types.add(frame.getType());
+	}
+
+	/** The type of a frame changed. */
+	public void typeChanged(Frame frame, Object oldType) {
+		typeChanged = true;
+	}
+
+	/** Whether there are no changes. */
+	public boolean isEmpty() {
+		return attributes.isEmpty() && types.isEmpty() && !typeChanged;
+	}
+
+	/** Whether frames were added or removed or changed their types, so indices of the frames have to be rebuilt. */
+	public boolean changesFrames() {
+		return !types.isEmpty() || typeChanged;
+	}
+
+	/**
+	 * Whether the changes can affect the values of a predicate.
+	 * 
+	 * @param attributes
+	 *            the attributes read by the predicate.
+	 * @param varTypes
+	 *            the types of the variables of the predicate.
+	 * @param ontology
+	 *            the ontology, to compare types.
+	 */
+	public boolean affects(Set<String> attributes, Collection<String> varTypes, Ontology ontology) {
+		if (typeChanged)
+			return true;
+		for (String attribute : attributes)
+			if (this.attributes.contains(attribute))
+				return true;
+		for (Object type : types)
+			for (String varType : varTypes)
+				if (ontology.isA(type, varType))
+					return true;
+		return false;
+	}
+}
@@ -0,0 +1,119 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * What the planner knows about the frames of a <tt>FrameSet</tt> during an instantiation (or from one instantiation to
+ * the next, see below): the frames grouped by type and numbered (unless the frame set numbers them itself), at
+ * construction, and the frames under each concept requested so far, for each ontology. The frames under a concept are
+ * computed the first time they are requested, checking each distinct type (instead of each frame) against the
+ * ontology.
+ * <p>
+ * The index keeps no reference to the frame set nor to the ontologies (the extents of an ontology are dropped once the
+ * ontology is collected), so the planner can keep it in a weak map keyed by the frame set, for the frame sets given to
+ * <tt>OpenSchemaPlanner.keepIndex</tt>; otherwise, a new one is built for each instantiation. A kept index is built
+ * again if the number of frames changes (see <tt>OpenSchemaPlanner.forgetIndex</tt> for other changes). It is safe to
+ * share among threads, as long as the underlying frames are not modified.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+class FrameSetIndex {
+	/** Number of frames when the index was built. */
+	protected final int size;
+	/** The frames grouped by their type. */
+	protected final Map<Object, List<Frame>> framesByType;
+	/** Frames under each concept requested so far, by ontology. */
+	protected final Map<Ontology, ConcurrentMap<Object, List<Frame>>> extents;
+	/** Ordinals of the frames, null if the frame set is an <tt>OrdinalFrameSet</tt>. */
+	protected final FrameOrdinals ordinals;
+
+	/** Index the frames of a frame set. */
+	public FrameSetIndex(FrameSet frames) {
+		this.size = frames.getFrames().size();
+		this.framesByType = new LinkedHashMap<Object, List<Frame>>();
+		for (Frame frame : frames.getFrames()) {
+			List<Frame> ofType = framesByType.get(frame.getType());
+			if (ofType == null) {
+				ofType = new ArrayList<Frame>();
+				framesByType.put(frame.getType(), ofType);
+			}
+			ofType.add(frame);
+		}
+		this.extents = new WeakHashMap<Ontology, ConcurrentMap<Object, List<Frame>>>();
+		this.ordinals = frames instanceof OrdinalFrameSet ? null : new FrameOrdinals(frames.getFrames());
+	}
+
+	/** Number of frames when the index was built. */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Ordinals of the frames, kept with the index so their ranks are computed once (see <tt>FrameOrdinals</tt>); null
+	 * if the frame set numbers its frames itself.
+	 */
+	public FrameOrdinals getOrdinals() {
+		return ordinals;
+	}
+
+	/** Get all the frames which type is a sub-type of the given type, according to an ontology. */
+	public List<Frame> getFramesUnderType(Object type, Ontology ontology) {
+		if (type == null) // not allowed as key
+			return computeExtent(type, ontology);
+		ConcurrentMap<Object, List<Frame>> known;
+		synchronized (extents) {
+			known = extents.get(ontology);
+			if (known == null) {
+				known = new ConcurrentHashMap<Object, List<Frame>>();
+				extents.put(ontology, known);
+			}
+		}
+		List<Frame> extent = known.get(type);
+		if (extent == null) {
+			extent = computeExtent(type, ontology);
+			List<Frame> previous = known.putIfAbsent(type, extent);
+			if (previous != null)
+				extent = previous;
+		}
+		return extent;
+	}
+
+	/** Compute the frames under a type, checking each distinct type against the ontology. */
+	protected List<Frame> computeExtent(Object type, Ontology ontology) {
+		List<Frame> result = new ArrayList<Frame>();
+		for (Map.Entry<Object, List<Frame>> entry : framesByType.entrySet())
+			if (ontology.isA(entry.getKey(), type))
+				result.addAll(entry.getValue());
+		return Collections.unmodifiableList(result);
+	}
+}
@@ -0,0 +1,222 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ObjectName;
+
+/**
+ * A <tt>MetricsRegistry</tt> keeping counters and histograms in memory, exposed as a JMX MBean. Each counter is an
+ * attribute under its name and each histogram is a group of attributes ("name.count", "name.mean", "name.max",
+ * "name.p50", "name.p99"). Metrics appear as they are first reported. The <tt>reset</tt> operation forgets all of
+ * them. This class is thread-safe.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class JmxMetricsRegistry implements MetricsRegistry, DynamicMBean {
+	/** Counters, by name. */
+	protected final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	/** Histograms, by name. */
+	protected final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	public void count(String name, long delta) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong previous = counters.putIfAbsent(name, counter = new AtomicLong());
+			if (previous != null)
+				counter = previous;
+		}
+		counter.addAndGet(delta);
+	}
+
+	public void record(String name, long value) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			Histogram previous = histograms.putIfAbsent(name, histogram = new Histogram());
+			if (previous != null)
+				histogram = previous;
+		}
+		histogram.record(value);
+	}
+
+	/** Value of a counter, 0 if it has not been reported. */
+	public long getCount(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/** A histogram, null if it has not been reported. */
+	public Histogram getHistogram(String name) {
+		return histograms.get(name);
+	}
+
+	/** Forget all the metrics. */
+	public void reset() {
+		counters.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Register this registry in the platform MBean server.
+	 * 
+	 * @param name
+	 *            the object name, such as "net.sf.openschema:type=Planner,name=biography".
+	 */
+	public void register(String name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+	}
+
+	/** Current values of all the metrics, by attribute name. */
+	public Map<String, Object> snapshot() {
+		Map<String, Object> result = new TreeMap<String, Object>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+			result.put(entry.getKey(), new Long(entry.getValue().get()));
+		for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+			Histogram histogram = entry.getValue();
+			String name = entry.getKey();
+			result.put(name + ".count", new Long(histogram.getCount()));
+			result.put(name + ".mean", new Double(histogram.getMean()));
+			result.put(name + ".max", new Long(histogram.getMax()));
+			result.put(name + ".p50", new Long(histogram.getPercentile(0.5)));
+			result.put(name + ".p99", new Long(histogram.getPercentile(0.99)));
+		}
+		return result;
+	}
+
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Map.Entry<String, Object> entry : snapshot().entrySet())
+			result.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		return result.toString();
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		Object value = snapshot().get(attribute);
+		if (value == null)
+			throw new AttributeNotFoundException(attribute);
+		return value;
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		Map<String, Object> snapshot = snapshot();
+		AttributeList result = new AttributeList();
+		for (String attribute : attributes)
+			if (snapshot.containsKey(attribute))
+				result.add(new Attribute(attribute, snapshot.get(attribute)));
+		return result;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) {
+		if (!actionName.equals("reset"))
+			throw new IllegalArgumentException("Unknown operation '" + actionName + "'");
+		reset();
+		return null;
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Map.Entry<String, Object> entry : snapshot().entrySet())
+			attributes.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(), entry.getKey(),
+					true, false, false));
+		MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Forget all the metrics",
+				new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+		return new MBeanInfo(getClass().getName(), "OpenSchema planner metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[] { reset }, null);
+	}
+
+	/**
+	 * A histogram of non-negative values, in buckets of powers of two. Percentiles are approximate: the upper bound of
+	 * the bucket they fall in.
+	 */
+	public static class Histogram {
+		/** Counts, bucket i holding the values of i significant bits. */
+		protected final AtomicLongArray buckets = new AtomicLongArray(65);
+		protected final AtomicLong count = new AtomicLong();
+		protected final AtomicLong sum = new AtomicLong();
+		protected final AtomicLong max = new AtomicLong();
+
+		/** Add a value (negative values count as 0). */
+		public void record(long value) {
+			if (value < 0)
+				value = 0;
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long current = max.get();
+			while (value > current && !max.compareAndSet(current, value))
+				current = max.get();
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public double getMean() {
+			long n = count.get();
+			return n == 0 ? 0.0 : (double) sum.get() / n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/** Approximate value below which a given fraction of the values fall. */
+		public long getPercentile(double fraction) {
+			long target = (long) Math.ceil(fraction * count.get());
+			long seen = 0;
+			for (int i = 0; i < 65; i++) {
+				seen += buckets.get(i);
+				if (seen >= target && seen > 0)
+					return Math.min(i == 64 ? Long.MAX_VALUE : (1L << i) - 1, getMax());
+			}
+			return getMax();
+		}
+	}
+}
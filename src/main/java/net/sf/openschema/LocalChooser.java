@@ -28,7 +28,9 @@ import java.util.Map;
 import java.util.Set;
 
 /**
- * Abstract class for deciding which continuation to follow in the schema instantiation process.
+ * Abstract class for deciding which continuation to follow in the schema instantiation process. A chooser is shared by
+ * all the instantiations of an <tt>OpenSchemaPlanner</tt>, so implementations should not keep state between calls
+ * (or should synchronize it) if the planner is used from several threads.
  * 
  * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
  */
@@ -40,6 +42,15 @@ public abstract class LocalChooser {
 	public abstract Decision choose(List<Map<String, Object>> fds, List<Frame> defaultFoci, Object currentFocus,
 			List<Frame> potentialFoci, List<Frame> focusStack, FrameSet frames);
 
+	/**
+	 * Version of <tt>choose</tt> reporting to the tracer of the instantiation, as used by the planner. By default the
+	 * tracer is ignored; choosers with intermediate results worth tracing override this method.
+	 */
+	public Decision choose(List<Map<String, Object>> fds, List<Frame> defaultFoci, Object currentFocus,
+			List<Frame> potentialFoci, List<Frame> focusStack, FrameSet frames, PlanTracer tracer) {
+		return choose(fds, defaultFoci, currentFocus, potentialFoci, focusStack, frames);
+	}
+
 	/**
 	 * Extract a set of potential foci from a given clause. As the clauses store only frame names but not the frame
 	 * themselves, the FrameSet is used to do that mapping.
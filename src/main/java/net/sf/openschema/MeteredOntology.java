@@ -0,0 +1,59 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+/**
+ * An ontology that counts the calls to another one in a <tt>MetricsRegistry</tt>. The chooser and the planner call
+ * the ontology they are given, so the same <tt>MeteredOntology</tt> should be passed to both to count all the calls.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class MeteredOntology implements Ontology {
+	/** The ontology answering the calls. */
+	protected final Ontology ontology;
+	/** Where the calls are counted. */
+	protected final MetricsRegistry metrics;
+
+	/**
+	 * Full constructor.
+	 * 
+	 * @param ontology
+	 *            the ontology answering the calls.
+	 * @param metrics
+	 *            where the calls are counted.
+	 */
+	public MeteredOntology(Ontology ontology, MetricsRegistry metrics) {
+		this.ontology = ontology;
+		this.metrics = metrics;
+	}
+
+	public boolean isA(Object child, Object parent) {
+		metrics.count(MetricsRegistry.ONTOLOGY_IS_A, 1);
+		return ontology.isA(child, parent);
+	}
+
+	public double distance(Object concept1, Object concept2) {
+		metrics.count(MetricsRegistry.ONTOLOGY_DISTANCE, 1);
+		return ontology.distance(concept1, concept2);
+	}
+}
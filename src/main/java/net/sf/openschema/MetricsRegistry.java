@@ -0,0 +1,61 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+/**
+ * Where the planner reports what it does, for monitoring. A registry is attached to a planner with
+ * <tt>OpenSchemaPlanner.setMetricsRegistry</tt>; without one, nothing is measured. The planner reports at the end of
+ * each instantiation, from the thread that ran it, so implementations should be thread-safe.
+ * <tt>JmxMetricsRegistry</tt> keeps the metrics in memory and exposes them through JMX; other implementations can
+ * forward them to an existing monitoring system.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public interface MetricsRegistry {
+	/** Time taken by an instantiation, in nanoseconds (recorded). */
+	public static final String INSTANTIATE_NANOS = "instantiate.nanos";
+	/** Clauses in a plan (recorded). */
+	public static final String PLAN_CLAUSES = "plan.clauses";
+	/** Plans truncated by their limits (counted). */
+	public static final String PLANS_TRUNCATED = "plan.truncated";
+	/** Value cache lookups that found values (counted). */
+	public static final String CACHE_HITS = "cache.hits";
+	/** Value cache lookups that required a search (counted). */
+	public static final String CACHE_MISSES = "cache.misses";
+	/** Size of the search space of a search for values: product of the domain sizes (recorded). */
+	public static final String SEARCH_SPACE = "search.space";
+	/** Values tried while searching for values (counted). */
+	public static final String SEARCH_TRIED = "search.tried";
+	/** Time spent by the chooser deciding a clause, in nanoseconds (recorded). */
+	public static final String CHOOSER_NANOS = "chooser.nanos";
+	/** Calls to <tt>Ontology.isA</tt>, through a <tt>MeteredOntology</tt> (counted). */
+	public static final String ONTOLOGY_IS_A = "ontology.isA";
+	/** Calls to <tt>Ontology.distance</tt>, through a <tt>MeteredOntology</tt> (counted). */
+	public static final String ONTOLOGY_DISTANCE = "ontology.distance";
+
+	/** Add to a counter. */
+	public void count(String name, long delta);
+
+	/** Record an observation in a histogram. */
+	public void record(String name, long value);
+}
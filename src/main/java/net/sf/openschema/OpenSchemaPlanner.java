@@ -22,14 +22,19 @@
 package net.sf.openschema;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -43,18 +48,21 @@ import org.xml.sax.InputSource;
  * Main OpenSchema class. The schema is created from an XML file. At construction, the strategy for selecting local
  * choices is also specified. Once created, the schema is instantiated with a frameset and an ontology. The result of an
  * instantiated schema is a document plan.
+ * <p>
+ * Once constructed, the planner is not modified by instantiating it: the predicates and the node network are
+ * immutable and the state of each instantiation is kept in a separate <tt>Context</tt>. A single planner can
+ * therefore be shared by several threads instantiating it concurrently, provided its <tt>LocalChooser</tt> is
+ * thread-safe (all the choosers in this package are) and the frames and ontology are not modified meanwhile.
  * 
  * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
  */
 
 public class OpenSchemaPlanner {
-	/** Verbosity flag, defaults to off. */
-	public static boolean verbose = false;
 	/**
 	 * Top-level node of the schema, here is where the instantiation starts. The whole network is constructed from the
 	 * XML in the build method.
 	 */
-	protected Node top;
+	protected final Node top;
 	/**
 	 * Definition of the rhetorical predicates. The keys are names ( <tt>String</tt>), the values are instances of the
 	 * inner class <tt>Predicate</tt>.
@@ -63,9 +71,26 @@ public class OpenSchemaPlanner {
 	/**
 	 * LocalChooser, decides which node to continue the instantiation of the schema.
 	 */
-	protected LocalChooser chooser;
+	protected final LocalChooser chooser;
+	/** Number of value cache lookups that found values, over all instantiations. */
+	protected final AtomicLong cacheHits = new AtomicLong();
+	/** Number of value cache lookups that required a search, over all instantiations. */
+	protected final AtomicLong cacheMisses = new AtomicLong();
+	/** Pass rate and cost of the properties, used to order their checks, over all instantiations. */
+	protected final PropertyStatistics propertyStatistics = new PropertyStatistics();
+	/** Where to report metrics, null for none. */
+	protected volatile MetricsRegistry metrics;
+	/** Guardrails on the size of the searches for values. */
+	protected volatile SearchGuard searchGuard = SearchGuard.NONE;
+	/** Where to add the reports of the instantiations, null for none. */
+	protected volatile SchemaProfile profile;
+	/**
+	 * Indices kept across instantiations for the frame sets given to <tt>keepIndex</tt>, while the frame sets are in
+	 * use (null until the index is built again).
+	 */
+	protected final Map<FrameSet, FrameSetIndex> indices = new WeakHashMap<FrameSet, FrameSetIndex>();
 
-	protected static Frame EMPTY_FOCUS = new Frame() {
+	protected static final Frame EMPTY_FOCUS = new Frame() {
 
 		@Override
 		public Object getType() {
@@ -129,15 +154,147 @@ public class OpenSchemaPlanner {
 	 *            continuation nodes during instantiation.
 	 */
 	public OpenSchemaPlanner(InputSource source, LocalChooser chooser) throws JAXBException {
+		this(parse(source), chooser);
+	}
+
+	/** Constructor from the JAXB generated schema class. */
+	protected OpenSchemaPlanner(OpenSchema schema, LocalChooser chooser) {
+		this.top = new Node("top-");
+		assembleSchema(schema);
+		this.chooser = chooser;
+	}
+
+	/**
+	 * Constructor for subclasses that define the schema themselves (such as the ones generated by
+	 * <tt>SchemaCompiler</tt>), using <tt>definePredicate</tt>, <tt>defineNode</tt> and either <tt>Node.linkTo</tt>
+	 * starting from <tt>top</tt> or <tt>defineFrontier</tt>, and finishing with <tt>compileSchema</tt>.
+	 */
+	protected OpenSchemaPlanner(LocalChooser chooser) {
+		this.top = new Node("top-");
+		this.predicates = new HashMap<String, Predicate>();
+		this.chooser = chooser;
+	}
+
+	/** Read the XML of a schema. */
+	protected static OpenSchema parse(InputSource source) throws JAXBException {
 		JAXBContext context = JAXBContext.newInstance("net.sf.openschema:net.sf.jfuf.fd");
 		Unmarshaller unmarshaller = context.createUnmarshaller();
-		assembleSchema((net.sf.openschema.OpenSchema) unmarshaller.unmarshal(source));
-		this.chooser = chooser;
+		return (OpenSchema) unmarshaller.unmarshal(source);
+	}
+
+	/**
+	 * Define a predicate, for subclasses defining the schema themselves.
+	 * 
+	 * @param id
+	 *            the predicate ID.
+	 * @param defaultFocus
+	 *            the variable holding the default focus.
+	 * @param varsAndTypes
+	 *            variable names followed by their types.
+	 * @param requiredVars
+	 *            the names of the required variables.
+	 * @param properties
+	 *            the properties, in the same syntax as in the XML.
+	 * @param output
+	 *            the output FD, see <tt>fd</tt> and <tt>ref</tt>.
+	 * @return the predicate.
+	 */
+	protected Predicate definePredicate(String id, String defaultFocus, String[] varsAndTypes, String[] requiredVars,
+			String[] properties, Map<String, Object> output) {
+		Set<String> vars = new HashSet<String>();
+		for (int i = 0; i < varsAndTypes.length; i += 2)
+			vars.add(varsAndTypes[i]);
+		Property[] parsed = new Property[properties.length];
+		for (int i = 0; i < properties.length; i++)
+			parsed[i] = Property.parse(properties[i], vars);
+		return definePredicate(id, defaultFocus, varsAndTypes, requiredVars, parsed, output);
+	}
+
+	/**
+	 * Define a predicate with properties already built (such as the <tt>CompiledProperty</tt> subclasses generated by
+	 * <tt>SchemaCompiler</tt>), for subclasses defining the schema themselves. See the other
+	 * <tt>definePredicate</tt>.
+	 */
+	protected Predicate definePredicate(String id, String defaultFocus, String[] varsAndTypes, String[] requiredVars,
+			Property[] properties, Map<String, Object> output) {
+		Map<String, String> vars = new HashMap<String, String>();
+		for (int i = 0; i < varsAndTypes.length; i += 2)
+			vars.put(varsAndTypes[i], varsAndTypes[i + 1]);
+		Predicate predicate = new Predicate(id, defaultFocus, vars, new HashSet<String>(Arrays.asList(requiredVars)),
+				new ArrayList<Property>(Arrays.asList(properties)), output);
+		predicates.put(id, predicate);
+		return predicate;
+	}
+
+	/**
+	 * Define a node, for subclasses defining the schema themselves.
+	 * 
+	 * @param type
+	 *            the type of the node (<tt>EMPTY_NODE</tt>, <tt>PREDICATE_NODE</tt>, etc.).
+	 * @param name
+	 *            the full name of the node.
+	 * @param predicate
+	 *            for predicate nodes, the ID of a predicate already defined; null otherwise.
+	 * @param localAndGlobalVars
+	 *            for predicate nodes, local variable names followed by the global ones they are bound to.
+	 * @return the node.
+	 */
+	protected Node defineNode(int type, String name, String predicate, String[] localAndGlobalVars) {
+		if (predicate == null)
+			return new Node(type, name, null, null);
+		if (!predicates.containsKey(predicate))
+			throw new IllegalArgumentException("Undefined predicate: " + predicate);
+		Map<String, String> vars = new HashMap<String, String>();
+		for (int i = 0; i < localAndGlobalVars.length; i += 2)
+			vars.put(localAndGlobalVars[i], localAndGlobalVars[i + 1]);
+		return new Node(type, name, predicates.get(predicate), Collections.unmodifiableMap(vars));
+	}
+
+	/** Build an FD from its attributes followed by their values, for subclasses defining the schema themselves. */
+	protected static Map<String, Object> fd(Object... attributesAndValues) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		for (int i = 0; i < attributesAndValues.length; i += 2)
+			result.put((String) attributesAndValues[i], attributesAndValues[i + 1]);
+		return Collections.unmodifiableMap(result);
+	}
+
+	/** A reference to a variable or a path from a variable, to use as value in <tt>fd</tt>. */
+	protected static Object ref(String reference) {
+		return reference.indexOf('.') == -1 ? new VarRef(reference) : PathRef.parse(reference);
+	}
+
+	/**
+	 * Set the frontier of a node already compiled (see <tt>compile</tt>), for subclasses defining the schema
+	 * themselves. The node is linked to the nodes in its frontier and cannot be linked anymore.
+	 * 
+	 * @param node
+	 *            the top node or a predicate node.
+	 * @param frontier
+	 *            the predicate nodes reachable from it, in breadth-first order.
+	 */
+	protected void defineFrontier(Node node, DecoratedNode... frontier) {
+		node.setFrontier(frontier);
+		node.collapse();
+	}
+
+	/**
+	 * Finish defining the schema: forbid further changes and compile it, unless the frontiers were already defined
+	 * with <tt>defineFrontier</tt>.
+	 */
+	protected void compileSchema() {
+		this.predicates = Collections.unmodifiableMap(predicates);
+		if (top.frontier == null)
+			compile(top);
 	}
 
 	/**
 	 * Main method, takes data to instantiate the schema, an initial variable mapping and an ontology and returns a
 	 * DocumentPlan.
+	 * <p>
+	 * The frames are grouped by type and numbered at the start of each instantiation, unless the frame set does it
+	 * itself (<tt>TypedFrameSet</tt>, <tt>OrdinalFrameSet</tt>) or was given to <tt>keepIndex</tt>, which keeps the
+	 * index from one instantiation to the next. A kept index is only built again when the number of frames changes, so
+	 * after changing the types or IDs of the frames, or replacing them, the caller has to call <tt>forgetIndex</tt>.
 	 * 
 	 * @param frames
 	 *            a class implementing the <tt>FrameSet</tt> interface, for example <tt>RDFFrameSet</tt> containing the
@@ -148,90 +305,488 @@ public class OpenSchemaPlanner {
 	 *            a class implementing the <tt>Ontology</tt> interface, for example <tt>RDFOntology</tt>.
 	 */
 	public DocumentPlan instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology) {
-		// initialize variables
 		DocumentPlan result = new DocumentPlan();
+		instantiate(frames, initialMapping, ontology, result);
+		return result;
+	}
 
-		Cache cache = new Cache();
-		Map<String, Frame> varMapping = new HashMap<String, Frame>(initialMapping);
-		List<Frame> focusHistory = new ArrayList<Frame>();
-		Frame currentFocus = initialMapping.size() == 0 ? EMPTY_FOCUS : initialMapping.values().iterator().next();
-		List<Frame> potentialFoci = new ArrayList<Frame>();
-
-		// main cycle
-		Node currentNode = top;
-		while (currentNode != null) {
-			if (verbose)
-				System.err.println("CURRENT NODE=" + currentNode);
-			// find which nodes are reachable from current node
-			List<DecoratedNode> confusionSet = computeConfusionSet(currentNode, varMapping, cache, ontology, frames);
-			if (verbose) {
-				System.err.println("confusionSet.size()==" + confusionSet.size());
-				if (confusionSet.size() > 1)
-					System.err.println(confusionSet);
-			}
-			if (confusionSet.isEmpty()) {
-				currentNode = null;
-				break;
-			}
+	/**
+	 * Streaming version of <tt>instantiate</tt>: each clause and boundary is passed to a sink as soon as it is decided,
+	 * instead of returning the document plan at the end.
+	 * 
+	 * @param frames
+	 *            the data to fill the schema.
+	 * @param initialMapping
+	 *            a mapping from variable names to values (<tt>Frame</tt>s).
+	 * @param ontology
+	 *            the ontology.
+	 * @param sink
+	 *            receives the document plan as it is built, <tt>finish</tt> is called at the end.
+	 */
+	public void instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink) {
+		instantiate(frames, initialMapping, ontology, sink, PlanningLimits.NONE);
+	}
 
-			// transform the confusion set to something suitable for the chooser to process
-			List<Map<String, Object>> fds = new ArrayList<Map<String, Object>>(confusionSet.size());
-			List<Frame> defaultFoci = new ArrayList<Frame>(confusionSet.size());
-			// extract the FDs and the default focus for the decorated nodes (nodes decorated with aggr. and par.
-			// boundaries)
-			for (DecoratedNode decoratedNode : confusionSet) {
-				List<Map<Object, Frame>> values = cache.fetch(decoratedNode.getNode(), varMapping);
-				Map<Object, Frame> valueMapping = values.get(0);
-
-				fds.add(instantiateClause(decoratedNode.getNode().getPredicate().getOutput(), valueMapping));
-				defaultFoci.add(valueMapping.get(decoratedNode.getNode().getPredicate().getDefaultFocus()));
-			}
-			// choose
-			LocalChooser.Decision decision = chooser.choose(fds, defaultFoci, currentFocus, potentialFoci,
-					focusHistory, frames);
-			// understand and process the decision
-			DecoratedNode decoratedNode = confusionSet.get(decision.getPosition());
-			currentFocus = decision.getCurrentFocus();
-			potentialFoci = decision.getPotentialFoci();
-			int positionInHistory = focusHistory.lastIndexOf(currentFocus);
-			if (positionInHistory == -1)
-				focusHistory.add(currentFocus);
-			else
-				focusHistory = focusHistory.subList(0, positionInHistory + 1);
-
-			// create the clause
-			Map<String, Object> clause = instantiatePredicate(decoratedNode.getNode(), varMapping, cache, true);
-
-			if (decoratedNode.isAggrBoundary())
-				result.addAggrBoundary();
-			if (decoratedNode.isParBoundary())
-				result.addParBoundary();
-
-			currentNode = decoratedNode.getNode();
-
-			// add the clause
-			if (verbose)
-				System.err.println("Adding clause: " + clause);
-			// (focus info is recorded as it may be used by referring expression generators, etc.)
-			clause.put("focus", ((Frame) currentFocus).getID());
-			List<Map<String, Object>> focusStack = new ArrayList<Map<String, Object>>();
-			for (int i = focusHistory.size() - 1; i >= 0; i--) {
-				Map<String, Object> focusPair = new HashMap<String, Object>();
-				focusPair.put("focus", ((Frame) focusHistory.get(i)).getID());
-				focusStack.add(focusPair);
-			}
-			clause.put("focus-stack", focusStack);
-			List<Map<String, Object>> potentialFocusList = new ArrayList<Map<String, Object>>();
-			for (int i = 0; i < potentialFoci.size(); i++) {
-				Map<String, Object> focusPair = new HashMap<String, Object>();
-				focusPair.put("focus", ((Frame) potentialFoci.get(i)).getID());
-				potentialFocusList.add(focusPair);
+	/**
+	 * Version of <tt>instantiate</tt> that stops when some limits are reached, returning the plan built so far (marked
+	 * as truncated).
+	 * 
+	 * @param frames
+	 *            the data to fill the schema.
+	 * @param initialMapping
+	 *            a mapping from variable names to values (<tt>Frame</tt>s).
+	 * @param ontology
+	 *            the ontology.
+	 * @param limits
+	 *            the deadline, maximum number of clauses and cancellation token.
+	 * @return the document plan, check <tt>isTruncated</tt> to know whether it is complete.
+	 */
+	public DocumentPlan instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology,
+			PlanningLimits limits) {
+		DocumentPlan result = new DocumentPlan();
+		instantiate(frames, initialMapping, ontology, result, limits);
+		return result;
+	}
+
+	/**
+	 * Streaming version of <tt>instantiate</tt> with limits. When a limit is reached, the sink receives
+	 * <tt>truncate</tt> before <tt>finish</tt>.
+	 */
+	public void instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink,
+			PlanningLimits limits) {
+		instantiate(frames, initialMapping, ontology, sink, limits, PlanTracer.NONE);
+	}
+
+	/**
+	 * Version of <tt>instantiate</tt> reporting what the planner does to a tracer, for debugging.
+	 * 
+	 * @param frames
+	 *            the data to fill the schema.
+	 * @param initialMapping
+	 *            a mapping from variable names to values (<tt>Frame</tt>s).
+	 * @param ontology
+	 *            the ontology.
+	 * @param tracer
+	 *            receives the events of this instantiation only.
+	 * @return the document plan.
+	 */
+	public DocumentPlan instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology,
+			PlanTracer tracer) {
+		DocumentPlan result = new DocumentPlan();
+		instantiate(frames, initialMapping, ontology, result, PlanningLimits.NONE, tracer);
+		return result;
+	}
+
+	/**
+	 * Streaming version of <tt>instantiate</tt> with limits and a tracer. Without a tracer (<tt>PlanTracer.NONE</tt>),
+	 * the instantiation is explained and its report added to the schema profile, if there is one.
+	 */
+	public void instantiate(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink,
+			PlanningLimits limits, PlanTracer tracer) {
+		SchemaProfile profile = this.profile;
+		if (profile != null && tracer == PlanTracer.NONE)
+			profile.add(explain(frames, initialMapping, ontology, sink, limits));
+		else
+			run(new Context(frames, initialMapping, ontology, sink, new Cache(limits, tracer)));
+	}
+
+	/**
+	 * Instantiate the schema reporting what was done at each node, to find out why an instantiation is slow (see
+	 * <tt>PlanReport</tt>). The searches for values are timed, so this is slower than <tt>instantiate</tt>.
+	 * 
+	 * @param frames
+	 *            the data to fill the schema.
+	 * @param initialMapping
+	 *            a mapping from variable names to values (<tt>Frame</tt>s).
+	 * @param ontology
+	 *            the ontology.
+	 * @return the report, with the document plan.
+	 */
+	public PlanReport explain(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology) {
+		return explain(frames, initialMapping, ontology, new DocumentPlan(), PlanningLimits.NONE);
+	}
+
+	/** Streaming version of <tt>explain</tt> with limits, the report has the plan only if the sink is a plan. */
+	public PlanReport explain(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink,
+			PlanningLimits limits) {
+		PlanReport report = new PlanReport();
+		Cache cache = new Cache(limits, report);
+		cache.report = report;
+		Context context = new Context(frames, initialMapping, ontology, sink, cache);
+		long start = System.nanoTime();
+		run(context);
+		report.finish(sink instanceof DocumentPlan ? (DocumentPlan) sink : null, context.clauses, System.nanoTime()
+				- start);
+		return report;
+	}
+
+	/** Run an instantiation to the end, or until its limits are reached. */
+	protected void run(Context context) {
+		long start = context.metrics == null ? 0 : System.nanoTime();
+		PlanningLimits limits = context.cache.limits;
+		boolean truncated = false;
+		try {
+			// main cycle
+			while (true) {
+				if (context.clauses >= limits.getMaxClauses() || limits.isExpired()) {
+					truncated = true;
+					break;
+				}
+				if (!step(context))
+					break;
 			}
-			clause.put("potential-focus-list", potentialFocusList);
+		} catch (PlanningLimits.Exceeded e) {
+			truncated = true;
+		}
+		if (truncated)
+			context.sink.truncate();
+		cacheHits.addAndGet(context.cache.getHits());
+		cacheMisses.addAndGet(context.cache.getMisses());
+		context.sink.finish();
+		if (context.metrics != null)
+			report(context, System.nanoTime() - start, truncated);
+	}
 
-			result.addClause(clause);
+	/** Report the metrics of a finished instantiation. */
+	protected void report(Context context, long nanos, boolean truncated) {
+		MetricsRegistry metrics = context.metrics;
+		metrics.record(MetricsRegistry.INSTANTIATE_NANOS, nanos);
+		metrics.record(MetricsRegistry.PLAN_CLAUSES, context.clauses);
+		if (truncated)
+			metrics.count(MetricsRegistry.PLANS_TRUNCATED, 1);
+		metrics.count(MetricsRegistry.CACHE_HITS, context.cache.getHits());
+		metrics.count(MetricsRegistry.CACHE_MISSES, context.cache.getMisses());
+		long tried = 0;
+		for (BacktrackingSolver solver : context.cache.solvers) {
+			metrics.record(MetricsRegistry.SEARCH_SPACE, solver.getSearchSpace());
+			tried += solver.getTried();
+		}
+		metrics.count(MetricsRegistry.SEARCH_TRIED, tried);
+		context.cache.solvers.clear();
+	}
+
+	/**
+	 * Attach a registry where to report metrics from now on (see <tt>MetricsRegistry</tt> for what is reported).
+	 * 
+	 * @param metrics
+	 *            the registry, null to stop measuring.
+	 */
+	public void setMetricsRegistry(MetricsRegistry metrics) {
+		this.metrics = metrics;
+	}
+
+	/** The registry where metrics are reported, null if none. */
+	public MetricsRegistry getMetricsRegistry() {
+		return metrics;
+	}
+
+	/**
+	 * Limit the size of the searches for values from now on (see <tt>SearchGuard</tt>).
+	 * 
+	 * @param searchGuard
+	 *            the limits, <tt>SearchGuard.NONE</tt> for none.
+	 */
+	public void setSearchGuard(SearchGuard searchGuard) {
+		if (searchGuard == null)
+			throw new IllegalArgumentException("No search guard given, use SearchGuard.NONE.");
+		this.searchGuard = searchGuard;
+	}
+
+	/** The limits on the size of the searches for values. */
+	public SearchGuard getSearchGuard() {
+		return searchGuard;
+	}
+
+	/**
+	 * Explain every instantiation from now on, adding the reports to a profile (see <tt>SchemaProfile</tt>).
+	 * Instantiations are slower while profiling, as their searches are timed.
+	 * 
+	 * @param profile
+	 *            the profile, null to stop profiling.
+	 */
+	public void setSchemaProfile(SchemaProfile profile) {
+		this.profile = profile;
+	}
+
+	/** The profile where the reports of the instantiations are added, null if none. */
+	public SchemaProfile getSchemaProfile() {
+		return profile;
+	}
+
+	/**
+	 * Advance the instantiation by one clause: compute the confusion set of the current node, let the chooser decide
+	 * among its nodes and pass the resulting clause to the sink.
+	 * 
+	 * @param context
+	 *            the state of the instantiation, updated in place.
+	 * @return false if no node could be reached from the current node (the instantiation is finished).
+	 */
+	protected boolean step(Context context) {
+		Node currentNode = context.currentNode;
+		Map<String, Frame> varMapping = context.varMapping;
+		Cache cache = context.cache;
+		FrameSet frames = context.frames;
+		PlanTracer tracer = cache.tracer;
+		tracer.nodeVisited(currentNode.name, context.currentFocus);
+		if (context.recording != null)
+			context.recording.steps.add(new PlanRecording.Step(currentNode, context.currentFocus,
+					context.potentialFoci, context.focusHistory, varMapping, cache.entryCounter,
+					context.recording.events.size()));
+		// find which nodes are reachable from current node
+		List<DecoratedNode> confusionSet = computeConfusionSet(currentNode, varMapping, cache, context.ontology,
+				frames);
+		if (tracer != PlanTracer.NONE) {
+			List<String> candidates = new ArrayList<String>(confusionSet.size());
+			for (DecoratedNode decoratedNode : confusionSet)
+				candidates.add(decoratedNode.getNode().name);
+			tracer.confusionSet(currentNode.name, candidates);
+		}
+		if (confusionSet.isEmpty()) {
+			context.currentNode = null;
+			return false;
+		}
+
+		// transform the confusion set to something suitable for the chooser to process
+		List<Frame> defaultFoci = new ArrayList<Frame>(confusionSet.size());
+		List<Map<String, Object>> fds = describe(context, confusionSet, defaultFoci);
+		// choose
+		long start = context.metrics == null ? 0 : System.nanoTime();
+		LocalChooser.Decision decision = chooser.choose(fds, defaultFoci, context.currentFocus,
+				context.potentialFoci, context.focusHistory, frames, tracer);
+		if (context.metrics != null)
+			context.metrics.record(MetricsRegistry.CHOOSER_NANOS, System.nanoTime() - start);
+		DecoratedNode chosen = confusionSet.get(decision.getPosition());
+		tracer.decision(decision.getPosition(), chosen.getNode().name, decision.getCurrentFocus(),
+				decision.getPotentialFoci());
+		advance(context, chosen, decision);
+		return true;
+	}
+
+	/**
+	 * Extract the FDs and the default focus for the nodes in a confusion set (nodes decorated with aggr. and par.
+	 * boundaries), without consuming their values.
+	 * 
+	 * @param context
+	 *            the state of the instantiation.
+	 * @param confusionSet
+	 *            the nodes that can be instantiated.
+	 * @param defaultFoci
+	 *            where to add the default focus of each node.
+	 * @return the FDs, in the same order as the nodes.
+	 */
+	protected List<Map<String, Object>> describe(Context context, List<DecoratedNode> confusionSet,
+			List<Frame> defaultFoci) {
+		List<Map<String, Object>> fds = new ArrayList<Map<String, Object>>(confusionSet.size());
+		for (DecoratedNode decoratedNode : confusionSet) {
+			Map<Object, Frame> valueMapping = context.cache.fetch(decoratedNode.getNode(), context.varMapping).peek();
+
+			fds.add(instantiateClause(decoratedNode.getNode().getPredicate().getOutput(), valueMapping,
+					context.cache.getPathCache()));
+			defaultFoci.add(valueMapping.get(decoratedNode.getNode().getPredicate().getDefaultFocus()));
+		}
+		return fds;
+	}
+
+	/**
+	 * Instantiate a node of the confusion set, as decided by a chooser, and pass the resulting clause to the sink.
+	 * 
+	 * @param context
+	 *            the state of the instantiation, updated in place.
+	 * @param decoratedNode
+	 *            the node to instantiate.
+	 * @param decision
+	 *            the decision of the chooser (only the foci are used).
+	 * @return the clause.
+	 */
+	protected Map<String, Object> advance(Context context, DecoratedNode decoratedNode,
+			LocalChooser.Decision decision) {
+		Map<String, Frame> varMapping = context.varMapping;
+		Cache cache = context.cache;
+		// understand and process the decision
+		Frame currentFocus = decision.getCurrentFocus();
+		List<Frame> potentialFoci = decision.getPotentialFoci();
+		List<Frame> focusHistory = context.focusHistory;
+		int positionInHistory = focusHistory.lastIndexOf(currentFocus);
+		if (positionInHistory == -1)
+			focusHistory.add(currentFocus);
+		else
+			focusHistory = focusHistory.subList(0, positionInHistory + 1);
+		context.currentFocus = currentFocus;
+		context.potentialFoci = potentialFoci;
+		context.focusHistory = focusHistory;
+
+		// create the clause
+		if (context.recording != null)
+			context.recording.steps.get(context.recording.steps.size() - 1).taken = cache.find(
+					decoratedNode.getNode(), varMapping, false).order;
+		Map<String, Object> clause = instantiatePredicate(decoratedNode.getNode(), varMapping, cache, true);
+
+		if (decoratedNode.isAggrBoundary())
+			context.sink.addAggrBoundary();
+		if (decoratedNode.isParBoundary())
+			context.sink.addParBoundary();
+
+		context.currentNode = decoratedNode.getNode();
+
+		// add the clause
+		// (focus info is recorded as it may be used by referring expression generators, etc.)
+		clause.put("focus", ((Frame) currentFocus).getID());
+		List<Map<String, Object>> focusStack = new ArrayList<Map<String, Object>>();
+		for (int i = focusHistory.size() - 1; i >= 0; i--) {
+			Map<String, Object> focusPair = new HashMap<String, Object>();
+			focusPair.put("focus", ((Frame) focusHistory.get(i)).getID());
+			focusStack.add(focusPair);
+		}
+		clause.put("focus-stack", focusStack);
+		List<Map<String, Object>> potentialFocusList = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < potentialFoci.size(); i++) {
+			Map<String, Object> focusPair = new HashMap<String, Object>();
+			focusPair.put("focus", ((Frame) potentialFoci.get(i)).getID());
+			potentialFocusList.add(focusPair);
+		}
+		clause.put("potential-focus-list", potentialFocusList);
+
+		context.sink.addClause(clause);
+		context.clauses++;
+		cache.tracer.clauseAdded(clause);
+		return clause;
+	}
+
+	/**
+	 * Instantiate the schema recording enough information to re-plan it incrementally when the data changes (see
+	 * <tt>replan</tt>).
+	 * 
+	 * @param frames
+	 *            the data to fill the schema.
+	 * @param initialMapping
+	 *            a mapping from variable names to values (<tt>Frame</tt>s).
+	 * @param ontology
+	 *            the ontology.
+	 * @return the recording, which contains the document plan.
+	 */
+	public PlanRecording record(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology) {
+		PlanRecording recording = new PlanRecording(this, frames, initialMapping, ontology);
+		Context context = new Context(frames, initialMapping, ontology, recording.sink());
+		context.recording = recording;
+		run(context);
+		recording.cache = context.cache;
+		return recording;
+	}
+
+	/**
+	 * Re-plan after a change in the data. The steps of the previous instantiation before the first one that looks at
+	 * a predicate affected by the changes are reused as they were, and so are the values found for unaffected
+	 * predicates in the rest of the steps. The result is the same as recording the instantiation from scratch, as long
+	 * as the chooser decides based only on its arguments and the types of the frames.
+	 * 
+	 * @param previous
+	 *            the recording of the previous instantiation, obtained from this planner.
+	 * @param frames
+	 *            the data, with the changes applied (it can be the same object used for the previous recording).
+	 * @param delta
+	 *            the changes since the previous recording.
+	 * @return a new recording.
+	 */
+	public PlanRecording replan(PlanRecording previous, FrameSet frames, FrameSetDelta delta) {
+		if (previous.planner != this)
+			throw new IllegalArgumentException("The recording was produced by a different planner.");
+		if (delta.changesFrames())
+			forgetIndex(frames);
+		Ontology ontology = previous.ontology;
+		Set<Node> nodes = new HashSet<Node>(previous.cache.cache.keySet());
+		for (PlanRecording.Step step : previous.steps)
+			for (DecoratedNode decoratedNode : step.node.getFrontier())
+				nodes.add(decoratedNode.getNode());
+		Set<Node> affected = new HashSet<Node>();
+		for (Node node : nodes)
+			if (delta.affects(node.getPredicate().attributes, node.getPredicate().getVars().values(), ontology))
+				affected.add(node);
+		// the first step looking at an affected node, or the last one
+		int step = 0;
+		while (step < previous.steps.size() - 1 && !looksAt(previous.steps.get(step).node, affected))
+			step++;
+
+		PlanRecording recording = new PlanRecording(this, frames, previous.initialMapping, ontology);
+		recording.reuse(previous, step);
+		Context context = new Context(frames, previous.initialMapping, ontology, recording.sink(), new Cache(
+				previous, step, affected));
+		context.recording = recording;
+		PlanRecording.Step state = previous.steps.get(step);
+		context.currentNode = state.node;
+		context.currentFocus = state.focus;
+		context.potentialFoci = new ArrayList<Frame>(state.potentialFoci);
+		context.focusHistory = new ArrayList<Frame>(state.focusHistory);
+		context.varMapping.clear();
+		context.varMapping.putAll(state.varMapping);
+		run(context);
+		context.cache.forgetPrevious();
+		recording.cache = context.cache;
+		return recording;
+	}
+
+	/** Whether any of the nodes reachable from a node is in a given set. */
+	protected boolean looksAt(Node node, Set<Node> nodes) {
+		for (DecoratedNode decoratedNode : node.getFrontier())
+			if (nodes.contains(decoratedNode.getNode()))
+				return true;
+		return false;
+	}
+
+	/** Number of value cache lookups that found values, over all instantiations of this schema. */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/** Number of value cache lookups that required searching for values, over all instantiations of this schema. */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/** Statistics of the property checks, over all instantiations (see <tt>PropertyStatistics</tt>). */
+	public PropertyStatistics getPropertyStatistics() {
+		return propertyStatistics;
+	}
+
+	/**
+	 * Keep the index of a frame set (its frames grouped by type and numbered, and the frames under each concept
+	 * requested so far) from one instantiation to the next, while the frame set is in use. The index is only built
+	 * again when the number of frames changes, or after <tt>forgetIndex</tt>, which has to be called after changing the
+	 * types or IDs of the frames, or replacing them (<tt>replan</tt> does it when the changes add or remove frames or
+	 * change their types).
+	 */
+	public void keepIndex(FrameSet frames) {
+		synchronized (indices) {
+			if (!indices.containsKey(frames))
+				indices.put(frames, null);
+		}
+	}
+
+	/**
+	 * Drop the index kept for a frame set, after changing its frames, so it is built again the next time it is used
+	 * (see <tt>keepIndex</tt>).
+	 */
+	public void forgetIndex(FrameSet frames) {
+		synchronized (indices) {
+			if (indices.containsKey(frames))
+				indices.put(frames, null);
+		}
+	}
+
+	/**
+	 * Access the index of a frame set: the one kept for it, if it was given to <tt>keepIndex</tt>, built again if the
+	 * number of frames changed, or a new one otherwise.
+	 */
+	FrameSetIndex getIndex(FrameSet frames) {
+		synchronized (indices) {
+			if (!indices.containsKey(frames))
+				return new FrameSetIndex(frames);
+			FrameSetIndex index = indices.get(frames);
+			if (index == null || index.size() != frames.getFrames().size()) {
+				index = new FrameSetIndex(frames);
+				indices.put(frames, index);
+			}
+			return index;
 		}
-		return result;
 	}
 
 	/**
@@ -256,16 +811,35 @@ public class OpenSchemaPlanner {
 			Ontology ontology, FrameSet frames) {
 		List<DecoratedNode> result = new ArrayList<DecoratedNode>();
 
-		// enumerate boundary nodes
-		List<DecoratedNode> boundaryNodes = new LinkedList<DecoratedNode>();
+		// the boundary nodes were enumerated when the schema was assembled
+		DecoratedNode[] boundaryNodes = node.getFrontier();
+		// check whether they can be instantiated
+		for (DecoratedNode decoratedNode : boundaryNodes)
+			if (canBeInstantiated(decoratedNode.getNode(), varMapping, cache, ontology, frames))
+				result.add(decoratedNode);
+
+		return result;
+	}
+
+	/**
+	 * Enumerate all the predicate nodes that are reachable from a given node without passing through another Predicate
+	 * node, recording whether an aggregation or paragraph boundary was crossed to reach them. The network does not
+	 * change after it has been assembled, so this is computed only once per node, before collapsing the structural
+	 * nodes (see <tt>compile</tt>).
+	 * 
+	 * @param node
+	 *            the node to start the spanning tree.
+	 * @return the reachable predicate nodes, in breadth-first order.
+	 */
+	protected DecoratedNode[] computeFrontier(Node node) {
+		List<DecoratedNode> boundaryNodes = new ArrayList<DecoratedNode>();
 		Set<DecoratedNode> seenNodes = new HashSet<DecoratedNode>();
 		List<DecoratedNode> newNodes = new ArrayList<DecoratedNode>();
-		// newNodes.add(new DecoratedNode(node));
 		for (Node og : node.getOutgoing())
 			newNodes.add(new DecoratedNode(og));
 
-		while (!newNodes.isEmpty()) {
-			DecoratedNode currentNode = newNodes.remove(0);
+		for (int next = 0; next < newNodes.size(); next++) {
+			DecoratedNode currentNode = newNodes.get(next);
 			if (seenNodes.contains(currentNode))
 				continue;
 			seenNodes.add(currentNode);
@@ -282,14 +856,38 @@ public class OpenSchemaPlanner {
 					newNodes.add(new DecoratedNode(o, isAggr, isPar));
 			}
 		}
-		if (verbose)
-			System.err.println("Checking " + boundaryNodes.size() + "...");
-		// check whether they can be instantiated
-		for (DecoratedNode decoratedNode : boundaryNodes)
-			if (canBeInstantiated(decoratedNode.getNode(), varMapping, cache, ontology, frames))
-				result.add(decoratedNode);
+		return boundaryNodes.toArray(new DecoratedNode[boundaryNodes.size()]);
+	}
 
-		return result;
+	/**
+	 * Precompute the frontier of the top node and of every predicate node in the network reachable from a given node,
+	 * then collapse the network: each of those nodes is linked directly to the nodes in its frontier and the structural
+	 * (empty, aggregation and paragraph) nodes in between are dropped, as the frontier keeps whether an aggregation or
+	 * paragraph boundary was crossed. After this, the instantiation process only moves from predicate node to predicate
+	 * node. The nodes cannot be linked anymore after being compiled.
+	 * 
+	 * @param start
+	 *            the node where to start, usually the top node.
+	 */
+	protected void compile(Node start) {
+		List<Node> pending = new ArrayList<Node>();
+		List<Node> states = new ArrayList<Node>();
+		Set<Node> seen = new HashSet<Node>();
+		pending.add(start);
+		seen.add(start);
+		for (int next = 0; next < pending.size(); next++) {
+			Node node = pending.get(next);
+			if (node == start || node.isPredicate())
+				states.add(node);
+			for (Node og : node.getOutgoing())
+				if (seen.add(og))
+					pending.add(og);
+		}
+		// all the frontiers are computed over the full network before collapsing any node
+		for (Node node : states)
+			node.setFrontier(computeFrontier(node));
+		for (Node node : states)
+			node.collapse();
 	}
 
 	/**
@@ -310,14 +908,18 @@ public class OpenSchemaPlanner {
 	 */
 	protected boolean canBeInstantiated(Node node, Map<String, Frame> varMapping, Cache cache, Ontology ontology,
 			FrameSet frames) {
-		List<Map<Object, Frame>> values = cache.fetch(node, varMapping);
+		Cache.Entry entry = cache.lookup(node, varMapping);
+		Cache.Values values = entry.getValues();
 		if (values == null) { // cache miss, populate
-			// search for values
-			values = searchValues(node, varMapping, ontology, frames);
-			if (verbose)
-				System.err.println("Values found: " + values.size());
-			cache.populate(node, varMapping, values); // populate
-		}
+			// prepare the search for values, they will be found as needed
+			BacktrackingSolver solver = prepareSearch(node, varMapping, ontology, frames, cache);
+			if (cache.solvers != null)
+				cache.solvers.add(solver);
+			values = new Cache.Values(solver, cache.limits);
+			entry.setValues(values); // populate
+			cache.tracer.valuesFound(node.name, varMapping, !values.isEmpty());
+		} else
+			cache.tracer.valuesCached(node.name);
 		return !values.isEmpty();
 	}
 
@@ -333,20 +935,35 @@ public class OpenSchemaPlanner {
 	 *            the ontology, employed to restrict the search over values of a certain type.
 	 * @param frames
 	 *            the set of frames over where to perform the search.
-	 * @return List of associations of local variables to values.
+	 * @return List of associations of local variables to values, in canonical order.
 	 * @see {edu.columbia.openschema.OpenSchema.Node.Property}
 	 */
 	protected List<Map<Object, Frame>> searchValues(Node node, Map<String, Frame> varMapping, Ontology ontology,
 			FrameSet frames) {
+		return prepareSearch(node, varMapping, ontology, frames, new Cache()).solve();
+	}
+
+	/**
+	 * Set up the search for values that satisfy the node properties and the given mapping of variables. The values are
+	 * produced on demand by the returned solver, in canonical order (see <tt>BacktrackingSolver</tt>).
+	 * 
+	 * @param node
+	 *            the schema node.
+	 * @param varMapping
+	 *            global variables, mapping from name to value.
+	 * @param ontology
+	 *            the ontology, employed to restrict the search over values of a certain type.
+	 * @param frames
+	 *            the set of frames over where to perform the search.
+	 * @param cache
+	 *            the values cache, holding the type and path indices used to compute the domains.
+	 * @return a solver producing associations of local variables to values.
+	 */
+	BacktrackingSolver prepareSearch(Node node, Map<String, Frame> varMapping, Ontology ontology, FrameSet frames,
+			Cache cache) {
+		long start = cache.report == null ? 0 : System.nanoTime();
 		// key=name of the local variable
 		// value=Set of possible values the variable can take
-		if (verbose) {
-			System.err.println("searchValues:");
-			for (Map.Entry<String, Frame> entry : varMapping.entrySet())
-				System.err.println("\t" + entry.getKey() + "="
-						+ (entry.getValue() == null ? "null" : ((Frame) entry.getValue()).getID()));
-		}
-
 		Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
 		// initialize allVars with the global vars, if given
 		Map<String, String> nodeVars = node.getVars();
@@ -357,129 +974,186 @@ public class OpenSchemaPlanner {
 				allVars.put(predVar, Collections.singletonList(varMapping.get(globalVar)));
 		}
 		// or all the values of the target type, otherwise
-		if (node.getPredicate() == null)
-			System.out.println(node);
 		Map<String, String> predVars = node.getPredicate().getVars();
+		Map<Object, Object> extents = new HashMap<Object, Object>();
 		for (Map.Entry<String, String> entry : predVars.entrySet()) {
 			Object predVar = entry.getKey();
 			Object type = entry.getValue();
-			List<Frame> l = framesUnderType(type, ontology, frames);
-			if (verbose) {
-				System.err.println("Frames under '" + type + "'");
-				for (Frame ff : l)
-					System.err.println("\t" + ff.getID());
-			}
-			if (!allVars.containsKey(predVar))
-				allVars.put(predVar, framesUnderType(type, ontology, frames));
-		}
-		// now check the predicates over the set multiplication of all
-		// sets on the variable mappings and filter the ones who
-		// satisfy the properties
-		long allSets = 1;
-		Object[] varOrder = allVars.keySet().toArray();
-		int[] allVarSize = new int[varOrder.length];
-		long[] setMultiplier = new long[varOrder.length];
-		for (int i = 0; i < varOrder.length; i++) {
-			setMultiplier[i] = allSets;
-			allVarSize[i] = allVars.get(varOrder[i]).size();
-			allSets = allSets * (long) allVarSize[i];
-		}
-		long currentSet = 0;
-		// reuse Map to reduce GC
-		Map<Object, Frame> currentAssignment = new HashMap<Object, Frame>();
-		Set<Property> failedProperties = new HashSet<Property>();
-		// reuse Set to reduce GC
-		int[] currentPos = new int[varOrder.length]; // reuse array to reduce GC
-		// int[] otherPos = new int[varOrder.length]; // reuse array to reduce
-		// GC
-		// reuse array to reduce GC
-		// boolean[] isFree = new boolean[varOrder.length];
-
-		List<Map<Object, Frame>> result = new LinkedList<Map<Object, Frame>>();
-		while (currentSet < allSets) {
-			// make the map corresponding to the number 'currentSet'
-			currentAssignment.clear();
-			long leftOver2 = currentSet;
-			for (int i = varOrder.length - 1; i >= 0; i--) {
-				int pos = (int) (leftOver2 % allVarSize[i]);
-				leftOver2 = leftOver2 / allVarSize[i];
-				currentPos[i] = pos;
-				currentAssignment.put(varOrder[i], allVars.get(varOrder[i]).get(pos));
+			if (!allVars.containsKey(predVar)) {
+				List<Frame> l = framesUnderType(type, ontology, frames, cache);
+				allVars.put(predVar, l);
+				extents.put(predVar, type);
 			}
+		}
+		// use the path equalities to narrow the domains of the unbound variables
+		joinDomains(node.getPredicate(), allVars, extents, cache.getPathIndex(), cache.getPathCache(), ontology,
+				frames);
+		SearchGuard guard = searchGuard;
+		if (guard != SearchGuard.NONE)
+			guard(guard, node, allVars, cache);
+		// the assignments that satisfy the properties will be searched on demand
+		BacktrackingSolver solver = new BacktrackingSolver(allVars, node.getPredicate().getProperties(), ontology,
+				propertyStatistics, ordinals(frames, cache));
+		if (cache.report != null)
+			cache.report.searchPrepared(node.name, node.getPredicate().getID(), allVars, solver, System.nanoTime()
+					- start);
+		return solver;
+	}
+
+	/**
+	 * Check the estimated search space of a node against the guardrails, before searching, and add it to the search
+	 * space of the plan so far. A search over its limit is reported to the tracer and then either fails or goes on
+	 * over smaller domains, depending on the policy.
+	 * 
+	 * @param guard
+	 *            the guardrails.
+	 * @param node
+	 *            the node whose values are going to be searched.
+	 * @param allVars
+	 *            the domains of the variables, modified in place if they have to be cut down.
+	 * @param cache
+	 *            the values cache, keeping the search space of the plan so far.
+	 */
+	protected void guard(SearchGuard guard, Node node, Map<Object, List<Frame>> allVars, Cache cache) {
+		String predicate = node.getPredicate().getID();
+		long estimate = SearchGuard.estimate(allVars.values());
+		long limit = Math.min(guard.getLimit(predicate), Math.max(1, guard.getMaxPlanSpace() - cache.searchSpace));
+		if (estimate > limit) {
+			cache.tracer.searchGuarded(node.name, predicate, estimate, limit);
+			if (guard.getPolicy() == SearchGuard.Policy.FAIL)
+				throw new SearchGuard.Exceeded(predicate, node.name, estimate, limit);
+			estimate = guard.degrade(allVars, limit);
+		}
+		cache.searchSpace = cache.searchSpace > Long.MAX_VALUE - estimate ? Long.MAX_VALUE : cache.searchSpace
+				+ estimate;
+	}
 
-			// now see if it checks
-			failedProperties.clear();
-			for (Property property : node.getPredicate().getProperties()) {
-				if (verbose) {
-					System.err.println("Checking property: " + property);
-					for (Map.Entry<Object, Frame> entry : currentAssignment.entrySet())
-						System.err.println("\t" + entry.getKey() + "="
-								+ (entry.getValue() == null ? "null" : ((Frame) entry.getValue()).getID()));
+	/**
+	 * Narrow the domains of variables using the path equalities among the predicate properties. When one side of an
+	 * equality (such as "birth-event == person.birth") is known, either because it is a ground value or because its
+	 * variable has a single possible value, the frames on the other side are obtained directly instead of being checked
+	 * one by one: if the other side is a plain variable, by following the path from the known side (so the cost is
+	 * the fan-out of the path); if it is a path, from a <tt>PathIndex</tt> built over the frames of its type. Only
+	 * variables whose domain is still the full list of frames of their type are narrowed. As the narrowed domains
+	 * contain exactly the values that satisfy the equality, the properties are still checked by the solver afterwards,
+	 * with the same results.
+	 * 
+	 * @param predicate
+	 *            the predicate whose properties are used.
+	 * @param allVars
+	 *            the domains of the variables, modified in place.
+	 * @param extents
+	 *            types of the variables whose domain is the full list of frames of the type, modified in place.
+	 * @param pathIndex
+	 *            the indices to use.
+	 * @param pathCache
+	 *            the values of the paths from the known side.
+	 * @param ontology
+	 *            the ontology, to check the types of the values reached from the known side.
+	 * @param frames
+	 *            the data, to look up the values reached from the known side.
+	 */
+	protected void joinDomains(Predicate predicate, Map<Object, List<Frame>> allVars, Map<Object, Object> extents,
+			PathIndex pathIndex, PathCache pathCache, Ontology ontology, FrameSet frames) {
+		boolean changed = true;
+		while (changed && !extents.isEmpty()) {
+			changed = false;
+			for (Property property : predicate.getProperties()) {
+				Object[] sides = property.getEqualitySides();
+				if (sides == null)
+					continue;
+				for (int side = 0; side < 2; side++) {
+					Object target = sides[side];
+					Object other = sides[1 - side];
+					if (!(target instanceof VarRef) || !extents.containsKey(((VarRef) target).getRef()))
+						continue;
+					String var = ((VarRef) target).getRef();
+					Collection<Object> known;
+					if (other instanceof VarRef) {
+						List<Frame> otherDomain = allVars.get(((VarRef) other).getRef());
+						if (((VarRef) other).getRef().equals(var) || otherDomain == null || otherDomain.size() != 1)
+							continue;
+						known = pathCache.resolve(otherDomain.get(0), pathOf((VarRef) other));
+					} else
+						known = Collections.singleton(other);
+					Object type = extents.remove(var);
+					String[] path = pathOf((VarRef) target);
+					if (path.length == 0)
+						allVars.put(var, framesAmong(known, type, ontology, frames));
+					else
+						allVars.put(var, pathIndex.lookup(type, allVars.get(var), path, known));
+					changed = true;
 				}
-				if (!property.check(currentAssignment, ontology)) {
-					failedProperties.add(property);
-					if (verbose)
-						System.err.println("\t\tFALSE");
-				} else if (verbose)
-					System.err.println("\t\tTRUE");
-			} // look for the failed property that will advance
-			if (failedProperties.isEmpty()) { // good assignment, output
-				result.add(new HashMap<Object, Frame>(currentAssignment));
-				currentSet++;
-			} else {
-				currentSet++;
-				/*
-				 * // look for the failed property that will advance more // positions Property pickedProperty=null;
-				 * long toAdvance=0; Iterator fp=failedProperties.iterator(); while(fp.hasNext()){ Property
-				 * property=(Property)fp.next(); long thisToAdvance=1; Set propertyVariables=property.variables();
-				 * for(int i=0;i<varOrder.length;i++) if(!propertyVariables.contains(varOrder[i]))
-				 * thisToAdvance=thisToAdvance*(long)allVarSize[i]; if(thisToAdvance>toAdvance) pickedProperty=property;
-				 * } // now advance all the positions that can be done with // this ordering Set freeVariables=new
-				 * HashSet(allVars.keySet()); freeVariables.removeAll(pickedProperty.variables()); for(int
-				 * i=0;i<varOrder.length;i++) isFree[i]=freeVariables.contains(varOrder[i]); boolean allFree=true; long
-				 * newCurrent=currentSet; do{ newCurrent++; long leftOver3=currentSet; for(int
-				 * i=varOrder.length-1;i>=0;i--){ int pos=(int) (leftOver3%allVarSize[i]);
-				 * leftOver3=leftOver3/allVarSize[i]; if(pos!=currentPos[i]&&!isFree[i]) allFree=false; }
-				 * }while(allFree&&newCurrent<allSets); currentSet=newCurrent;
-				 */
 			}
 		}
-		// order the associations somehow (alphabetically by now
+	}
 
-		Collections.sort(result, new Comparator<Map<Object, Frame>>() {
+	/**
+	 * The frames of a frame set under a given type that are equal to some values, without repetitions, in the order
+	 * of the values.
+	 */
+	protected static List<Frame> framesAmong(Collection<Object> values, Object type, Ontology ontology,
+			FrameSet frames) {
+		Set<Frame> result = new LinkedHashSet<Frame>();
+		for (Object value : values)
+			if (value instanceof Frame) {
+				Frame frame = frames.getFrame(((Frame) value).getID());
+				if (frame != null && value.equals(frame) && ontology.isA(frame.getType(), type))
+					result.add(frame);
+			}
+		return new ArrayList<Frame>(result);
+	}
 
-			private Map<Integer, String> cache = new HashMap<Integer, String>();
+	/** The path of a reference, empty for plain variables. */
+	protected static String[] pathOf(VarRef varRef) {
+		return varRef instanceof PathRef ? ((PathRef) varRef).getPath() : Property.NO_PATH;
+	}
 
-			private String mapToString(Map<Object, Frame> m) {
-				int hash = System.identityHashCode(m);
-				if (cache.containsKey(m))
-					return cache.get(m);
-				List<Object> allKeys = new ArrayList<Object>(m.keySet());
-				Collections.sort(allKeys, new Comparator<Object>() {
-					@Override
-					public int compare(Object o1, Object o2) {
-						return o1.toString().compareTo(o2.toString());
-					}
-				});
-				StringBuilder sb = new StringBuilder();
-				for (Object k : allKeys)
-					sb.append(k).append('=').append(m.get(k).getID()).append(';');
-				String result = sb.toString();
-				cache.put(hash, result);
-				return result;
-			}
+	/**
+	 * Retrieve all the frames in a <tt>FrameSet</tt> which type is a subtype of a given type, using the type extents
+	 * provided by the frame set, if it is a <tt>TypedFrameSet</tt>, or the index of the frame set otherwise (see
+	 * <tt>getIndex</tt>).
+	 * 
+	 * @param type
+	 *            the parent type.
+	 * @param ontology
+	 *            the ontology where to check for the relations.
+	 * @param frames
+	 *            the frameset to look for the data.
+	 * @param cache
+	 *            the values cache, holding the index of the frames for this instantiation.
+	 * @return a list of frames, not to be modified.
+	 */
+	protected List<Frame> framesUnderType(Object type, Ontology ontology, FrameSet frames, Cache cache) {
+		if (frames instanceof TypedFrameSet) {
+			Collection<Frame> extent = ((TypedFrameSet) frames).getFramesUnderType(type, ontology);
+			if (extent != null)
+				return extent instanceof List ? (List<Frame>) extent : new ArrayList<Frame>(extent);
+		}
+		return index(frames, cache).getFramesUnderType(type, ontology);
+	}
 
-			@Override
-			public int compare(Map<Object, Frame> o1, Map<Object, Frame> o2) {
-				return mapToString(o1).compareTo(mapToString(o2));
-			}
-		});
+	/**
+	 * Access the ordinals of the given frames: those of the frame set itself if it numbers its frames, otherwise those
+	 * of its index (shared by all the instantiations over it if the index is kept, see <tt>keepIndex</tt>).
+	 */
+	protected FrameOrdinals ordinals(FrameSet frames, Cache cache) {
+		if (frames instanceof OrdinalFrameSet)
+			return ((OrdinalFrameSet) frames).getOrdinals();
+		return index(frames, cache).getOrdinals();
+	}
 
-		return result;
+	/** The index of a frame set (see <tt>getIndex</tt>), taken once per cache. */
+	FrameSetIndex index(FrameSet frames, Cache cache) {
+		if (cache.index == null || cache.indexFrames != frames) {
+			cache.index = getIndex(frames);
+			cache.indexFrames = frames;
+		}
+		return cache.index;
 	}
 
 	/**
-	 * Retrieve all the frames in a <tt>FrameSet</tt> which type is a subtype of a given type.
+	 * Retrieve all the frames in a <tt>FrameSet</tt> which type is a subtype of a given type, checking all of them.
 	 * 
 	 * @param type
 	 *            the parent type.
@@ -512,13 +1186,12 @@ public class OpenSchemaPlanner {
 	 */
 	protected Map<String, Object> instantiatePredicate(Node node, Map<String, Frame> varMapping, Cache cache,
 			boolean commit) {
-		List<Map<Object, Frame>> values = cache.fetch(node, varMapping); // cache
-																			// access
+		Cache.Values values = cache.fetch(node, varMapping, commit); // cache access
 		if (values == null) // cache miss is not an option at this point
 			throw new IllegalStateException("Trying to instantiate an uninitialized node.");
 		if (values.isEmpty()) // neither an empty node
 			throw new IllegalStateException("Trying to instantiate an exhaust node.");
-		Map<Object, Frame> valueMapping = commit ? values.remove(0) : values.get(0);
+		Map<Object, Frame> valueMapping = commit ? values.take() : values.peek();
 		if (commit) {
 			for (Map.Entry<String, String> entry : node.getVars().entrySet()) {
 				String predVar = entry.getKey();
@@ -526,7 +1199,7 @@ public class OpenSchemaPlanner {
 				varMapping.put(globalVar, valueMapping.get(predVar));
 			}
 		}
-		return instantiateClause(node.getPredicate().getOutput(), valueMapping);
+		return instantiateClause(node.getPredicate().getOutput(), valueMapping, cache.getPathCache());
 	}
 
 	/**
@@ -539,27 +1212,34 @@ public class OpenSchemaPlanner {
 	 *            variable-to-value mapping.
 	 * @return a new functional description, with the variables replaced.
 	 */
-	@SuppressWarnings({ "unchecked", "rawtypes" })
 	protected Map<String, Object> instantiateClause(Map<String, Object> fd, Map<Object, Frame> valueMapping) {
+		return instantiateClause(fd, valueMapping, new PathCache());
+	}
+
+	/**
+	 * Instantiate a given FD by changing all the variable references via a provided variable mapping, taking the
+	 * values of paths from a cache. Recursive function.
+	 * 
+	 * @param fd
+	 *            the functional description to operate on.
+	 * @param valueMapping
+	 *            variable-to-value mapping.
+	 * @param pathCache
+	 *            the values of the paths, as used in this instantiation.
+	 * @return a new functional description, with the variables replaced.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected Map<String, Object> instantiateClause(Map<String, Object> fd, Map<Object, Frame> valueMapping,
+			PathCache pathCache) {
 		Map<String, Object> result = new HashMap<String, Object>();
 		for (Map.Entry<String, Object> entry : fd.entrySet()) {
 			Object value = entry.getValue();
 			if (value instanceof Map)
-				value = instantiateClause((Map<String, Object>) value, valueMapping);
+				value = instantiateClause((Map<String, Object>) value, valueMapping, pathCache);
 			else if (value instanceof VarRef) {
 				Frame frame = valueMapping.get(((VarRef) value).getRef());
 				if (value instanceof PathRef) {
-					List<Object> list = new ArrayList<Object>();
-					list.add(frame);
-					String[] path = ((PathRef) value).getPath();
-					for (int i = 0; i < path.length; i++) {
-						// iterate over current frames
-						List<Object> list2 = new ArrayList<Object>();
-						for (Object o : list)
-							if (o instanceof Frame)
-								list2.addAll(((Frame) o).get(path[i]));
-						list = list2;
-					}
+					List<Object> list = pathCache.resolve(frame, ((PathRef) value).getPath());
 					if (list.size() == 0)
 						value = null;
 					else if (list.size() == 1)
@@ -606,10 +1286,10 @@ public class OpenSchemaPlanner {
 			Map<String, Object> output = assembleFD(predicate.getOutput().getFD().getV(), vars.keySet());
 			predicates.put(predicate.getID(), new Predicate(id, defaultFocus, vars, requiredVars, properties, output));
 		}
-		// now build the state machine
-		this.top = new Node("top-");
+		// now build the state machine, starting from the top node
 		Node exitNode = new Node("exit-");
 		build(top, exitNode, schema.getSchema().getNode(), false);
+		compileSchema();
 	}
 
 	/**
@@ -644,7 +1324,7 @@ public class OpenSchemaPlanner {
 			}
 			result.put(key, value);
 		}
-		return result;
+		return Collections.unmodifiableMap(result);
 	}
 
 	/**
@@ -734,64 +1414,215 @@ public class OpenSchemaPlanner {
 		return result.toString();
 	}
 
+	/**
+	 * Show the network as a Graphviz graph with a profile over it, as a heatmap. Nodes are filled from white to red by
+	 * the time spent searching for their values and labelled with how often they were chosen, how often their values
+	 * were checked and the time; the decisions of the chooser are drawn as dashed red edges from each node to the
+	 * nodes chosen right after it, as wide as they were frequent.
+	 * 
+	 * @param profile
+	 *            the profile to show.
+	 * @return the graph in DOT format.
+	 */
+	public String dump(SchemaProfile profile) {
+		Map<String, PlanReport.NodeReport> nodes = new HashMap<String, PlanReport.NodeReport>();
+		long maxNanos = 0;
+		long maxNext = 0;
+		for (PlanReport.NodeReport node : profile.getNodes()) {
+			nodes.put(node.getName(), node);
+			maxNanos = Math.max(maxNanos, node.getNanos());
+			for (String next : node.getNext())
+				maxNext = Math.max(maxNext, node.getNext(next));
+		}
+		StringBuilder result = new StringBuilder();
+		result.append("digraph schema {\n");
+		result.append("\tlabel=\"").append(profile.getPlans()).append(" plans, ").append(profile.getClauses())
+				.append(" clauses, ").append(PlanReport.millis(profile.getNanos())).append("ms\";\n");
+		Set<Node> seen = new HashSet<Node>();
+		dump(result, top, seen, true, nodes, maxNanos);
+		for (Node node : seen) {
+			PlanReport.NodeReport report = nodes.get(node.name);
+			if (report == null)
+				continue;
+			for (String next : report.getNext())
+				result.append("\tn_").append(node.name.replaceAll("-", "_")).append("->n_")
+						.append(next.replaceAll("-", "_")).append(" [style=dashed, color=red, constraint=false")
+						.append(", penwidth=").append(1 + Math.round(40.0 * report.getNext(next) / maxNext) / 10.0)
+						.append(", label=\"").append(report.getNext(next)).append("\"];\n");
+		}
+		result.append("}\n");
+		return result.toString();
+	}
+
 	/** Recursive method for dump. */
 	protected void dump(StringBuilder dump, Node current, Set<Node> seen, boolean asDot) {
+		dump(dump, current, seen, asDot, null, 0);
+	}
+
+	/**
+	 * Recursive method for dump, with the nodes of a profile (or null).
+	 * 
+	 * @param profile
+	 *            the totals of the profiled nodes, by name, null if not showing a profile.
+	 * @param maxNanos
+	 *            the largest time spent on a node, red in the heatmap.
+	 */
+	protected void dump(StringBuilder dump, Node current, Set<Node> seen, boolean asDot,
+			Map<String, PlanReport.NodeReport> profile, long maxNanos) {
 		if (seen.contains(current))
 			return;
 		seen.add(current);
 		if (asDot) {
+			PlanReport.NodeReport report = profile == null ? null : profile.get(current.name);
 			dump.append("\tn_").append(current.name.replaceAll("-", "_")).append(" [label=\"");
-			if (current.type == EMPTY_NODE)
-				dump.append(current.name).append("\", shape=ellipse");
-			else
-				dump.append(current).append("\", shape=box");
+			dump.append(current.type == EMPTY_NODE ? current.name : current.toString());
+			if (report != null) // the profile goes in a second line
+				dump.append("\\nchosen=").append(report.getChosen()).append(" checked=")
+						.append(report.getCacheHits() + report.getSearches()).append(' ')
+						.append(PlanReport.millis(report.getNanos())).append("ms");
+			dump.append("\", shape=").append(current.type == EMPTY_NODE ? "ellipse" : "box");
+			if (report != null) // white to red, by saturation
+				dump.append(", style=filled, fillcolor=\"0.000 ")
+						.append(maxNanos == 0 ? 0.0 : Math.round(1000.0 * report.getNanos() / maxNanos) / 1000.0)
+						.append(" 1.000\"");
 			dump.append("];\n");
 		} else {
 			dump.append(current.toString());
 			dump.append("\n");
 			dump.append("connects to:\n");
 		}
-		List<Node> outGoing = current.getOutgoing();
-		for (Node og : outGoing) {
-			if (asDot)
+		// the links of the compiled network, with the boundaries crossed
+		for (DecoratedNode og : current.getFrontier()) {
+			if (asDot) {
 				dump.append("\tn_").append(current.name.replaceAll("-", "_")).append("->n_")
-						.append(og.name.replaceAll("-", "_")).append(";\n");
-			else {
+						.append(og.getNode().name.replaceAll("-", "_"));
+				if (og.isAggrBoundary() || og.isParBoundary())
+					dump.append(" [label=\"").append(og.isAggrBoundary() ? "aggr" : "")
+							.append(og.isAggrBoundary() && og.isParBoundary() ? " " : "")
+							.append(og.isParBoundary() ? "par" : "").append("\"]");
+				dump.append(";\n");
+			} else {
 				dump.append("\t");
 				dump.append(og);
 				dump.append("\n");
 			}
 		}
-		for (Node n : outGoing)
-			dump(dump, n, seen, asDot);
+		for (Node n : current.getOutgoing())
+			dump(dump, n, seen, asDot, profile, maxNanos);
+	}
+
+	/**
+	 * The state of one instantiation of the schema. The planner itself is not modified while instantiating: everything
+	 * that changes as the schema is instantiated is kept here, so concurrent instantiations do not interfere.
+	 */
+	protected class Context {
+		/** The data being used to fill the schema. */
+		public final FrameSet frames;
+		/** The ontology. */
+		public final Ontology ontology;
+		/** The values cache. */
+		public final Cache cache;
+		/** The current mapping from global variable names to values. */
+		public final Map<String, Frame> varMapping;
+		/** Receives the document plan as it is built. */
+		public final PlanSink sink;
+		/** The current node, null when the instantiation is finished. */
+		public Node currentNode;
+		/** The current focus. */
+		public Frame currentFocus;
+		/** The current potential focus list. */
+		public List<Frame> potentialFoci;
+		/** The focus history (focus stack). */
+		public List<Frame> focusHistory;
+		/** Where to record the steps, null if not recording. */
+		public PlanRecording recording;
+		/** Number of clauses so far. */
+		public int clauses;
+		/** Where to report metrics, null for none. */
+		public final MetricsRegistry metrics;
+
+		/** Initialize the state of a new instantiation, starting at the top node. */
+		public Context(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink) {
+			this(frames, initialMapping, ontology, sink, new Cache());
+		}
+
+		/**
+		 * Copy this state, sharing the values found so far, so the instantiation can be continued in different ways.
+		 * 
+		 * @param sink
+		 *            receives the rest of the document plan from the copy.
+		 */
+		public Context fork(PlanSink sink) {
+			Context copy = new Context(frames, varMapping, ontology, sink, cache.fork());
+			copy.currentNode = currentNode;
+			copy.currentFocus = currentFocus;
+			copy.potentialFoci = new ArrayList<Frame>(potentialFoci);
+			copy.focusHistory = new ArrayList<Frame>(focusHistory);
+			copy.clauses = clauses;
+			return copy;
+		}
+
+		/** Initialize the state of a new instantiation, starting at the top node with a given cache. */
+		public Context(FrameSet frames, Map<String, Frame> initialMapping, Ontology ontology, PlanSink sink,
+				Cache cache) {
+			this.frames = frames;
+			this.ontology = ontology;
+			this.cache = cache;
+			this.varMapping = new HashMap<String, Frame>(initialMapping);
+			this.sink = sink;
+			this.currentNode = top;
+			this.currentFocus = initialMapping.size() == 0 ? EMPTY_FOCUS : initialMapping.values().iterator().next();
+			this.potentialFoci = new ArrayList<Frame>();
+			this.focusHistory = new ArrayList<Frame>();
+			this.metrics = OpenSchemaPlanner.this.metrics;
+			if (metrics != null && cache.solvers == null)
+				cache.solvers = new ArrayList<BacktrackingSolver>();
+		}
 	}
 
 	/** Predicate inner class */
 	protected class Predicate {
 		/** Predicate ID. */
-		public String id;
+		public final String id;
 		/** Default focus (variable name). */
-		public String defaultFocus;
+		public final String defaultFocus;
 		/** Mapping from local variable names to types. */
-		public Map<String, String> vars;
+		public final Map<String, String> vars;
 		/** Set of names of required variables. */
-		public Set<String> requiredVars;
+		public final Set<String> requiredVars;
 		/** Properties to check upon the variables. */
-		public List<Property> properties;
+		public final List<Property> properties;
 		/**
 		 * FD to use as clause, after changing the variables to actual values.
 		 */
-		public Map<String, Object> output;
+		public final Map<String, Object> output;
+		/** Frame attributes read by the properties and the output, to track changes in the data. */
+		public final Set<String> attributes;
 
-		/** Full constructor, this is an immutable class. */
+		/** Full constructor, this is an immutable class (the collections are wrapped as unmodifiable). */
 		public Predicate(String id, String defaultFocus, Map<String, String> vars, Set<String> requiredVars,
 				List<Property> properties, Map<String, Object> output) {
 			this.id = id;
 			this.defaultFocus = defaultFocus;
-			this.vars = vars;
-			this.requiredVars = requiredVars;
-			this.properties = properties;
-			this.output = output;
+			this.vars = Collections.unmodifiableMap(vars);
+			this.requiredVars = Collections.unmodifiableSet(requiredVars);
+			this.properties = Collections.unmodifiableList(properties);
+			this.output = Collections.unmodifiableMap(output);
+			Set<String> attributes = new HashSet<String>();
+			for (Property property : properties)
+				attributes.addAll(property.attributes());
+			addAttributes(output, attributes);
+			this.attributes = Collections.unmodifiableSet(attributes);
+		}
+
+		/** Add the attributes in the paths of an FD to a set. Recursive function. */
+		@SuppressWarnings("unchecked")
+		protected void addAttributes(Map<String, Object> fd, Set<String> attributes) {
+			for (Object value : fd.values())
+				if (value instanceof Map)
+					addAttributes((Map<String, Object>) value, attributes);
+				else if (value instanceof PathRef)
+					attributes.addAll(Arrays.asList(((PathRef) value).getPath()));
 		}
 
 		/** ID accessor. */
@@ -834,21 +1665,31 @@ public class OpenSchemaPlanner {
 	/** Paragraph boundary node. */
 	protected static final int PARBOUNDARY_NODE = 3;
 
-	private static int nodeCounter = 0;
+	/** Counter used to name the nodes of this schema. */
+	private int nodeCounter = 0;
 
 	/** Node inner class. */
 	protected class Node {
 
 		/** Type of the node (EMPTY_NODE, PREDICATE_NODE, etc.). */
-		public int type;
+		public final int type;
 		/** Name, for debugging purposes */
-		public String name;
-		/** Nodes that can be accessed from the current one. */
+		public final String name;
+		/**
+		 * Nodes that can be accessed from the current one (once compiled, the nodes in the frontier, unmodifiable).
+		 */
 		public List<Node> outgoing;
 		/** Predicate held by this node (if any). */
-		public Predicate predicate;
+		public final Predicate predicate;
 		/** Mapping from global-to-local variable names (if any). */
-		public Map<String, String> vars;
+		public final Map<String, String> vars;
+		/** Global variables referenced by this node (if any), sorted and without repetitions. */
+		protected final String[] globalVars;
+		/**
+		 * Predicate nodes reachable from this node without passing through another predicate node, computed by
+		 * <tt>compile</tt>.
+		 */
+		protected DecoratedNode[] frontier;
 
 		/** Create an EMPTY_NODE. */
 		public Node() {
@@ -865,20 +1706,24 @@ public class OpenSchemaPlanner {
 			this(type, "");
 		}
 
-		/** Create a node of a given type. */
+		/** Create a node of a given type, its name followed by a number to make it unique. */
 		public Node(int type, String name) {
-			this.type = type;
-			this.outgoing = new LinkedList<Node>();
-			this.predicate = null;
-			this.vars = null;
-			this.name = name + String.valueOf(nodeCounter++);
+			this(type, name + String.valueOf(nodeCounter++), null, null);
 		}
 
 		/** Create a PREDICATE_NODE. */
 		public Node(Predicate predicate, Map<String, String> vars) {
-			this(PREDICATE_NODE);
+			this(PREDICATE_NODE, String.valueOf(nodeCounter++), predicate, Collections.unmodifiableMap(vars));
+		}
+
+		/** Full constructor, taking the name as is (see <tt>defineNode</tt>). */
+		protected Node(int type, String name, Predicate predicate, Map<String, String> vars) {
+			this.type = type;
+			this.outgoing = new LinkedList<Node>();
 			this.predicate = predicate;
 			this.vars = vars;
+			this.globalVars = vars == null ? new String[0] : new TreeSet<String>(vars.values()).toArray(new String[0]);
+			this.name = name;
 		}
 
 		/**
@@ -888,6 +1733,14 @@ public class OpenSchemaPlanner {
 			outgoing.add(destination);
 		}
 
+		/** Link this node only to the nodes in its frontier and forbid further changes to the outgoing links. */
+		protected void collapse() {
+			Set<Node> nodes = new LinkedHashSet<Node>();
+			for (DecoratedNode decoratedNode : frontier)
+				nodes.add(decoratedNode.getNode());
+			this.outgoing = Collections.unmodifiableList(new ArrayList<Node>(nodes));
+		}
+
 		/** Node type accessor. */
 		public int getType() {
 			return this.type;
@@ -913,11 +1766,28 @@ public class OpenSchemaPlanner {
 			return this.outgoing;
 		}
 
+		/** Access the predicate nodes reachable from this node (see <tt>compile</tt>). */
+		public DecoratedNode[] getFrontier() {
+			if (this.frontier == null)
+				throw new IllegalStateException("Node " + name + " has not been compiled.");
+			return this.frontier;
+		}
+
+		/** Set the predicate nodes reachable from this node. */
+		protected void setFrontier(DecoratedNode[] frontier) {
+			this.frontier = frontier;
+		}
+
 		/** Access the global-to-local variable names mapping (if any). */
 		public Map<String, String> getVars() {
 			return this.vars;
 		}
 
+		/** Access the global variables referenced by this node, sorted and without repetitions. */
+		public String[] getGlobalVars() {
+			return this.globalVars;
+		}
+
 		/** Access the predicate referenced by this node (if any). */
 		public Predicate getPredicate() {
 			return this.predicate;
@@ -937,11 +1807,11 @@ public class OpenSchemaPlanner {
 	/** A decorated node inner class. */
 	protected static class DecoratedNode {
 		/** The node being decorated. */
-		protected Node node;
+		protected final Node node;
 		/** Crossed an aggregation boundary? */
-		protected boolean aggrBoundary;
+		protected final boolean aggrBoundary;
 		/** Crossed a paragraph boundary? */
-		protected boolean parBoundary;
+		protected final boolean parBoundary;
 
 		/** Default constructor */
 		public DecoratedNode(Node node) {
@@ -997,94 +1867,480 @@ public class OpenSchemaPlanner {
 		}
 	}
 
-	/** Values cache. */
+	/**
+	 * Values cache. Entries are hashed by node and by the values of the node's global variables. As global variables
+	 * are only ever added to the mapping, an entry created when some of them were unbound remains valid for any later
+	 * binding of them; the cache therefore keeps the entries of each node grouped by the set of global variables that
+	 * were bound when they were created (their binding pattern) and a lookup returns the oldest entry, across
+	 * patterns, whose bound variables agree with the current mapping.
+	 */
 	protected static class Cache {
-		/** The cache itself, as a map from nodes to Entry. */
-		protected Map<Node, List<Entry>> cache;
+		/** The cache itself, as a map from nodes to their entries grouped by binding pattern. */
+		protected Map<Node, List<Pattern>> cache;
+		/** Nodes whose entries are shared with a fork of this cache, to be copied before changing them. */
+		protected Set<Node> shared;
+		/** Path indices built while searching for values. */
+		protected PathIndex pathIndex;
+		/** Index of the frames, as kept by the planner, taken the first time it is needed. */
+		protected FrameSetIndex index;
+		/** The frames indexed by <tt>index</tt>. */
+		protected FrameSet indexFrames;
+		/** Values of the paths followed while searching for values and instantiating clauses. */
+		protected PathCache pathCache;
+		/** Solvers set up by this cache, kept to report metrics (null when not reporting). */
+		protected List<BacktrackingSolver> solvers;
+		/** Number of entries created so far, used to order them. */
+		protected int entryCounter;
+		/** Number of lookups that found values. */
+		protected long hits;
+		/** Number of lookups that required a search. */
+		protected long misses;
+		/** Cache of a previous instantiation over older data, where to take unaffected values from (or null). */
+		protected Cache previous;
+		/** Nodes whose values in the previous cache cannot be used. */
+		protected Set<Node> affected;
+		/** Limits to check while searching for values. */
+		protected PlanningLimits limits;
+		/** Receives the events of the instantiation using this cache. */
+		protected PlanTracer tracer;
+		/** Estimated search space of the searches set up by this cache so far (see <tt>SearchGuard</tt>). */
+		protected long searchSpace;
+		/** Where to report the searches set up by this cache, null if not explaining. */
+		protected PlanReport report;
 
 		/** Construct an empty cache. */
 		public Cache() {
-			this.cache = new HashMap<Node, List<Entry>>();
+			this(PlanningLimits.NONE);
+		}
+
+		/** Construct an empty cache, checking some limits while searching for values. */
+		public Cache(PlanningLimits limits) {
+			this(limits, PlanTracer.NONE);
+		}
+
+		/** Construct an empty cache, checking some limits and reporting to a tracer. */
+		public Cache(PlanningLimits limits, PlanTracer tracer) {
+			this.cache = new HashMap<Node, List<Pattern>>();
+			this.shared = new HashSet<Node>();
+			this.pathIndex = new PathIndex();
+			this.pathCache = new PathCache();
+			this.entryCounter = 0;
+			this.limits = limits;
+			this.tracer = tracer;
+		}
+
+		/**
+		 * Construct a cache for re-planning, with the entries of a previous cache as they were before a given step and
+		 * falling back to the rest of its entries for nodes not affected by the changes in the data.
+		 * 
+		 * @param recording
+		 *            the recording with the previous cache.
+		 * @param step
+		 *            the step to restore the entries at.
+		 * @param affected
+		 *            the nodes whose values changed.
+		 */
+		public Cache(PlanRecording recording, int step, Set<Node> affected) {
+			this();
+			this.previous = recording.cache;
+			this.affected = affected;
+			copyEntries(previous, recording.steps.get(step).entries, recording, step);
+		}
+
+		/**
+		 * Copy this cache. The values found so far are shared, but they are consumed independently from the copy: the
+		 * entries of each node are shared until either cache changes them, and only then copied (see <tt>own</tt>).
+		 */
+		public Cache fork() {
+			Cache copy = new Cache();
+			copy.cache.putAll(cache);
+			shared.addAll(cache.keySet());
+			copy.shared.addAll(cache.keySet());
+			copy.entryCounter = entryCounter;
+			copy.pathIndex = pathIndex;
+			copy.index = index;
+			copy.indexFrames = indexFrames;
+			copy.pathCache = pathCache;
+			copy.solvers = solvers;
+			copy.previous = previous;
+			copy.affected = affected;
+			copy.limits = limits;
+			copy.tracer = tracer;
+			copy.searchSpace = searchSpace;
+			copy.report = report;
+			return copy;
+		}
+
+		/**
+		 * Copy the entries of a node if they are shared with a fork, so they can be changed. The copied entries keep
+		 * their values at their current positions.
+		 */
+		protected void own(Node node) {
+			if (!shared.remove(node))
+				return;
+			List<Pattern> patterns = cache.get(node);
+			List<Pattern> copies = new ArrayList<Pattern>(patterns.size());
+			for (Pattern pattern : patterns) {
+				Pattern copy = new Pattern(pattern.bound);
+				for (Map.Entry<Key, Entry> entry : pattern.entries.entrySet()) {
+					Entry old = entry.getValue();
+					Entry copied = new Entry(old.node, old.order);
+					if (old.getValues() != null)
+						copied.setValues(new Values(old.getValues().source, old.getValues().position, limits));
+					copy.entries.put(entry.getKey(), copied);
+				}
+				copies.add(copy);
+			}
+			cache.put(node, copies);
+		}
+
+		/**
+		 * Copy the entries created before a given count from another cache.
+		 * 
+		 * @param other
+		 *            the cache to copy from.
+		 * @param entries
+		 *            number of entries to copy, in creation order.
+		 * @param recording
+		 *            if not null, the recording used to find how many values had been taken from each entry at a
+		 *            given step; otherwise, the entries are copied at their current positions.
+		 * @param step
+		 *            the step, when using a recording.
+		 */
+		protected void copyEntries(Cache other, int entries, PlanRecording recording, int step) {
+			this.entryCounter = entries;
+			for (Map.Entry<Node, List<Pattern>> e : other.cache.entrySet()) {
+				List<Pattern> patterns = new ArrayList<Pattern>(e.getValue().size());
+				for (Pattern pattern : e.getValue()) {
+					Pattern copy = new Pattern(pattern.bound);
+					for (Map.Entry<Key, Entry> entry : pattern.entries.entrySet()) {
+						Entry old = entry.getValue();
+						if (old.order >= entries || old.getValues() == null)
+							continue;
+						int position = recording == null ? old.getValues().position : recording.taken(old.order,
+								step);
+						Entry copied = new Entry(old.node, old.order);
+						copied.setValues(new Values(old.getValues().source, position, limits));
+						copy.entries.put(entry.getKey(), copied);
+					}
+					patterns.add(copy);
+				}
+				cache.put(e.getKey(), patterns);
+			}
+		}
+
+		/** Stop falling back to the previous cache. */
+		public void forgetPrevious() {
+			this.previous = null;
+			this.affected = null;
+		}
+
+		/** Access the path indices. */
+		PathIndex getPathIndex() {
+			return pathIndex;
+		}
+
+		/** Access the values of the paths followed so far. */
+		PathCache getPathCache() {
+			return pathCache;
+		}
+
+		/** Number of lookups that found values. */
+		public long getHits() {
+			return hits;
+		}
+
+		/** Number of lookups that required a search. */
+		public long getMisses() {
+			return misses;
 		}
 
 		/** Entry inner class */
 		protected static class Entry {
 			/** The node which values are being cached. */
 			protected Node node;
-			/** The mapping from global variable names to values. */
-			protected Map<String, Frame> vars;
+			/** Creation order of the entry. */
+			protected int order;
 			/** The values that satisty the predicate properties. */
-			protected List<Map<Object, Frame>> values;
+			protected Values values;
 
-			/** Construct a new entry for a given node and global variables. */
-			public Entry(Node node, Map<String, Frame> vars) {
+			/** Construct a new entry for a given node. */
+			public Entry(Node node, int order) {
 				this.node = node;
+				this.order = order;
 				this.values = null;
-				this.vars = new HashMap<String, Frame>();
-				// look for which variables from the global mapping are
-				// associated by the predicate in this node and record the
-				// association in the entry
-				for (String globalVar : node.getVars().values())
-					if (vars.containsKey(globalVar))
-						this.vars.put(globalVar, vars.get(globalVar));
 			}
 
-			/** Check when the node and the variables are the same. */
-			public boolean equals(Node node, Map<String, Frame> vars) {
-				if (this.node != node)
-					return false;
-				for (Map.Entry<String, Frame> entry : this.vars.entrySet()) {
-					if (!vars.containsKey(entry.getKey()))
-						return false;
-					if (!vars.get(entry.getKey()).equals(entry.getValue()))
-						return false;
+			/** Access the values. */
+			public Values getValues() {
+				return this.values;
+			}
+
+			/** Set the values. */
+			public void setValues(Values values) {
+				this.values = values;
+			}
+		}
+
+		/**
+		 * The values that satisfy the predicate properties, in canonical order. Values are searched for only when they
+		 * are needed and kept once found, so they can be shared by entries of different caches (see
+		 * <tt>replan</tt>). They are kept as tuples of frame ordinals packed in an array, and turned into maps by the
+		 * solver when they are used.
+		 */
+		protected static class Source {
+			/** The solver producing the values. */
+			protected final BacktrackingSolver solver;
+			/** Number of variables, the length of each tuple. */
+			protected final int width;
+			/** The values found so far, one tuple after the other. */
+			protected int[] found;
+			/** Number of values found so far. */
+			protected int count;
+			/** Whether the solver has no more values. */
+			protected boolean exhausted;
+
+			/** Construct the values produced by a solver. */
+			Source(BacktrackingSolver solver) {
+				this.solver = solver;
+				this.width = solver.getVariables().length;
+				this.found = new int[width];
+				this.count = 0;
+				this.exhausted = false;
+			}
+
+			/**
+			 * Whether there is a value at the given position, searching for it if needed.
+			 * 
+			 * @param limits
+			 *            limits to check while searching, can be null.
+			 */
+			public boolean has(int position, PlanningLimits limits) {
+				while (count <= position && !exhausted) {
+					if (!solver.advance(limits)) {
+						exhausted = true;
+						break;
+					}
+					if ((count + 1) * width > found.length)
+						found = Arrays.copyOf(found, 2 * found.length);
+					solver.copyTuple(found, count * width);
+					count++;
+				}
+				return position < count;
+			}
+
+			/** The value at a given position, as a new map. */
+			public Map<Object, Frame> get(int position) {
+				return solver.toAssignment(found, position * width);
+			}
+		}
+
+		/**
+		 * The values that satisfy the predicate properties for a cache entry, consumed in canonical order as the
+		 * schema is instantiated.
+		 */
+		protected static class Values {
+			/** Where the values come from. */
+			protected final Source source;
+			/** Position of the next value. */
+			protected int position;
+			/** Limits to check while searching. */
+			protected final PlanningLimits limits;
+			/** The value at <tt>position</tt>, once built. */
+			protected Map<Object, Frame> next;
+
+			/** Construct the values produced by a solver. */
+			Values(BacktrackingSolver solver, PlanningLimits limits) {
+				this(new Source(solver), 0, limits);
+			}
+
+			/** Construct the values of a source, starting at a given position. */
+			Values(Source source, int position, PlanningLimits limits) {
+				this.source = source;
+				this.position = position;
+				this.limits = limits;
+			}
+
+			/** Whether there are no more values. */
+			public boolean isEmpty() {
+				return !source.has(position, limits);
+			}
+
+			/** The next value, without consuming it. */
+			public Map<Object, Frame> peek() {
+				if (next == null) {
+					if (!source.has(position, limits))
+						throw new IllegalStateException("No more values.");
+					next = source.get(position);
 				}
+				return next;
+			}
+
+			/** Consume the next value. */
+			public Map<Object, Frame> take() {
+				Map<Object, Frame> result = peek();
+				position++;
+				next = null;
+				return result;
+			}
+		}
+
+		/** Entries of a node created with a given set of global variables bound. */
+		protected static class Pattern {
+			/** Whether each of the global variables of the node was bound. */
+			protected boolean[] bound;
+			/** Entries, keyed by the values of the bound variables. */
+			protected Map<Key, Entry> entries;
+
+			/** Construct an empty pattern. */
+			public Pattern(boolean[] bound) {
+				this.bound = bound;
+				this.entries = new HashMap<Key, Entry>();
+			}
+
+			/** Whether all the variables bound in this pattern are bound in the given mapping. */
+			public boolean isCoveredBy(boolean[] other) {
+				for (int i = 0; i < bound.length; i++)
+					if (bound[i] && !other[i])
+						return false;
 				return true;
 			}
 
-			/** Access the values list. */
-			public List<Map<Object, Frame>> getValues() {
-				return this.values;
+			/** Project a variable mapping over the variables bound in this pattern. */
+			public Key project(String[] globalVars, Map<String, Frame> vars) {
+				Frame[] values = new Frame[globalVars.length];
+				for (int i = 0; i < globalVars.length; i++)
+					if (bound[i])
+						values[i] = vars.get(globalVars[i]);
+				return new Key(values);
 			}
+		}
+
+		/** Immutable, hashable projection of the global variables of a node. */
+		protected static final class Key {
+			/** Values of the global variables, in the order of <tt>Node.getGlobalVars</tt>. */
+			private final Frame[] values;
+			/** Precomputed hash code. */
+			private final int hashCode;
 
-			/** Set the values list. */
-			public void setValues(List<Map<Object, Frame>> values) {
+			/** Construct a key (the array is not copied). */
+			public Key(Frame[] values) {
 				this.values = values;
+				this.hashCode = Arrays.hashCode(values);
+			}
+
+			public int hashCode() {
+				return hashCode;
+			}
+
+			public boolean equals(Object o) {
+				return o instanceof Key && Arrays.equals(values, ((Key) o).values);
 			}
 		}
 
 		/**
-		 * Access the cache by searching for the list of values for this node and variables. Returns null on miss.
+		 * Find the entry for a node and variables, or create it if it does not exist.
+		 * 
+		 * @param create
+		 *            whether to create the entry if it does not exist.
 		 */
-		public List<Map<Object, Frame>> fetch(Node node, Map<String, Frame> vars) {
-			if (!cache.containsKey(node))
-				cache.put(node, new LinkedList<Entry>());
-			List<Entry> entries = cache.get(node);
+		protected Entry find(Node node, Map<String, Frame> vars, boolean create) {
+			List<Pattern> patterns = cache.get(node);
+			if (patterns == null) {
+				patterns = new ArrayList<Pattern>(1);
+				if (create)
+					cache.put(node, patterns);
+			}
+			String[] globalVars = node.getGlobalVars();
+			boolean[] bound = new boolean[globalVars.length];
+			for (int i = 0; i < globalVars.length; i++)
+				bound[i] = vars.containsKey(globalVars[i]);
+
 			Entry theEntry = null;
-			for (Entry entry : entries)
-				if (entry.equals(node, vars)) {
+			Pattern samePattern = null;
+			for (Pattern pattern : patterns) {
+				if (Arrays.equals(pattern.bound, bound))
+					samePattern = pattern;
+				if (!pattern.isCoveredBy(bound))
+					continue;
+				Entry entry = pattern.entries.get(pattern.project(globalVars, vars));
+				if (entry != null && (theEntry == null || entry.order < theEntry.order))
 					theEntry = entry;
-					break;
+			}
+			if (theEntry == null && create) {
+				if (shared.contains(node)) {
+					own(node);
+					return find(node, vars, create);
 				}
+				if (samePattern == null) {
+					samePattern = new Pattern(bound);
+					patterns.add(samePattern);
+				}
+				theEntry = new Entry(node, entryCounter++);
+				Key key = samePattern.project(globalVars, vars);
+				samePattern.entries.put(key, theEntry);
+				if (previous != null && !affected.contains(node))
+					theEntry.setValues(previous.reuse(node, bound, key, limits));
+			}
+			return theEntry;
+		}
+
+		/** Values for a new entry from an entry of this cache with the same node and key, if any. */
+		protected Values reuse(Node node, boolean[] bound, Key key, PlanningLimits limits) {
+			List<Pattern> patterns = cache.get(node);
+			if (patterns != null)
+				for (Pattern pattern : patterns)
+					if (Arrays.equals(pattern.bound, bound)) {
+						Entry entry = pattern.entries.get(key);
+						if (entry != null && entry.getValues() != null)
+							return new Values(entry.getValues().source, 0, limits);
+					}
+			return null;
+		}
 
-			if (theEntry == null) {
-				theEntry = new Entry(node, vars);
-				entries.add(theEntry);
+		/**
+		 * Access the cache entry for this node and variables, creating it if needed. Lookups are counted as hits when
+		 * the entry has already been populated and as misses otherwise.
+		 */
+		public Entry lookup(Node node, Map<String, Frame> vars) {
+			Entry entry = find(node, vars, true);
+			if (entry.getValues() == null && shared.contains(node)) {
+				own(node);
+				entry = find(node, vars, true);
 			}
-			return theEntry.getValues();
+			if (entry.getValues() == null)
+				misses++;
+			else
+				hits++;
+			return entry;
+		}
+
+		/**
+		 * Access the cache by searching for the list of values for this node and variables. Returns null on miss.
+		 */
+		public Values fetch(Node node, Map<String, Frame> vars) {
+			return fetch(node, vars, false);
+		}
+
+		/**
+		 * Access the cache by searching for the list of values for this node and variables, to consume them or not.
+		 * Returns null on miss.
+		 */
+		public Values fetch(Node node, Map<String, Frame> vars, boolean consume) {
+			if (consume)
+				own(node);
+			return find(node, vars, true).getValues();
 		}
 
 		/**
 		 * Populate the cache entry for a node and variables with the values.
 		 */
-		public void populate(Node node, Map<String, Frame> vars, List<Map<Object, Frame>> values) {
-			List<Entry> entries = cache.get(node);
-			for (Entry entry : entries)
-				if (entry.equals(node, vars)) {
-					entry.setValues(values);
-					return;
-				}
-			throw new IllegalStateException("populate(..) executed before fetch(..).");
+		public void populate(Node node, Map<String, Frame> vars, Values values) {
+			own(node);
+			Entry entry = find(node, vars, false);
+			if (entry == null)
+				throw new IllegalStateException("populate(..) executed before fetch(..).");
+			entry.setValues(values);
 		}
 	}
 }
@@ -0,0 +1,37 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+/**
+ * An optional extension of the <tt>FrameSet</tt> interface for frame sets that number their frames themselves, so the
+ * numbering is computed once and shared by all the instantiations over them. For other frame sets, the ordinals are
+ * kept with the index of the frames (<tt>FrameSetIndex</tt>): the planner numbers the frames at the start of each
+ * instantiation, unless the frame set was given to <tt>OpenSchemaPlanner.keepIndex</tt>, in which case the ordinals are
+ * kept across instantiations, until the index is built again.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public interface OrdinalFrameSet extends FrameSet {
+	/** Dense ordinals for the current frames of the set. */
+	public FrameOrdinals getOrdinals();
+}
@@ -0,0 +1,124 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Values reached by following paths (such as "person.name.first-name") from frames, computed the first time they are
+ * requested and kept for later requests. The values of each path form a column from frame to values, filled as the
+ * schema uses it: the output of a predicate is resolved for every candidate clause in the confusion set and again for
+ * the committed clause, always over the same frames.
+ * <p>
+ * Paths and frames are compared by identity: paths are the arrays held by the (immutable) <tt>PathRef</tt>s of a schema
+ * and frames are not looked at beyond following the path. A cache lives as long as an instantiation, while the frames
+ * cannot be modified; <tt>invalidate</tt> drops the values computed from a frame that has changed. This class is not
+ * thread-safe.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+class PathCache {
+	/** The columns, by path and then by starting frame. */
+	protected Map<String[], Map<Frame, List<Object>>> columns;
+	/** Number of lookups that found the values. */
+	protected long hits;
+	/** Number of lookups that required following the path. */
+	protected long misses;
+
+	/** Construct an empty cache. */
+	public PathCache() {
+		this.columns = new IdentityHashMap<String[], Map<Frame, List<Object>>>();
+	}
+
+	/**
+	 * Follow a path from a frame, collecting all the values at the end of it, in order and with repetitions.
+	 * 
+	 * @param frame
+	 *            the starting frame, can be null (the values are then empty).
+	 * @param path
+	 *            the path to follow, not to be modified.
+	 * @return the values, not to be modified.
+	 */
+	public List<Object> resolve(Frame frame, String[] path) {
+		if (path.length == 0)
+			return Collections.<Object> singletonList(frame);
+		Map<Frame, List<Object>> column = columns.get(path);
+		if (column == null) {
+			column = new IdentityHashMap<Frame, List<Object>>();
+			columns.put(path, column);
+		}
+		List<Object> values = column.get(frame);
+		if (values != null) {
+			hits++;
+			return values;
+		}
+		misses++;
+		values = Collections.unmodifiableList(follow(frame, path));
+		column.put(frame, values);
+		return values;
+	}
+
+	/** Follow a path from a frame, one step at a time. */
+	protected static List<Object> follow(Frame frame, String[] path) {
+		List<Object> list = new ArrayList<Object>();
+		list.add(frame);
+		for (int i = 0; i < path.length; i++) {
+			// iterate over current frames
+			List<Object> next = new ArrayList<Object>();
+			for (Object o : list)
+				if (o instanceof Frame)
+					next.addAll(((Frame) o).get(path[i]));
+			list = next;
+		}
+		return list;
+	}
+
+	/**
+	 * Drop the values that may have been computed from a frame, after it has been modified: the values starting at the
+	 * frame and all the values of paths of more than one step, which can go through it.
+	 * 
+	 * @param frame
+	 *            the modified frame.
+	 */
+	public void invalidate(Frame frame) {
+		for (Map.Entry<String[], Map<Frame, List<Object>>> e : columns.entrySet())
+			if (e.getKey().length == 1)
+				e.getValue().remove(frame);
+			else
+				e.getValue().clear();
+	}
+
+	/** Number of lookups that found the values. */
+	public long getHits() {
+		return hits;
+	}
+
+	/** Number of lookups that required following the path. */
+	public long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,116 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse indices from the values reached by following a path to the frames of a given type where the path starts. Used
+ * to evaluate path equalities (such as "birth-event == person.birth") as joins: once one side is known, the frames on
+ * the other side are looked up instead of enumerated. They are only needed when the unknown side is a path; a plain
+ * variable on the unknown side is obtained by following the path of the known side instead.
+ *
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+class PathIndex {
+	/** The indices, keyed by type and then by path. */
+	protected Map<Object, Map<List<String>, Map<Object, List<Frame>>>> indices;
+
+	/** Construct an empty set of indices. */
+	public PathIndex() {
+		this.indices = new HashMap<Object, Map<List<String>, Map<Object, List<Frame>>>>();
+	}
+
+	/**
+	 * Look up the frames of a given type that reach any of the given values by following a path.
+	 *
+	 * @param type
+	 *            the type of the frames, used as key for the index.
+	 * @param extent
+	 *            all the frames under the type, used to build the index the first time.
+	 * @param path
+	 *            the path to follow from the frames.
+	 * @param values
+	 *            the values to look for.
+	 * @return the frames, without repetitions.
+	 */
+	public List<Frame> lookup(Object type, List<Frame> extent, String[] path, Collection<?> values) {
+		Map<Object, List<Frame>> index = index(type, extent, path);
+		Set<Frame> result = new LinkedHashSet<Frame>();
+		for (Object value : values) {
+			List<Frame> found = index.get(value);
+			if (found != null)
+				result.addAll(found);
+		}
+		return new ArrayList<Frame>(result);
+	}
+
+	/** Access (or build) the index for a given type and path. */
+	protected Map<Object, List<Frame>> index(Object type, List<Frame> extent, String[] path) {
+		Map<List<String>, Map<Object, List<Frame>>> byPath = indices.get(type);
+		if (byPath == null) {
+			byPath = new HashMap<List<String>, Map<Object, List<Frame>>>();
+			indices.put(type, byPath);
+		}
+		List<String> key = Arrays.asList(path);
+		Map<Object, List<Frame>> index = byPath.get(key);
+		if (index == null) {
+			index = new HashMap<Object, List<Frame>>();
+			for (Frame frame : extent)
+				for (Object value : resolve(frame, path)) {
+					List<Frame> frames = index.get(value);
+					if (frames == null) {
+						frames = new ArrayList<Frame>(1);
+						index.put(value, frames);
+					}
+					frames.add(frame);
+				}
+			byPath.put(key, index);
+		}
+		return index;
+	}
+
+	/**
+	 * Follow a path from a frame, collecting all values at the end of it (the values <tt>Property.reaches</tt> looks
+	 * for a target among).
+	 */
+	public static Set<Object> resolve(Frame frame, String[] path) {
+		Set<Object> result = new LinkedHashSet<Object>();
+		result.add(frame);
+		for (int i = 0; i < path.length; i++) {
+			Set<Object> next = new LinkedHashSet<Object>();
+			for (Object o : result)
+				if (o instanceof Frame)
+					next.addAll(((Frame) o).get(path[i]));
+			result = next;
+		}
+		return result;
+	}
+}
@@ -28,7 +28,7 @@ package net.sf.openschema;
  */
 
 class PathRef extends VarRef {
-	protected String[] path;
+	protected final String[] path;
 
 	public PathRef(String var, String[] path) {
 		super(var);
@@ -0,0 +1,116 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A <tt>PlanSink</tt> keeping what it receives (clauses, plus <tt>AGGR_BOUNDARY</tt> and <tt>PAR_BOUNDARY</tt>) as a
+ * list of events, so they can be passed to another sink later, and optionally passing them on as they arrive. Used for
+ * the partial plans of <tt>BeamSearchPlanner</tt> and the events of a <tt>PlanRecording</tt>.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+class PlanEvents implements PlanSink {
+	/** Marks an aggregation boundary among the events. */
+	protected static final Object AGGR_BOUNDARY = "AGGR_BOUNDARY";
+	/** Marks a paragraph boundary among the events. */
+	protected static final Object PAR_BOUNDARY = "PAR_BOUNDARY";
+
+	/** The events, in order. */
+	protected final List<Object> events;
+	/** Where to pass the events on as they arrive, null for none. */
+	protected final PlanSink target;
+
+	/** Start with no events, passing them on to a sink (or to none, if null). */
+	public PlanEvents(PlanSink target) {
+		this.events = new ArrayList<Object>();
+		this.target = target;
+	}
+
+	/** Start with the events of another list, without passing them on. */
+	public PlanEvents(PlanEvents other) {
+		this.events = new ArrayList<Object>(other.events);
+		this.target = null;
+	}
+
+	public void addClause(Map<String, Object> clause) {
+		add(clause);
+	}
+
+	public void addAggrBoundary() {
+		add(AGGR_BOUNDARY);
+	}
+
+	public void addParBoundary() {
+		add(PAR_BOUNDARY);
+	}
+
+	/** Passed on, the events are kept. */
+	public void truncate() {
+		if (target != null)
+			target.truncate();
+	}
+
+	public void finish() {
+	}
+
+	/** Number of events so far. */
+	public int size() {
+		return events.size();
+	}
+
+	/** Keep an event and pass it on. */
+	protected void add(Object event) {
+		events.add(event);
+		if (target != null)
+			pass(event, target);
+	}
+
+	/**
+	 * Pass the first events to a sink.
+	 * 
+	 * @param sink
+	 *            the sink.
+	 * @param count
+	 *            number of events to pass.
+	 */
+	public void replay(PlanSink sink, int count) {
+		for (int i = 0; i < count; i++)
+			pass(events.get(i), sink);
+	}
+
+	/** Pass an event to a sink. */
+	@SuppressWarnings("unchecked")
+	protected static void pass(Object event, PlanSink sink) {
+		if (event == AGGR_BOUNDARY)
+			sink.addAggrBoundary();
+		else if (event == PAR_BOUNDARY)
+			sink.addParBoundary();
+		else
+			sink.addClause((Map<String, Object>) event);
+	}
+}
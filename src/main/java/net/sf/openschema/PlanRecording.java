@@ -0,0 +1,156 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A document plan together with what is needed to re-plan it incrementally when the data changes: the state of the
+ * instantiation before each step and the values cache at the end. Obtained from <tt>OpenSchemaPlanner.record</tt> and
+ * <tt>OpenSchemaPlanner.replan</tt>. A recording shares cached values with the recordings replanned from it, so they
+ * should be used from one thread at a time.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PlanRecording {
+	/** The planner that produced the recording. */
+	protected final OpenSchemaPlanner planner;
+	/** The data used to fill the schema. */
+	protected final FrameSet frames;
+	/** The initial mapping. */
+	protected final Map<String, Frame> initialMapping;
+	/** The ontology. */
+	protected final Ontology ontology;
+	/** The document plan. */
+	protected final DocumentPlan plan;
+	/** Everything passed to the sink, passed on to the document plan. */
+	protected final PlanEvents events;
+	/** The state before each step of the instantiation, including the last one (which finds nothing to do). */
+	protected final List<Step> steps;
+	/** The values cache, once the instantiation is finished. */
+	protected OpenSchemaPlanner.Cache cache;
+	/** Number of steps taken from a previous recording. */
+	protected int reusedSteps;
+
+	/** Start an empty recording. */
+	protected PlanRecording(OpenSchemaPlanner planner, FrameSet frames, Map<String, Frame> initialMapping,
+			Ontology ontology) {
+		this.planner = planner;
+		this.frames = frames;
+		this.initialMapping = Collections.unmodifiableMap(new HashMap<String, Frame>(initialMapping));
+		this.ontology = ontology;
+		this.plan = new DocumentPlan();
+		this.events = new PlanEvents(plan);
+		this.steps = new ArrayList<Step>();
+		this.reusedSteps = 0;
+	}
+
+	/** The document plan. */
+	public DocumentPlan getPlan() {
+		return plan;
+	}
+
+	/** Number of steps of the instantiation, counting the last one. */
+	public int getSteps() {
+		return steps.size();
+	}
+
+	/** Number of steps that were taken unchanged from the recording this one was replanned from. */
+	public int getReusedSteps() {
+		return reusedSteps;
+	}
+
+	/** The sink to instantiate into, adding to the document plan and recording the events. */
+	protected PlanSink sink() {
+		return events;
+	}
+
+	/**
+	 * Copy the first steps of another recording, with their events.
+	 * 
+	 * @param other
+	 *            the recording to copy from.
+	 * @param count
+	 *            number of steps to copy.
+	 */
+	protected void reuse(PlanRecording other, int count) {
+		int eventCount = count < other.steps.size() ? other.steps.get(count).events : other.events.size();
+		other.events.replay(events, eventCount);
+		steps.addAll(other.steps.subList(0, count));
+		reusedSteps = count;
+	}
+
+	/**
+	 * Number of values taken from a cache entry in the steps before a given one.
+	 * 
+	 * @param order
+	 *            the creation order of the cache entry.
+	 * @param step
+	 *            the step.
+	 */
+	protected int taken(int order, int step) {
+		int result = 0;
+		for (int i = 0; i < step; i++)
+			if (steps.get(i).taken == order)
+				result++;
+		return result;
+	}
+
+	/** The state of the instantiation before a step. */
+	protected static class Step {
+		/** The current node. */
+		protected final OpenSchemaPlanner.Node node;
+		/** The current focus. */
+		protected final Frame focus;
+		/** The potential focus list. */
+		protected final List<Frame> potentialFoci;
+		/** The focus history. */
+		protected final List<Frame> focusHistory;
+		/** The global variables. */
+		protected final Map<String, Frame> varMapping;
+		/** Number of cache entries. */
+		protected final int entries;
+		/** Number of events. */
+		protected final int events;
+		/** Creation order of the cache entry the step took values from, -1 if none. */
+		protected int taken;
+
+		/** Full constructor, the collections are copied. */
+		protected Step(OpenSchemaPlanner.Node node, Frame focus, List<Frame> potentialFoci, List<Frame> focusHistory,
+				Map<String, Frame> varMapping, int entries, int events) {
+			this.node = node;
+			this.focus = focus;
+			this.potentialFoci = Collections.unmodifiableList(new ArrayList<Frame>(potentialFoci));
+			this.focusHistory = Collections.unmodifiableList(new ArrayList<Frame>(focusHistory));
+			this.varMapping = Collections.unmodifiableMap(new HashMap<String, Frame>(varMapping));
+			this.entries = entries;
+			this.events = events;
+			this.taken = -1;
+		}
+	}
+}
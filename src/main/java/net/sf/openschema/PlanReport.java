@@ -0,0 +1,455 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What an instantiation did, node by node, to find out why a plan is slow (see <tt>OpenSchemaPlanner.explain</tt>).
+ * For each schema node reached, the report has how often it entered a confusion set and was chosen, how often its
+ * values were found in the cache or searched for, the sizes of the domains of the variables of its predicate, how many
+ * assignments were enumerated and values tried, how often each property was checked and passed, the time spent
+ * searching and which nodes were chosen next from it. Reports of many instantiations can be added up in a
+ * <tt>SchemaProfile</tt>. The report is the tracer of the instantiation; it can be printed as text (<tt>toString</tt>)
+ * or JSON (<tt>toJSON</tt>).
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PlanReport extends PlanTracer {
+	/** The plan. */
+	protected DocumentPlan plan;
+	/** Time taken by the instantiation, in nanoseconds. */
+	protected long nanos;
+	/** Number of clauses in the plan. */
+	protected int clauses;
+	/** The node the instantiation is at. */
+	protected String current;
+	/** The nodes, in the order they were first seen. */
+	protected final Map<String, NodeReport> nodes;
+	/** The searches set up, to collect their counts at the end. */
+	protected final List<Search> searches;
+
+	/** Construct an empty report, to be filled by an instantiation. */
+	public PlanReport() {
+		this.nodes = new LinkedHashMap<String, NodeReport>();
+		this.searches = new ArrayList<Search>();
+	}
+
+	/** The plan, null if it was passed to another sink. */
+	public DocumentPlan getPlan() {
+		return plan;
+	}
+
+	/** Time taken by the instantiation, in nanoseconds. */
+	public long getNanos() {
+		return nanos;
+	}
+
+	/** The nodes, the ones with more time spent searching first. */
+	public List<NodeReport> getNodes() {
+		List<NodeReport> result = new ArrayList<NodeReport>(nodes.values());
+		Collections.sort(result, new Comparator<NodeReport>() {
+			public int compare(NodeReport n1, NodeReport n2) {
+				return n1.nanos == n2.nanos ? 0 : (n1.nanos > n2.nanos ? -1 : 1);
+			}
+		});
+		return result;
+	}
+
+	/** The report of a node, null if it was never reached. */
+	public NodeReport getNode(String node) {
+		return nodes.get(node);
+	}
+
+	/** Access the report of a node, creating it the first time. */
+	protected NodeReport node(String node) {
+		NodeReport result = nodes.get(node);
+		if (result == null) {
+			result = new NodeReport(node);
+			nodes.put(node, result);
+		}
+		return result;
+	}
+
+	public void nodeVisited(String node, Frame focus) {
+		current = node;
+	}
+
+	public void confusionSet(String node, List<String> candidates) {
+		for (String candidate : candidates)
+			node(candidate).entered++;
+	}
+
+	public void decision(int position, String node, Frame focus, List<Frame> potentialFoci) {
+		node(node).chosen++;
+		if (current != null)
+			node(current).chose(node, 1);
+	}
+
+	public void valuesFound(String node, Map<String, Frame> varMapping, boolean found) {
+		node(node).searches++;
+	}
+
+	public void valuesCached(String node) {
+		node(node).cacheHits++;
+	}
+
+	/**
+	 * A search for values was set up.
+	 * 
+	 * @param node
+	 *            the name of the node.
+	 * @param predicate
+	 *            the ID of its predicate.
+	 * @param allVars
+	 *            the domains of the variables.
+	 * @param solver
+	 *            the solver, timed from now on.
+	 * @param nanos
+	 *            the time taken to set it up.
+	 */
+	void searchPrepared(String node, String predicate, Map<Object, List<Frame>> allVars, BacktrackingSolver solver,
+			long nanos) {
+		NodeReport report = node(node);
+		report.predicate = predicate;
+		report.nanos += nanos;
+		for (Map.Entry<Object, List<Frame>> entry : allVars.entrySet()) {
+			String var = entry.getKey().toString();
+			long[] sizes = report.domains.get(var);
+			if (sizes == null) {
+				sizes = new long[2];
+				report.domains.put(var, sizes);
+			}
+			sizes[0] = Math.max(sizes[0], entry.getValue().size());
+			sizes[1] += entry.getValue().size();
+		}
+		solver.setTimed(true);
+		searches.add(new Search(report, solver));
+	}
+
+	/** The instantiation is finished: collect the counts of the searches. */
+	void finish(DocumentPlan plan, int clauses, long nanos) {
+		this.plan = plan;
+		this.clauses = clauses;
+		this.nanos = nanos;
+		for (Search search : searches) {
+			NodeReport report = search.node;
+			BacktrackingSolver solver = search.solver;
+			report.enumerated += solver.getFound();
+			report.tried += solver.getTried();
+			report.nanos += solver.getNanos();
+			List<Property> properties = solver.getProperties();
+			for (int i = 0; i < properties.size(); i++) {
+				String property = properties.get(i).toString();
+				long[] counts = report.properties.get(property);
+				if (counts == null) {
+					counts = new long[2];
+					report.properties.put(property, counts);
+				}
+				counts[0] += solver.getChecks(i);
+				counts[1] += solver.getPasses(i);
+			}
+		}
+		searches.clear();
+	}
+
+	/** The report as text, one node per line followed by its domains and properties. */
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		int clauses = getClauses();
+		result.append("Plan: ").append(clauses).append(" clauses in ").append(millis(nanos)).append("ms\n");
+		for (NodeReport node : getNodes()) {
+			result.append(node.name);
+			if (node.predicate != null)
+				result.append(" (").append(node.predicate).append(')');
+			result.append(": entered=").append(node.entered).append(" chosen=").append(node.chosen)
+					.append(" cacheHits=").append(node.cacheHits).append(" searches=").append(node.searches)
+					.append(" enumerated=").append(node.enumerated).append(" tried=").append(node.tried)
+					.append(" time=").append(millis(node.nanos)).append("ms\n");
+			for (String var : node.domains.keySet())
+				result.append("\tdomain ").append(var).append(": max=").append(node.getMaxDomain(var))
+						.append(" mean=").append(node.getMeanDomain(var)).append('\n');
+			for (String property : node.properties.keySet())
+				result.append("\tproperty ").append(property).append(": checks=").append(node.getChecks(property))
+						.append(" passRate=").append(node.getPassRate(property)).append('\n');
+			for (String next : node.next.keySet())
+				result.append("\tnext ").append(next).append(": ").append(node.getNext(next)).append('\n');
+		}
+		return result.toString();
+	}
+
+	/** The report as a JSON object, with the nodes in the same order as <tt>getNodes</tt>. */
+	public String toJSON() {
+		StringBuilder result = new StringBuilder();
+		int clauses = getClauses();
+		result.append("{\"clauses\":").append(clauses).append(",\"nanos\":").append(nanos).append(",\"nodes\":[");
+		boolean first = true;
+		for (NodeReport node : getNodes()) {
+			if (!first)
+				result.append(',');
+			first = false;
+			result.append("{\"node\":").append(quote(node.name)).append(",\"predicate\":")
+					.append(node.predicate == null ? "null" : quote(node.predicate)).append(",\"entered\":")
+					.append(node.entered).append(",\"chosen\":").append(node.chosen).append(",\"cacheHits\":")
+					.append(node.cacheHits).append(",\"searches\":").append(node.searches).append(",\"enumerated\":")
+					.append(node.enumerated).append(",\"tried\":").append(node.tried).append(",\"nanos\":")
+					.append(node.nanos).append(",\"domains\":{");
+			boolean firstVar = true;
+			for (String var : node.domains.keySet()) {
+				if (!firstVar)
+					result.append(',');
+				firstVar = false;
+				result.append(quote(var)).append(":{\"max\":").append(node.getMaxDomain(var)).append(",\"mean\":")
+						.append(node.getMeanDomain(var)).append('}');
+			}
+			result.append("},\"properties\":[");
+			boolean firstProperty = true;
+			for (String property : node.properties.keySet()) {
+				if (!firstProperty)
+					result.append(',');
+				firstProperty = false;
+				result.append("{\"property\":").append(quote(property)).append(",\"checks\":")
+						.append(node.getChecks(property)).append(",\"passRate\":")
+						.append(node.getPassRate(property)).append('}');
+			}
+			result.append("],\"next\":{");
+			boolean firstNext = true;
+			for (String next : node.next.keySet()) {
+				if (!firstNext)
+					result.append(',');
+				firstNext = false;
+				result.append(quote(next)).append(':').append(node.getNext(next));
+			}
+			result.append("}}");
+		}
+		return result.append("]}").toString();
+	}
+
+	/** Number of clauses in the plan. */
+	public int getClauses() {
+		return clauses;
+	}
+
+	/** Nanoseconds as milliseconds, with two decimals. */
+	protected static String millis(long nanos) {
+		return String.valueOf(Math.round(nanos / 1e4) / 100.0);
+	}
+
+	/** A string as a JSON string. */
+	protected static String quote(String string) {
+		StringBuilder result = new StringBuilder("\"");
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c == '"' || c == '\\')
+				result.append('\\').append(c);
+			else if (c < ' ')
+				result.append(String.format("\\u%04x", new Integer(c)));
+			else
+				result.append(c);
+		}
+		return result.append('"').toString();
+	}
+
+	/** A search set up for a node. */
+	protected static class Search {
+		protected final NodeReport node;
+		protected final BacktrackingSolver solver;
+
+		Search(NodeReport node, BacktrackingSolver solver) {
+			this.node = node;
+			this.solver = solver;
+		}
+	}
+
+	/** What the instantiation did at a node. */
+	public static class NodeReport {
+		/** Name of the node. */
+		protected final String name;
+		/** ID of its predicate, null if its values were never searched for. */
+		protected String predicate;
+		/** Number of confusion sets the node was in. */
+		protected long entered;
+		/** Number of times it was chosen. */
+		protected long chosen;
+		/** Number of times its values were found in the cache. */
+		protected long cacheHits;
+		/** Number of searches for its values. */
+		protected long searches;
+		/** Number of assignments enumerated by the searches. */
+		protected long enumerated;
+		/** Number of values tried by the searches. */
+		protected long tried;
+		/** Time spent setting up the searches and searching, in nanoseconds. */
+		protected long nanos;
+		/** Largest and total size of the domain of each variable, over the searches. */
+		protected final Map<String, long[]> domains;
+		/** Number of checks and passes of each property, over the searches. */
+		protected final Map<String, long[]> properties;
+		/** Number of times each node was chosen right after this one. */
+		protected final Map<String, long[]> next;
+
+		/** Construct an empty report for a node. */
+		public NodeReport(String name) {
+			this.name = name;
+			this.domains = new LinkedHashMap<String, long[]>();
+			this.properties = new LinkedHashMap<String, long[]>();
+			this.next = new LinkedHashMap<String, long[]>();
+		}
+
+		/** Count a node chosen right after this one. */
+		void chose(String node, long times) {
+			long[] count = next.get(node);
+			if (count == null) {
+				count = new long[1];
+				next.put(node, count);
+			}
+			count[0] += times;
+		}
+
+		/** Add the counts of another report of the same node. */
+		void add(NodeReport other) {
+			if (other.predicate != null)
+				predicate = other.predicate;
+			entered += other.entered;
+			chosen += other.chosen;
+			cacheHits += other.cacheHits;
+			searches += other.searches;
+			enumerated += other.enumerated;
+			tried += other.tried;
+			nanos += other.nanos;
+			add(domains, other.domains, true);
+			add(properties, other.properties, false);
+			for (Map.Entry<String, long[]> entry : other.next.entrySet())
+				chose(entry.getKey(), entry.getValue()[0]);
+		}
+
+		/** Add counts by key, keeping the maximum of the first count if asked to. */
+		protected static void add(Map<String, long[]> counts, Map<String, long[]> other, boolean firstIsMax) {
+			for (Map.Entry<String, long[]> entry : other.entrySet()) {
+				long[] mine = counts.get(entry.getKey());
+				if (mine == null) {
+					mine = new long[entry.getValue().length];
+					counts.put(entry.getKey(), mine);
+				}
+				for (int i = 0; i < mine.length; i++)
+					mine[i] = i == 0 && firstIsMax ? Math.max(mine[i], entry.getValue()[i]) : mine[i]
+							+ entry.getValue()[i];
+			}
+		}
+
+		/** Name of the node. */
+		public String getName() {
+			return name;
+		}
+
+		/** ID of its predicate, null if its values were never searched for. */
+		public String getPredicate() {
+			return predicate;
+		}
+
+		/** Number of confusion sets the node was in. */
+		public long getEntered() {
+			return entered;
+		}
+
+		/** Number of times it was chosen. */
+		public long getChosen() {
+			return chosen;
+		}
+
+		/** Number of times its values were found in the cache. */
+		public long getCacheHits() {
+			return cacheHits;
+		}
+
+		/** Number of searches for its values. */
+		public long getSearches() {
+			return searches;
+		}
+
+		/** Number of assignments enumerated by the searches. */
+		public long getEnumerated() {
+			return enumerated;
+		}
+
+		/** Number of values tried by the searches. */
+		public long getTried() {
+			return tried;
+		}
+
+		/** Time spent setting up the searches and searching, in nanoseconds. */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/** The variables of the predicate. */
+		public List<String> getVariables() {
+			return new ArrayList<String>(domains.keySet());
+		}
+
+		/** Largest domain of a variable over the searches. */
+		public long getMaxDomain(String var) {
+			long[] sizes = domains.get(var);
+			return sizes == null ? 0 : sizes[0];
+		}
+
+		/** Mean size of the domain of a variable over the searches. */
+		public double getMeanDomain(String var) {
+			long[] sizes = domains.get(var);
+			return sizes == null || searches == 0 ? 0.0 : (double) sizes[1] / searches;
+		}
+
+		/** The properties checked, as text. */
+		public List<String> getProperties() {
+			return new ArrayList<String>(properties.keySet());
+		}
+
+		/** Number of times a property was checked. */
+		public long getChecks(String property) {
+			long[] counts = properties.get(property);
+			return counts == null ? 0 : counts[0];
+		}
+
+		/** The nodes chosen right after this one. */
+		public List<String> getNext() {
+			return new ArrayList<String>(next.keySet());
+		}
+
+		/** Number of times a node was chosen right after this one. */
+		public long getNext(String node) {
+			long[] count = next.get(node);
+			return count == null ? 0 : count[0];
+		}
+
+		/** Fraction of the checks of a property that passed, 1 if it was never checked. */
+		public double getPassRate(String property) {
+			long[] counts = properties.get(property);
+			return counts == null || counts[0] == 0 ? 1.0 : (double) counts[1] / counts[0];
+		}
+	}
+}
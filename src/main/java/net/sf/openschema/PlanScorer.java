@@ -0,0 +1,56 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores partial document plans for <tt>BeamSearchPlanner</tt>. The score of a plan is the sum of the scores of adding
+ * each of its clauses, higher is better. As with <tt>LocalChooser</tt>, a scorer is shared by all instantiations and
+ * should not keep state between calls.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public interface PlanScorer {
+	/**
+	 * Score adding a clause to a partial plan.
+	 * 
+	 * @param clause
+	 *            the new clause.
+	 * @param previousFocus
+	 *            the focus before the clause.
+	 * @param previousPotentialFoci
+	 *            the potential focus list before the clause.
+	 * @param focusStack
+	 *            the focus stack before the clause.
+	 * @param focus
+	 *            the focus of the new clause.
+	 * @param potentialFoci
+	 *            the potential focus list of the new clause.
+	 * @return the score, higher is better.
+	 */
+	public double score(Map<String, Object> clause, Frame previousFocus, List<Frame> previousPotentialFoci,
+			List<Frame> focusStack, Frame focus, List<Frame> potentialFoci);
+}
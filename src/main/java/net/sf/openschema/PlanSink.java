@@ -0,0 +1,51 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.Map;
+
+/**
+ * Receives a document plan as it is being built. The planner calls these methods as soon as each decision is taken,
+ * so realization can start before the instantiation is finished. Boundaries are reported before the clause that
+ * follows them and might be redundant (for example, an aggregation boundary right after a paragraph boundary); it is
+ * up to the sink to ignore them. <tt>DocumentPlan</tt> is the sink that keeps the whole plan in memory.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public interface PlanSink {
+	/** A new clause, to add to the open paragraph and aggregation segment. */
+	public void addClause(Map<String, Object> clause);
+
+	/** The current aggregation segment is closed. */
+	public void addAggrBoundary();
+
+	/** The current paragraph is closed. */
+	public void addParBoundary();
+
+	/** The instantiation was stopped before its end (see <tt>PlanningLimits</tt>), <tt>finish</tt> follows. */
+	public void truncate();
+
+	/** The instantiation is finished, no more calls will follow. */
+	public void finish();
+}
@@ -0,0 +1,141 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives structured events from an instantiation, for debugging and analysis. A tracer is given to a single
+ * instantiation (see <tt>OpenSchemaPlanner.instantiate</tt>), so tracing one request does not affect the others. The
+ * methods of this class do nothing; subclasses override the events they are interested in. Instantiations without a
+ * tracer use <tt>NONE</tt>, whose calls are inlined away by the JIT; arguments that are costly to build are only built
+ * when the tracer is not <tt>NONE</tt>.
+ * <p>
+ * Events are reported from the thread running the instantiation, in the order in which they happen.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PlanTracer {
+	/** No tracing. */
+	public static final PlanTracer NONE = new PlanTracer();
+
+	/**
+	 * The instantiation is at a node and is about to compute its confusion set.
+	 * 
+	 * @param node
+	 *            the name of the node.
+	 * @param focus
+	 *            the current focus.
+	 */
+	public void nodeVisited(String node, Frame focus) {
+	}
+
+	/**
+	 * The nodes that can be reached and instantiated from a node.
+	 * 
+	 * @param node
+	 *            the name of the current node.
+	 * @param candidates
+	 *            the names of the reachable nodes, in schema order.
+	 */
+	public void confusionSet(String node, List<String> candidates) {
+	}
+
+	/**
+	 * A search for values was set up for a node, given the global variables bound so far. Only reported the first
+	 * time, later lookups are answered by the values cache.
+	 * 
+	 * @param node
+	 *            the name of the node.
+	 * @param varMapping
+	 *            the global variables.
+	 * @param found
+	 *            whether there are values to instantiate the node.
+	 */
+	public void valuesFound(String node, Map<String, Frame> varMapping, boolean found) {
+	}
+
+	/**
+	 * The values of a node, given the global variables bound so far, were found in the values cache.
+	 * 
+	 * @param node
+	 *            the name of the node.
+	 */
+	public void valuesCached(String node) {
+	}
+
+	/**
+	 * The search for the values of a node was over its limit in the <tt>SearchGuard</tt> of the planner. Unless the
+	 * policy is to fail, the search then goes on over smaller domains.
+	 * 
+	 * @param node
+	 *            the name of the node.
+	 * @param predicate
+	 *            the ID of its predicate.
+	 * @param estimate
+	 *            the estimated search space.
+	 * @param limit
+	 *            the limit for the search.
+	 */
+	public void searchGuarded(String node, String predicate, long estimate, long limit) {
+	}
+
+	/**
+	 * A chooser considered a continuation (only reported by choosers that score them, such as
+	 * <tt>SimpleFocusChooser</tt>).
+	 * 
+	 * @param position
+	 *            the position of the continuation in the confusion set.
+	 * @param potentialFoci
+	 *            its potential focus list.
+	 * @param score
+	 *            its score, higher is better.
+	 */
+	public void continuationScored(int position, List<Frame> potentialFoci, double score) {
+	}
+
+	/**
+	 * The chooser decided which node of the confusion set to follow.
+	 * 
+	 * @param position
+	 *            the position of the node in the confusion set.
+	 * @param node
+	 *            the name of the node.
+	 * @param focus
+	 *            the new current focus.
+	 * @param potentialFoci
+	 *            the new potential focus list.
+	 */
+	public void decision(int position, String node, Frame focus, List<Frame> potentialFoci) {
+	}
+
+	/**
+	 * A clause was added to the document plan (after any boundaries preceding it).
+	 * 
+	 * @param clause
+	 *            the clause, including its focus information.
+	 */
+	public void clauseAdded(Map<String, Object> clause) {
+	}
+}
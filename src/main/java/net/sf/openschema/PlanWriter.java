@@ -0,0 +1,97 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * A sink writing the clauses of a document plan as they arrive, in the same format as <tt>DocumentPlan.toString</tt>,
+ * without keeping the plan in memory. As with <tt>PrintWriter</tt>, I/O errors are not thrown but can be queried with
+ * <tt>checkError</tt>.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PlanWriter implements PlanSink {
+	/** Where to write. */
+	protected final PrintWriter out;
+	/** Number of the current paragraph. */
+	protected int paragraph;
+	/** Number of the current aggregation segment, within the paragraph. */
+	protected int aggregation;
+	/** Number of clauses in the current aggregation segment. */
+	protected int clauses;
+	/** Whether the plan was truncated. */
+	protected boolean truncated;
+
+	/** Construct a sink writing to a given writer. */
+	public PlanWriter(Writer writer) {
+		this.out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer);
+		this.paragraph = 1;
+		this.aggregation = 1;
+		this.clauses = 0;
+		this.truncated = false;
+		out.print("DocumentPlan:");
+	}
+
+	public void addClause(Map<String, Object> clause) {
+		clauses++;
+		out.print(paragraph + "." + aggregation + "." + clauses + "." + clause + "\n");
+	}
+
+	public void addAggrBoundary() {
+		if (clauses > 0) {
+			aggregation++;
+			clauses = 0;
+		}
+	}
+
+	public void addParBoundary() {
+		// same as DocumentPlan: an empty aggregation segment is dropped and empty paragraphs are not closed
+		if (clauses > 0 || aggregation > 1) {
+			paragraph++;
+			aggregation = 1;
+			clauses = 0;
+		}
+	}
+
+	public void truncate() {
+		truncated = true;
+	}
+
+	public void finish() {
+		out.flush();
+	}
+
+	/** Whether the plan was truncated (see <tt>PlanningLimits</tt>). */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/** Flush the output and check whether there has been an error writing it. */
+	public boolean checkError() {
+		return out.checkError();
+	}
+}
@@ -0,0 +1,102 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+/**
+ * Bounds on the work done by an instantiation: a deadline, a maximum number of clauses and a cancellation token. They
+ * are checked before each clause and periodically while searching for values. When one of them is reached, the
+ * instantiation stops and the plan built so far is returned, marked as truncated. This class is immutable.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PlanningLimits {
+	/** No limits. */
+	public static final PlanningLimits NONE = new PlanningLimits(Long.MAX_VALUE, Integer.MAX_VALUE, null);
+
+	/** Deadline, as returned by <tt>System.currentTimeMillis</tt>. */
+	protected final long deadline;
+	/** Maximum number of clauses. */
+	protected final int maxClauses;
+	/** Cancellation token, can be null. */
+	protected final CancellationToken token;
+
+	/**
+	 * Full constructor.
+	 * 
+	 * @param deadline
+	 *            time at which to stop, as returned by <tt>System.currentTimeMillis</tt> (<tt>Long.MAX_VALUE</tt> for
+	 *            no deadline).
+	 * @param maxClauses
+	 *            maximum number of clauses in the plan (<tt>Integer.MAX_VALUE</tt> for no limit).
+	 * @param token
+	 *            stops the instantiation when cancelled, can be null.
+	 */
+	public PlanningLimits(long deadline, int maxClauses, CancellationToken token) {
+		if (maxClauses < 0)
+			throw new IllegalArgumentException("maxClauses should not be negative: " + maxClauses);
+		this.deadline = deadline;
+		this.maxClauses = maxClauses;
+		this.token = token;
+	}
+
+	/** Limits with a deadline a given number of milliseconds from now. */
+	public static PlanningLimits timeout(long millis, int maxClauses, CancellationToken token) {
+		return new PlanningLimits(System.currentTimeMillis() + millis, maxClauses, token);
+	}
+
+	/** Deadline, as returned by <tt>System.currentTimeMillis</tt>. */
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/** Maximum number of clauses. */
+	public int getMaxClauses() {
+		return maxClauses;
+	}
+
+	/** Cancellation token, can be null. */
+	public CancellationToken getToken() {
+		return token;
+	}
+
+	/** Whether the deadline has passed or the token has been cancelled. */
+	public boolean isExpired() {
+		return (token != null && token.isCancelled()) || System.currentTimeMillis() >= deadline;
+	}
+
+	/** Stop the search if the limits have expired. */
+	void check() {
+		if (isExpired())
+			throw new Exceeded();
+	}
+
+	/** Thrown from within the search to stop the instantiation. */
+	static class Exceeded extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		Exceeded() {
+			super("Planning limits exceeded.");
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A tracer writing each event as a line of text, one event per line, prefixed by its name. As with
+ * <tt>PrintWriter</tt>, I/O errors are not thrown but can be queried with <tt>checkError</tt>.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PrintTracer extends PlanTracer {
+	/** Where to write. */
+	protected final PrintWriter out;
+
+	/** Construct a tracer writing to a given writer. */
+	public PrintTracer(Writer writer) {
+		this.out = writer instanceof PrintWriter ? (PrintWriter) writer : new PrintWriter(writer);
+	}
+
+	public void nodeVisited(String node, Frame focus) {
+		println("node " + node + " focus=" + id(focus));
+	}
+
+	public void confusionSet(String node, List<String> candidates) {
+		println("confusion-set " + node + " " + candidates);
+	}
+
+	public void valuesFound(String node, Map<String, Frame> varMapping, boolean found) {
+		StringBuilder line = new StringBuilder("values " + node + " found=" + found);
+		for (Map.Entry<String, Frame> entry : varMapping.entrySet())
+			line.append(' ').append(entry.getKey()).append('=').append(id(entry.getValue()));
+		println(line.toString());
+	}
+
+	public void valuesCached(String node) {
+		println("cached " + node);
+	}
+
+	public void searchGuarded(String node, String predicate, long estimate, long limit) {
+		println("guarded " + node + " predicate=" + predicate + " estimate=" + estimate + " limit=" + limit);
+	}
+
+	public void continuationScored(int position, List<Frame> potentialFoci, double score) {
+		println("continuation " + position + " score=" + score + " pfl=" + ids(potentialFoci));
+	}
+
+	public void decision(int position, String node, Frame focus, List<Frame> potentialFoci) {
+		println("decision " + position + " " + node + " focus=" + id(focus) + " pfl=" + ids(potentialFoci));
+	}
+
+	public void clauseAdded(Map<String, Object> clause) {
+		println("clause " + clause);
+	}
+
+	/** Whether an I/O error happened while writing. */
+	public boolean checkError() {
+		return out.checkError();
+	}
+
+	/** Write a line and flush it, so the trace is complete even if the instantiation fails. */
+	protected void println(String line) {
+		out.println(line);
+		out.flush();
+	}
+
+	/** The ID of a frame, or "null". */
+	protected static String id(Frame frame) {
+		return frame == null ? "null" : frame.getID();
+	}
+
+	/** The IDs of some frames. */
+	protected static String ids(List<Frame> frames) {
+		StringBuilder result = new StringBuilder("[");
+		for (Frame frame : frames) {
+			if (result.length() > 1)
+				result.append(", ");
+			result.append(id(frame));
+		}
+		return result.append(']').toString();
+	}
+}
@@ -21,9 +21,9 @@
 
 package net.sf.openschema;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,40 +33,193 @@ import java.util.Set;
  * own in the future. However, lot of changes are foreseen here in the immediate future so it's easy to keep them in the
  * current format. Properties are a strings in the openschema xml definition file (OpenSchema.xsd). The class
  * <tt>Property</tt> is abstract and contains a <tt>parse</tt> static method that will translate the string into a tree
- * of Property subclasses, defined with package access rights only.
+ * of Property subclasses, defined with package access rights only. Properties are immutable.
  * 
  * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
  */
 
 public abstract class Property {
 	/**
-	 * Variables this property restricts. Should be used later on to implement optimizations in the CSP code in
-	 * OpenSchema.
+	 * Variables this property restricts. Used by the CSP code in OpenSchema (<tt>BacktrackingSolver</tt>) to decide
+	 * when the property can be checked.
 	 */
 	public abstract Set<String> variables();
 
+	/**
+	 * Frame attributes this property reads (the paths of its variable references). Used to decide whether the property
+	 * can be affected by a change in the data (see <tt>FrameSetDelta</tt>).
+	 */
+	public abstract Set<String> attributes();
+
 	/**
 	 * Check whether a map of variables to values verifies or not this property. The ontology is employed for
 	 * ontological properties, such as "object-1 UNDER c-entity".
 	 */
 	public abstract boolean check(Map<Object, Frame> vars, Ontology ontology);
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	protected Set<Frame> resolveAll(VarRef varRef, Frame frame) {
-		Set<Frame> result = new HashSet<Frame>(Collections.singleton(frame));
-		if (varRef instanceof PathRef) {
-			String[] path = ((PathRef) varRef).getPath();
-			for (int i = 0; i < path.length; i++) {
-				Iterator<Frame> r = result.iterator();
-				result = new HashSet<Frame>();
-				while (r.hasNext()) {
-					Object o = r.next();
-					if (o instanceof Frame)
-						result.addAll(((List) ((Frame) o).get(path[i])));
+	/**
+	 * A property compiled against the positions of its variables in an array of values, checked without allocating. Used
+	 * in the inner loop of the CSP code (<tt>BacktrackingSolver</tt>).
+	 */
+	protected abstract static class Evaluator {
+		/** Check whether the values verify the property. Unbound variables are null. */
+		protected abstract boolean check(Frame[] values, Ontology ontology);
+	}
+
+	/**
+	 * Compile this property for a given placement of the variables.
+	 * 
+	 * @param slots
+	 *            mapping from variable to its position in the array of values. Variables not in the mapping are seen as
+	 *            unbound.
+	 */
+	protected abstract Evaluator compile(Map<Object, Integer> slots);
+
+	/**
+	 * The two sides of an equality ('=='), used to narrow the domains of its variables before searching (see
+	 * <tt>OpenSchemaPlanner.joinDomains</tt>); null for other properties.
+	 */
+	protected Object[] getEqualitySides() {
+		return null;
+	}
+
+	/** For negations ('!=' and '!UNDER'), the property negated; null for other properties. */
+	protected Property getNegated() {
+		return null;
+	}
+
+	/** For ontological properties ('UNDER'), the side checked against the concept; null for other properties. */
+	protected Object getUnderSide() {
+		return null;
+	}
+
+	/** For ontological properties ('UNDER'), the concept; null for other properties. */
+	protected String getConcept() {
+		return null;
+	}
+
+	/** Path of no steps, for variables and ground strings. */
+	protected static final String[] NO_PATH = new String[0];
+
+	/** The path followed by one side of a property, pre-resolved at construction. */
+	protected static String[] pathOf(Object side) {
+		return side instanceof PathRef ? ((PathRef) side).getPath() : NO_PATH;
+	}
+
+	/** The ground value of one side of a property, null for variable references. */
+	protected static Object constantOf(Object side) {
+		return side instanceof VarRef ? null : side;
+	}
+
+	/** The position of the variable in one side of a property, -1 if it is ground or not in the slots. */
+	protected static int slotOf(Object side, Map<Object, Integer> slots) {
+		if (!(side instanceof VarRef))
+			return -1;
+		Integer slot = slots.get(((VarRef) side).getRef());
+		return slot == null ? -1 : slot.intValue();
+	}
+
+	/** The value of one side of a property under a map of variables to values. */
+	protected static Object valueOf(Object side, Map<Object, Frame> vars) {
+		return side instanceof VarRef ? vars.get(((VarRef) side).getRef()) : side;
+	}
+
+	/**
+	 * Whether following a path from a value reaches a target value. Only frames are followed, the same as collecting all
+	 * the values at the end of the path and looking for the target among them, but returning on the first match.
+	 */
+	protected static boolean reaches(Object value, String[] path, int step, Object target) {
+		if (step == path.length)
+			return target == null ? value == null : target.equals(value);
+		if (!(value instanceof Frame))
+			return false;
+		List<Object> next = ((Frame) value).get(path[step]);
+		for (int i = 0; i < next.size(); i++) // no iterator, frame values are random access lists
+			if (reaches(next.get(i), path, step + 1, target))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Number of pairs of values at the first step of two paths above which <tt>intersects</tt> hashes the values of
+	 * one of the paths instead of walking the other path once for each of them.
+	 */
+	protected static final int HASH_PAIRS = 64;
+
+	/**
+	 * Whether the values at the end of two paths have any value in common. Without allocating, unless both paths have
+	 * many values (see <tt>HASH_PAIRS</tt>).
+	 */
+	protected static boolean intersects(Object left, String[] leftPath, int step, Object right, String[] rightPath) {
+		if (step == 0 && leftPath.length > 0 && rightPath.length > 0 && left instanceof Frame
+				&& right instanceof Frame) {
+			int leftCount = ((Frame) left).get(leftPath[0]).size();
+			int rightCount = ((Frame) right).get(rightPath[0]).size();
+			if (leftCount > 1 && rightCount > 1 && leftCount * rightCount > HASH_PAIRS) {
+				// hash the side with fewer values at the first step, walk the other
+				Set<Object> hashed = new HashSet<Object>();
+				if (leftCount <= rightCount) {
+					collect(left, leftPath, 0, hashed);
+					return reachesAny(right, rightPath, 0, hashed);
 				}
+				collect(right, rightPath, 0, hashed);
+				return reachesAny(left, leftPath, 0, hashed);
 			}
 		}
-		return result;
+		if (step == leftPath.length)
+			return reaches(right, rightPath, 0, left);
+		if (!(left instanceof Frame))
+			return false;
+		List<Object> next = ((Frame) left).get(leftPath[step]);
+		for (int i = 0; i < next.size(); i++)
+			if (intersects(next.get(i), leftPath, step + 1, right, rightPath))
+				return true;
+		return false;
+	}
+
+	/** Add the values at the end of a path to a set. */
+	protected static void collect(Object value, String[] path, int step, Set<Object> result) {
+		if (step == path.length) {
+			result.add(value);
+			return;
+		}
+		if (!(value instanceof Frame))
+			return;
+		List<Object> next = ((Frame) value).get(path[step]);
+		for (int i = 0; i < next.size(); i++)
+			collect(next.get(i), path, step + 1, result);
+	}
+
+	/** Whether following a path from a value reaches any of the target values. */
+	protected static boolean reachesAny(Object value, String[] path, int step, Set<Object> targets) {
+		if (step == path.length)
+			return targets.contains(value);
+		if (!(value instanceof Frame))
+			return false;
+		List<Object> next = ((Frame) value).get(path[step]);
+		for (int i = 0; i < next.size(); i++)
+			if (reachesAny(next.get(i), path, step + 1, targets))
+				return true;
+		return false;
+	}
+
+	/** Whether any of the values at the end of a path is a frame of a type under a concept. */
+	protected static boolean reachesUnder(Object value, String[] path, int step, String concept, Ontology ontology) {
+		if (!(value instanceof Frame))
+			return false;
+		if (step == path.length)
+			return ontology.isA(((Frame) value).getType(), concept);
+		List<Object> next = ((Frame) value).get(path[step]);
+		for (int i = 0; i < next.size(); i++)
+			if (reachesUnder(next.get(i), path, step + 1, concept, ontology))
+				return true;
+		return false;
+	}
+
+	/** Add the attributes in the path of a variable reference, if any, to a set. */
+	protected static void addAttributes(Object side, Set<String> attributes) {
+		if (side instanceof PathRef)
+			attributes.addAll(Arrays.asList(((PathRef) side).getPath()));
 	}
 
 	/**
@@ -116,7 +269,7 @@ public abstract class Property {
 
 /** Not property. Employed to implement '!=' and '!UNDER'. */
 class NotProperty extends Property {
-	protected Property other;
+	protected final Property other;
 
 	protected NotProperty(Property other) {
 		this.other = other;
@@ -126,10 +279,27 @@ class NotProperty extends Property {
 		return other.variables();
 	}
 
+	public Set<String> attributes() {
+		return other.attributes();
+	}
+
 	public boolean check(Map<Object, Frame> vars, Ontology ontology) {
 		return !other.check(vars, ontology);
 	}
 
+	protected Evaluator compile(Map<Object, Integer> slots) {
+		final Evaluator evaluator = other.compile(slots);
+		return new Evaluator() {
+			protected boolean check(Frame[] values, Ontology ontology) {
+				return !evaluator.check(values, ontology);
+			}
+		};
+	}
+
+	protected Property getNegated() {
+		return other;
+	}
+
 	public String toString() {
 		return "!(" + other.toString() + ")";
 	}
@@ -137,12 +307,22 @@ class NotProperty extends Property {
 
 /** Equals property. Implements '=='. */
 class EqualProperty extends Property {
-	protected Object leftSide;
-	protected Object rightSide;
+	protected final Object leftSide;
+	protected final Object rightSide;
+	protected final String[] leftPath;
+	protected final String[] rightPath;
+	protected final Object leftConstant;
+	protected final Object rightConstant;
+	protected final Object[] sides;
 
 	protected EqualProperty(Object leftSide, Object rightSide) {
 		this.leftSide = leftSide;
 		this.rightSide = rightSide;
+		this.sides = new Object[] { leftSide, rightSide };
+		this.leftPath = pathOf(leftSide);
+		this.rightPath = pathOf(rightSide);
+		this.leftConstant = constantOf(leftSide);
+		this.rightConstant = constantOf(rightSide);
 	}
 
 	public Set<String> variables() {
@@ -154,16 +334,30 @@ class EqualProperty extends Property {
 		return result;
 	}
 
+	public Set<String> attributes() {
+		Set<String> result = new HashSet<String>();
+		addAttributes(leftSide, result);
+		addAttributes(rightSide, result);
+		return result;
+	}
+
 	public boolean check(Map<Object, Frame> vars, Ontology ontology) {
-		Set<?> leftSideValues = leftSide instanceof VarRef ? resolveAll((VarRef) leftSide,
-				vars.get(((VarRef) leftSide).getRef())) : Collections.singleton(leftSide);
-		Set<?> rightSideValues = rightSide instanceof VarRef ? resolveAll((VarRef) rightSide,
-				vars.get(((VarRef) rightSide).getRef())) : Collections.singleton(rightSide);
+		return intersects(valueOf(leftSide, vars), leftPath, 0, valueOf(rightSide, vars), rightPath);
+	}
 
-		// copy because Collections.singleton is immutable
-		Set<?> oneSide = new HashSet<Object>(leftSideValues);
-		oneSide.retainAll(rightSideValues);
-		return !oneSide.isEmpty();
+	protected Evaluator compile(Map<Object, Integer> slots) {
+		final int left = slotOf(leftSide, slots);
+		final int right = slotOf(rightSide, slots);
+		return new Evaluator() {
+			protected boolean check(Frame[] values, Ontology ontology) {
+				return intersects(left == -1 ? leftConstant : values[left], leftPath, 0, right == -1 ? rightConstant
+						: values[right], rightPath);
+			}
+		};
+	}
+
+	protected Object[] getEqualitySides() {
+		return sides;
 	}
 
 	public String toString() {
@@ -173,12 +367,16 @@ class EqualProperty extends Property {
 
 /** Under property (ontological property). Implements 'UNDER'. */
 class UnderProperty extends Property {
-	protected Object leftSide;
-	protected String concept;
+	protected final Object leftSide;
+	protected final String concept;
+	protected final String[] leftPath;
+	protected final Object leftConstant;
 
 	protected UnderProperty(Object leftSide, String concept) {
 		this.leftSide = leftSide;
 		this.concept = concept;
+		this.leftPath = pathOf(leftSide);
+		this.leftConstant = constantOf(leftSide);
 	}
 
 	@SuppressWarnings("unchecked")
@@ -188,13 +386,31 @@ class UnderProperty extends Property {
 		return Collections.EMPTY_SET;
 	}
 
+	public Set<String> attributes() {
+		Set<String> result = new HashSet<String>();
+		addAttributes(leftSide, result);
+		return result;
+	}
+
 	public boolean check(Map<Object, Frame> vars, Ontology ontology) {
-		Set<?> leftSideValues = leftSide instanceof VarRef ? resolveAll((VarRef) leftSide,
-				vars.get(((VarRef) leftSide).getRef())) : Collections.singleton(leftSide);
-		for (Object leftSideValue : leftSideValues)
-			if (leftSideValue instanceof Frame && ontology.isA(((Frame) leftSideValue).getType(), concept))
-				return true;
-		return false;
+		return reachesUnder(valueOf(leftSide, vars), leftPath, 0, concept, ontology);
+	}
+
+	protected Evaluator compile(Map<Object, Integer> slots) {
+		final int left = slotOf(leftSide, slots);
+		return new Evaluator() {
+			protected boolean check(Frame[] values, Ontology ontology) {
+				return reachesUnder(left == -1 ? leftConstant : values[left], leftPath, 0, concept, ontology);
+			}
+		};
+	}
+
+	protected Object getUnderSide() {
+		return leftSide;
+	}
+
+	protected String getConcept() {
+		return concept;
 	}
 
 	public String toString() {
@@ -0,0 +1,154 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pass rate and cost of each property, as observed by the <tt>BacktrackingSolver</tt>. They are used to check the
+ * cheapest and most selective properties first, which does not change the assignments found, only how fast a failing
+ * assignment is discarded. A planner keeps the statistics for its own schema, over all its instantiations; once a
+ * property has been checked <tt>WINDOW</tt> times its counts are halved, so the order follows changes in the frames the
+ * planner is used with. This class is thread-safe.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class PropertyStatistics {
+	/** Number of checks after which the counts of a property are halved. */
+	public static final long WINDOW = 1 << 20;
+
+	/** Counts, by property. */
+	protected final Map<Property, Counts> counts = new ConcurrentHashMap<Property, Counts>();
+
+	/** Counts for one property. */
+	protected static class Counts {
+		long checks;
+		long passes;
+		long samples;
+		long nanos;
+	}
+
+	/**
+	 * Add the results of checking a property.
+	 * 
+	 * @param property
+	 *            the property.
+	 * @param checks
+	 *            number of times it was checked.
+	 * @param passes
+	 *            number of times it was satisfied.
+	 * @param samples
+	 *            number of checks that were timed.
+	 * @param nanos
+	 *            total time of the timed checks, in nanoseconds.
+	 */
+	public void record(Property property, long checks, long passes, long samples, long nanos) {
+		if (checks == 0)
+			return;
+		Counts c = counts.get(property);
+		if (c == null) {
+			synchronized (counts) {
+				c = counts.get(property);
+				if (c == null) {
+					c = new Counts();
+					counts.put(property, c);
+				}
+			}
+		}
+		synchronized (c) {
+			c.checks += checks;
+			c.passes += passes;
+			c.samples += samples;
+			c.nanos += nanos;
+			if (c.checks >= WINDOW) {
+				c.checks /= 2;
+				c.passes /= 2;
+				c.samples /= 2;
+				c.nanos /= 2;
+			}
+		}
+	}
+
+	/** Number of times a property has been checked (within the window). */
+	public long getChecks(Property property) {
+		Counts c = counts.get(property);
+		if (c == null)
+			return 0;
+		synchronized (c) {
+			return c.checks;
+		}
+	}
+
+	/** Fraction of the checks of a property that were satisfied, 1 if it has not been checked. */
+	public double getPassRate(Property property) {
+		Counts c = counts.get(property);
+		if (c == null)
+			return 1.0;
+		synchronized (c) {
+			return c.checks == 0 ? 1.0 : (double) c.passes / c.checks;
+		}
+	}
+
+	/** Average time of a check of a property, in nanoseconds (0 if it has not been timed). */
+	public double getAverageCost(Property property) {
+		Counts c = counts.get(property);
+		if (c == null)
+			return 0.0;
+		synchronized (c) {
+			return c.samples == 0 ? 0.0 : (double) c.nanos / c.samples;
+		}
+	}
+
+	/**
+	 * Rank of a property: the expected cost of checking it per assignment discarded. Properties are checked by
+	 * increasing rank. Properties not checked yet rank first, so they get measured.
+	 */
+	public double getRank(Property property) {
+		if (getChecks(property) == 0)
+			return 0.0;
+		double failRate = 1.0 - getPassRate(property);
+		return Math.max(getAverageCost(property), 1.0) / Math.max(failRate, 1.0 / WINDOW);
+	}
+
+	/** Properties checked so far. */
+	public List<Property> getProperties() {
+		return new ArrayList<Property>(counts.keySet());
+	}
+
+	/** Forget all the statistics. */
+	public void reset() {
+		counts.clear();
+	}
+
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Property property : getProperties())
+			result.append(property).append(": checks=").append(getChecks(property)).append(" passRate=")
+					.append(getPassRate(property)).append(" cost=").append(getAverageCost(property)).append("ns rank=")
+					.append(getRank(property)).append('\n');
+		return result.toString();
+	}
+}
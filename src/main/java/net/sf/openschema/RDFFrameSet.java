@@ -39,9 +39,11 @@ import com.hp.hpl.jena.rdf.model.StmtIterator;
  * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
  */
 
-public class RDFFrameSet implements FrameSet {
+public class RDFFrameSet implements OrdinalFrameSet {
 	/** The frames themselves, map from frame name to <tt>MapFrame</tt>. */
 	protected Map<String, Frame> frames;
+	/** Ordinals of the frames, computed when first requested (and again if frames are added). */
+	protected volatile FrameOrdinals ordinals;
 
 	/** Construct a FrameSet from an existing RDF model. */
 	public RDFFrameSet(Model model) {
@@ -106,4 +108,14 @@ public class RDFFrameSet implements FrameSet {
 	public Frame getFrame(String id) {
 		return frames.get(id);
 	}
+
+	/** Dense ordinals for the frames, in the order of <tt>getFrames</tt>. */
+	public FrameOrdinals getOrdinals() {
+		FrameOrdinals result = ordinals;
+		if (result == null || result.size() != frames.size()) {
+			result = new FrameOrdinals(frames.values());
+			ordinals = result;
+		}
+		return result;
+	}
 }
@@ -21,6 +21,7 @@
 
 package net.sf.openschema;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -139,13 +140,14 @@ public class RDFOntology implements Ontology {
 			if (!intersection.isEmpty())
 				return current;
 			current += 0.1;
+			// go up one level, iterating over a copy as the sets grow
 			int size1 = parents1.size();
-			for (String concept : parents1)
+			for (String concept : new ArrayList<String>(parents1))
 				if (parentsOf.containsKey(concept))
 					parents1.addAll(parentsOf.get(concept));
 
 			int size2 = parents2.size();
-			for (String concept : parents2)
+			for (String concept : new ArrayList<String>(parents2))
 				if (parentsOf.containsKey(concept))
 					parents2.addAll(parentsOf.get(concept));
 
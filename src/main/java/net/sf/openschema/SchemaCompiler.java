@@ -0,0 +1,373 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.xml.bind.JAXBException;
+
+import net.sf.openschema.util.SchemaToXmlFilterStream;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Generates the Java source of an <tt>OpenSchemaPlanner</tt> subclass with a given schema built in. The generated
+ * class defines the predicates and the compiled node network (the frontier of each node) directly, so creating it does
+ * not need JAXB, the schema file nor parsing the properties: each property is a <tt>CompiledProperty</tt> subclass
+ * checking it with the paths unrolled into loops. Instances behave exactly as a planner constructed from the schema
+ * file.
+ * <p>
+ * Usage: <tt>SchemaCompiler schema-file fully.qualified.ClassName &gt; ClassName.java</tt>, where the schema file is
+ * either in XML or, if its name ends in ".schema", in the schema language (see <tt>SchemaToXmlFilterStream</tt>).
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class SchemaCompiler {
+	/** Names of the node type constants, by value. */
+	protected static final String[] NODE_TYPES = { "EMPTY_NODE", "PREDICATE_NODE", "AGGRBOUNDARY_NODE",
+			"PARBOUNDARY_NODE" };
+
+	/**
+	 * Generate the source of a planner class.
+	 * 
+	 * @param source
+	 *            the schema, in XML.
+	 * @param className
+	 *            the fully qualified name of the class to generate.
+	 * @param out
+	 *            where to write the source.
+	 */
+	public static void compile(InputSource source, String className, Writer out) throws JAXBException {
+		OpenSchema schema = OpenSchemaPlanner.parse(source);
+		OpenSchemaPlanner planner = new OpenSchemaPlanner(schema, null);
+		Collection<OpenSchemaPlanner.Predicate> predicates = new TreeMap<String, OpenSchemaPlanner.Predicate>(
+				planner.predicates).values();
+
+		PrintWriter pw = new PrintWriter(out);
+		int dot = className.lastIndexOf('.');
+		String simpleName = className.substring(dot + 1);
+		pw.println("// Generated by " + SchemaCompiler.class.getName() + ", do not edit.");
+		if (dot != -1) {
+			pw.println();
+			pw.println("package " + className.substring(0, dot) + ";");
+		}
+		pw.println();
+		pw.println("import java.util.List;");
+		pw.println("import java.util.Map;");
+		pw.println();
+		pw.println("import net.sf.openschema.CompiledProperty;");
+		pw.println("import net.sf.openschema.Frame;");
+		pw.println("import net.sf.openschema.LocalChooser;");
+		pw.println("import net.sf.openschema.Ontology;");
+		pw.println("import net.sf.openschema.OpenSchemaPlanner;");
+		pw.println("import net.sf.openschema.Property;");
+		pw.println();
+		pw.println("public class " + simpleName + " extends OpenSchemaPlanner {");
+		pw.println("\tpublic " + simpleName + "(LocalChooser chooser) {");
+		pw.println("\t\tsuper(chooser);");
+		pw.println("\t\tdefinePredicates();");
+		pw.println("\t\tdefineNodes();");
+		pw.println("\t\tcompileSchema();");
+		pw.println("\t}");
+
+		// predicates, sorted by ID
+		pw.println();
+		pw.println("\tprotected void definePredicates() {");
+		int count = 0;
+		for (OpenSchemaPlanner.Predicate predicate : predicates) {
+			List<String> varsAndTypes = new ArrayList<String>();
+			for (Map.Entry<String, String> var : new TreeMap<String, String>(predicate.getVars()).entrySet()) {
+				varsAndTypes.add(var.getKey());
+				varsAndTypes.add(var.getValue());
+			}
+			StringBuilder checks = new StringBuilder("new Property[] {");
+			for (int i = 0; i < predicate.getProperties().size(); i++)
+				checks.append(i == 0 ? " " : ", ").append("new Check").append(count++).append("()");
+			checks.append(predicate.getProperties().isEmpty() ? "}" : " }");
+			pw.println("\t\tdefinePredicate(" + quote(predicate.getID()) + ", " + quote(predicate.getDefaultFocus())
+					+ ", " + array(varsAndTypes) + ", " + array(new TreeSet<String>(predicate.requiredVars)) + ", "
+					+ checks + ",");
+			pw.println("\t\t\t\t" + fd(predicate.getOutput(), "\t\t\t\t") + ");");
+		}
+		pw.println("\t}");
+
+		// nodes of the compiled network (the top and the predicate nodes), in breadth-first order from the top
+		List<OpenSchemaPlanner.Node> nodes = new ArrayList<OpenSchemaPlanner.Node>();
+		Map<OpenSchemaPlanner.Node, Integer> numbers = new HashMap<OpenSchemaPlanner.Node, Integer>();
+		nodes.add(planner.top);
+		numbers.put(planner.top, new Integer(0));
+		for (int i = 0; i < nodes.size(); i++)
+			for (OpenSchemaPlanner.Node next : nodes.get(i).getOutgoing())
+				if (!numbers.containsKey(next)) {
+					numbers.put(next, new Integer(nodes.size()));
+					nodes.add(next);
+				}
+		pw.println();
+		pw.println("\tprotected void defineNodes() {");
+		pw.println("\t\tNode[] n = new Node[" + nodes.size() + "];");
+		pw.println("\t\tn[0] = top;");
+		for (int i = 1; i < nodes.size(); i++) {
+			OpenSchemaPlanner.Node node = nodes.get(i);
+			String predicate = "null";
+			String vars = "null";
+			if (node.getPredicate() != null) {
+				predicate = quote(node.getPredicate().getID());
+				List<String> localAndGlobal = new ArrayList<String>();
+				for (Map.Entry<String, String> var : new TreeMap<String, String>(node.getVars()).entrySet()) {
+					localAndGlobal.add(var.getKey());
+					localAndGlobal.add(var.getValue());
+				}
+				vars = array(localAndGlobal);
+			}
+			pw.println("\t\tn[" + i + "] = defineNode(" + NODE_TYPES[node.getType()] + ", " + quote(node.name) + ", "
+					+ predicate + ", " + vars + ");");
+		}
+		for (int i = 0; i < nodes.size(); i++) {
+			StringBuilder frontier = new StringBuilder();
+			for (OpenSchemaPlanner.DecoratedNode next : nodes.get(i).getFrontier())
+				frontier.append(", new DecoratedNode(n[").append(numbers.get(next.getNode())).append("], ")
+						.append(next.isAggrBoundary()).append(", ").append(next.isParBoundary()).append(")");
+			pw.println("\t\tdefineFrontier(n[" + i + "]" + frontier + ");");
+		}
+		pw.println("\t}");
+
+		// properties, in the order they are used in definePredicates
+		count = 0;
+		for (OpenSchemaPlanner.Predicate predicate : predicates)
+			for (Property property : predicate.getProperties())
+				check(pw, "Check" + count++, property);
+		pw.println("}");
+		pw.flush();
+	}
+
+	/**
+	 * Java source for a <tt>CompiledProperty</tt> subclass checking a property.
+	 * 
+	 * @param pw
+	 *            where to write the source.
+	 * @param name
+	 *            the name of the class.
+	 * @param property
+	 *            the property, as parsed from the schema.
+	 */
+	protected static void check(PrintWriter pw, String name, Property property) {
+		boolean negated = property.getNegated() != null;
+		Property positive = negated ? property.getNegated() : property;
+		List<String> vars = new ArrayList<String>(new TreeSet<String>(property.variables()));
+		StringBuilder params = new StringBuilder();
+		StringBuilder mapValues = new StringBuilder();
+		StringBuilder slotValues = new StringBuilder();
+		for (int i = 0; i < vars.size(); i++) {
+			params.append("Object v").append(i).append(", ");
+			mapValues.append("vars.get(").append(quote(vars.get(i))).append("), ");
+			slotValues.append("value(values, s").append(i).append("), ");
+		}
+		String sides = "";
+		Object[] equality = positive.getEqualitySides();
+		if (equality != null && !negated)
+			sides = ", " + side(equality[0]) + ", " + side(equality[1]);
+
+		pw.println();
+		pw.println("\t/** " + property.toString().replace("*/", "*\\/") + " */");
+		pw.println("\tprotected static class " + name + " extends CompiledProperty {");
+		pw.println("\t\t" + name + "() {");
+		pw.println("\t\t\tsuper(" + quote(property.toString()) + ", " + array(vars) + ", "
+				+ array(new TreeSet<String>(property.attributes())) + sides + ");");
+		pw.println("\t\t}");
+		pw.println();
+		pw.println("\t\tpublic boolean check(Map<Object, Frame> vars, Ontology ontology) {");
+		pw.println("\t\t\treturn " + (negated ? "!" : "") + "holds(" + mapValues + "ontology);");
+		pw.println("\t\t}");
+		pw.println();
+		pw.println("\t\tprotected Evaluator compile(Map<Object, Integer> slots) {");
+		for (int i = 0; i < vars.size(); i++)
+			pw.println("\t\t\tfinal int s" + i + " = slot(slots, " + quote(vars.get(i)) + ");");
+		pw.println("\t\t\treturn new Evaluator() {");
+		pw.println("\t\t\t\tprotected boolean check(Frame[] values, Ontology ontology) {");
+		pw.println("\t\t\t\t\treturn " + (negated ? "!" : "") + "holds(" + slotValues + "ontology);");
+		pw.println("\t\t\t\t}");
+		pw.println("\t\t\t};");
+		pw.println("\t\t}");
+		pw.println();
+		pw.println("\t\tstatic boolean holds(" + params + "Ontology ontology) {");
+		String indent = "\t\t\t";
+		if (equality != null) {
+			String[] leftPath = Property.pathOf(equality[0]);
+			String[] rightPath = Property.pathOf(equality[1]);
+			String left = walk(pw, indent, start(equality[0], vars), leftPath, "l");
+			String leftIndent = indent + repeat('\t', leftPath.length);
+			String right = walk(pw, leftIndent, start(equality[1], vars), rightPath, "r");
+			String rightIndent = leftIndent + repeat('\t', rightPath.length);
+			pw.println(rightIndent + "if (same(" + left + ", " + right + "))");
+			pw.println(rightIndent + "\treturn true;");
+			close(pw, indent, leftPath.length + rightPath.length);
+		} else {
+			String[] leftPath = Property.pathOf(positive.getUnderSide());
+			String left = walk(pw, indent, start(positive.getUnderSide(), vars), leftPath, "l");
+			String leftIndent = indent + repeat('\t', leftPath.length);
+			pw.println(leftIndent + "if (isA(" + left + ", " + quote(positive.getConcept()) + ", ontology))");
+			pw.println(leftIndent + "\treturn true;");
+			close(pw, indent, leftPath.length);
+		}
+		pw.println(indent + "return false;");
+		pw.println("\t\t}");
+		pw.println("\t}");
+	}
+
+	/**
+	 * Write the loops following a path from a value, one per step, leaving them open.
+	 * 
+	 * @param prefix
+	 *            prefix of the local variables.
+	 * @return the expression for each value at the end of the path.
+	 */
+	protected static String walk(PrintWriter pw, String indent, String start, String[] path, String prefix) {
+		String value = start;
+		for (int step = 0; step < path.length; step++) {
+			String list = prefix + (step + 1);
+			String index = prefix + "i" + (step + 1);
+			pw.println(indent + "List<Object> " + list + " = follow(" + value + ", " + quote(path[step]) + ");");
+			pw.println(indent + "for (int " + index + " = 0; " + index + " < " + list + ".size(); " + index + "++) {");
+			value = prefix + "v" + (step + 1);
+			indent += "\t";
+			pw.println(indent + "Object " + value + " = " + list + ".get(" + index + ");");
+		}
+		return value;
+	}
+
+	/** Close the loops opened by <tt>walk</tt>. */
+	protected static void close(PrintWriter pw, String indent, int loops) {
+		for (int i = loops - 1; i >= 0; i--)
+			pw.println(indent + repeat('\t', i) + "}");
+	}
+
+	/** Java source for the value one side of a property starts from: a parameter or a ground string. */
+	protected static String start(Object side, List<String> vars) {
+		return side instanceof VarRef ? "v" + vars.indexOf(((VarRef) side).getRef()) : quote((String) side);
+	}
+
+	/** Java source for one side of an equality, using <tt>OpenSchemaPlanner.ref</tt> for references. */
+	protected static String side(Object side) {
+		return side instanceof VarRef ? "ref(" + quote(reference((VarRef) side)) + ")" : quote((String) side);
+	}
+
+	/** A string of a character repeated. */
+	protected static String repeat(char c, int count) {
+		char[] chars = new char[count];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	/** Java source for an FD, using <tt>OpenSchemaPlanner.fd</tt> and <tt>OpenSchemaPlanner.ref</tt>. */
+	@SuppressWarnings("unchecked")
+	protected static String fd(Map<String, Object> fd, String indent) {
+		StringBuilder result = new StringBuilder("fd(");
+		boolean first = true;
+		// same order as the original, as it determines the order of the potential foci
+		for (Map.Entry<String, Object> entry : fd.entrySet()) {
+			result.append(first ? "" : ",").append("\n").append(indent).append("\t");
+			first = false;
+			result.append(quote(entry.getKey())).append(", ");
+			Object value = entry.getValue();
+			if (value instanceof Map)
+				result.append(fd((Map<String, Object>) value, indent + "\t"));
+			else if (value instanceof VarRef)
+				result.append("ref(").append(quote(reference((VarRef) value))).append(")");
+			else
+				result.append(quote((String) value));
+		}
+		return result.append(")").toString();
+	}
+
+	/** A reference to a variable or a path, as taken by <tt>OpenSchemaPlanner.ref</tt>. */
+	protected static String reference(VarRef ref) {
+		StringBuilder result = new StringBuilder(ref.getRef());
+		if (ref instanceof PathRef)
+			for (String step : ((PathRef) ref).getPath())
+				result.append('.').append(step);
+		return result.toString();
+	}
+
+	/** Java source for an array of strings. */
+	protected static String array(Iterable<String> strings) {
+		StringBuilder result = new StringBuilder("new String[] {");
+		boolean first = true;
+		for (String s : strings) {
+			result.append(first ? " " : ", ").append(quote(s));
+			first = false;
+		}
+		return result.append(first ? "}" : " }").toString();
+	}
+
+	/** Java source for a string literal (or null). */
+	protected static String quote(String s) {
+		if (s == null)
+			return "null";
+		StringBuilder result = new StringBuilder("\"");
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\')
+				result.append('\\').append(c);
+			else if (c == '\n')
+				result.append("\\n");
+			else if (c == '\r')
+				result.append("\\r");
+			else if (c == '\t')
+				result.append("\\t");
+			else if (c < 32 || c > 126)
+				result.append(String.format("\\u%04x", new Integer(c)));
+			else
+				result.append(c);
+		}
+		return result.append('"').toString();
+	}
+
+	/** Main: receives the schema file and the name of the class, writes the source to standard output. */
+	public static void main(String[] args) throws IOException, JAXBException {
+		if (args.length != 2) {
+			System.err.println("Usage: SchemaCompiler schema-file fully.qualified.ClassName");
+			System.exit(1);
+		}
+		InputStream is = new FileInputStream(args[0]);
+		if (args[0].endsWith(".schema"))
+			is = new SchemaToXmlFilterStream(is);
+		Writer out = new PrintWriter(System.out);
+		compile(new InputSource(new InputStreamReader(is)), args[1], out);
+		out.flush();
+		is.close();
+	}
+}
@@ -0,0 +1,105 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The reports of many instantiations (<tt>PlanReport</tt>) added up, node by node, to see where a schema spends its
+ * time over a whole batch. A profile attached to a planner with <tt>OpenSchemaPlanner.setSchemaProfile</tt> receives
+ * the report of every instantiation without a tracer of its own, including those of a <tt>BatchPlanner</tt>;
+ * <tt>OpenSchemaPlanner.dump(SchemaProfile)</tt> draws it over the schema as a heatmap.
+ * <p>
+ * Profiles are safe to share among threads.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class SchemaProfile {
+	/** Number of instantiations added. */
+	protected long plans;
+	/** Number of clauses of the instantiations. */
+	protected long clauses;
+	/** Time taken by the instantiations, in nanoseconds. */
+	protected long nanos;
+	/** The nodes, added up, in the order they were first seen. */
+	protected final Map<String, PlanReport.NodeReport> nodes;
+
+	/** Construct an empty profile. */
+	public SchemaProfile() {
+		this.nodes = new LinkedHashMap<String, PlanReport.NodeReport>();
+	}
+
+	/** Add the report of an instantiation. */
+	public synchronized void add(PlanReport report) {
+		plans++;
+		clauses += report.getClauses();
+		nanos += report.getNanos();
+		for (PlanReport.NodeReport node : report.nodes.values()) {
+			PlanReport.NodeReport total = nodes.get(node.name);
+			if (total == null) {
+				total = new PlanReport.NodeReport(node.name);
+				nodes.put(node.name, total);
+			}
+			total.add(node);
+		}
+	}
+
+	/** Number of instantiations added. */
+	public synchronized long getPlans() {
+		return plans;
+	}
+
+	/** Number of clauses of the instantiations. */
+	public synchronized long getClauses() {
+		return clauses;
+	}
+
+	/** Time taken by the instantiations, in nanoseconds. */
+	public synchronized long getNanos() {
+		return nanos;
+	}
+
+	/** A copy of the totals of the nodes. */
+	public synchronized List<PlanReport.NodeReport> getNodes() {
+		List<PlanReport.NodeReport> result = new ArrayList<PlanReport.NodeReport>(nodes.size());
+		for (PlanReport.NodeReport node : nodes.values()) {
+			PlanReport.NodeReport copy = new PlanReport.NodeReport(node.name);
+			copy.add(node);
+			result.add(copy);
+		}
+		return result;
+	}
+
+	/** Forget the instantiations added so far. */
+	public synchronized void reset() {
+		plans = clauses = nanos = 0;
+		nodes.clear();
+	}
+
+	public synchronized String toString() {
+		return "SchemaProfile[plans=" + plans + " clauses=" + clauses + " nodes=" + nodes.size() + "]";
+	}
+}
@@ -0,0 +1,229 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Guardrails on the size of the searches for values. Before searching for the values of a predicate, the planner
+ * estimates its search space as the product of the sizes of the domains of its variables (the frames under the type
+ * of each unbound variable, after the path equalities have narrowed them) and compares it with a limit per predicate
+ * and with what is left of a budget for the whole plan. A search over the limit is reported to the tracer of the
+ * instantiation (<tt>PlanTracer.searchGuarded</tt>) and then, depending on the policy, the instantiation fails or the
+ * largest domains are cut down until the search fits. A guard is attached to a planner with
+ * <tt>OpenSchemaPlanner.setSearchGuard</tt>. This class is immutable.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class SearchGuard {
+	/** What to do with a search over its limit. */
+	public static enum Policy {
+		/** Throw a <tt>SearchGuard.Exceeded</tt> exception, stopping the instantiation. */
+		FAIL,
+		/** Keep a sample of the values of the largest domains, evenly spread in canonical order. */
+		SAMPLE,
+		/** Keep the first values of the largest domains, in canonical order. */
+		TRUNCATE
+	}
+
+	/** No limits. */
+	public static final SearchGuard NONE = new SearchGuard(Long.MAX_VALUE, Long.MAX_VALUE, Policy.FAIL);
+
+	/** Maximum search space of a predicate without a limit of its own. */
+	protected final long maxPredicateSpace;
+	/** Maximum search space of all the searches of a plan together. */
+	protected final long maxPlanSpace;
+	/** What to do with a search over its limit. */
+	protected final Policy policy;
+	/** Limits of specific predicates, by predicate ID. */
+	protected final Map<String, Long> predicateLimits;
+
+	/**
+	 * Full constructor.
+	 * 
+	 * @param maxPredicateSpace
+	 *            maximum search space of each predicate (<tt>Long.MAX_VALUE</tt> for no limit).
+	 * @param maxPlanSpace
+	 *            maximum search space of all the searches of a plan together (<tt>Long.MAX_VALUE</tt> for no limit).
+	 * @param policy
+	 *            what to do with a search over its limit.
+	 */
+	public SearchGuard(long maxPredicateSpace, long maxPlanSpace, Policy policy) {
+		this(maxPredicateSpace, maxPlanSpace, policy, Collections.<String, Long> emptyMap());
+	}
+
+	/** Constructor with limits for specific predicates (the map is not copied). */
+	protected SearchGuard(long maxPredicateSpace, long maxPlanSpace, Policy policy, Map<String, Long> predicateLimits) {
+		if (maxPredicateSpace < 1 || maxPlanSpace < 1)
+			throw new IllegalArgumentException("Search space limits should be positive: " + maxPredicateSpace + ", "
+					+ maxPlanSpace);
+		if (policy == null)
+			throw new IllegalArgumentException("No policy given.");
+		this.maxPredicateSpace = maxPredicateSpace;
+		this.maxPlanSpace = maxPlanSpace;
+		this.policy = policy;
+		this.predicateLimits = predicateLimits;
+	}
+
+	/**
+	 * A copy of this guard with a different limit for a given predicate.
+	 * 
+	 * @param predicate
+	 *            the ID of the predicate.
+	 * @param maxSpace
+	 *            its maximum search space.
+	 * @return the new guard.
+	 */
+	public SearchGuard withLimit(String predicate, long maxSpace) {
+		if (maxSpace < 1)
+			throw new IllegalArgumentException("Search space limits should be positive: " + maxSpace);
+		Map<String, Long> limits = new HashMap<String, Long>(predicateLimits);
+		limits.put(predicate, new Long(maxSpace));
+		return new SearchGuard(maxPredicateSpace, maxPlanSpace, policy, Collections.unmodifiableMap(limits));
+	}
+
+	/** Maximum search space of a predicate without a limit of its own. */
+	public long getMaxPredicateSpace() {
+		return maxPredicateSpace;
+	}
+
+	/** Maximum search space of all the searches of a plan together. */
+	public long getMaxPlanSpace() {
+		return maxPlanSpace;
+	}
+
+	/** What to do with a search over its limit. */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/** Maximum search space of a given predicate. */
+	public long getLimit(String predicate) {
+		Long limit = predicateLimits.get(predicate);
+		return limit == null ? maxPredicateSpace : limit.longValue();
+	}
+
+	/** The size of a search space: the product of the sizes of the domains, <tt>Long.MAX_VALUE</tt> if larger. */
+	public static long estimate(Collection<List<Frame>> domains) {
+		long result = 1;
+		for (List<Frame> domain : domains)
+			result = multiply(result, domain.size());
+		return result;
+	}
+
+	/** Multiply two sizes, saturating at <tt>Long.MAX_VALUE</tt>. */
+	protected static long multiply(long size1, long size2) {
+		if (size1 == 0 || size2 == 0)
+			return 0;
+		return size1 > Long.MAX_VALUE / size2 ? Long.MAX_VALUE : size1 * size2;
+	}
+
+	/**
+	 * Cut down the largest domains, following the policy, until the search space is within a limit or all the
+	 * domains have a single value.
+	 * 
+	 * @param allVars
+	 *            the domains of the variables, modified in place.
+	 * @param limit
+	 *            the limit.
+	 * @return the new size of the search space.
+	 */
+	long degrade(Map<Object, List<Frame>> allVars, long limit) {
+		long estimate = estimate(allVars.values());
+		while (estimate > limit) {
+			Object largest = null;
+			for (Map.Entry<Object, List<Frame>> entry : allVars.entrySet())
+				if (largest == null || entry.getValue().size() > allVars.get(largest).size())
+					largest = entry.getKey();
+			List<Frame> domain = allVars.get(largest);
+			if (domain.size() <= 1)
+				break;
+			// the rest of the domains, with at least one value each, are left as they are
+			long rest = 1;
+			for (Map.Entry<Object, List<Frame>> entry : allVars.entrySet())
+				if (entry.getKey() != largest)
+					rest = multiply(rest, entry.getValue().size());
+			int size = (int) Math.max(1, Math.min(domain.size() - 1, limit / rest));
+			allVars.put(largest, cut(domain, size));
+			estimate = estimate(allVars.values());
+		}
+		return estimate;
+	}
+
+	/** Keep some of the values of a domain, according to the policy. */
+	protected List<Frame> cut(List<Frame> domain, int size) {
+		List<Frame> sorted = new ArrayList<Frame>(domain);
+		Collections.sort(sorted, BacktrackingSolver.CANONICAL_ORDER);
+		if (policy != Policy.SAMPLE)
+			return sorted.subList(0, size);
+		List<Frame> result = new ArrayList<Frame>(size);
+		for (int i = 0; i < size; i++)
+			result.add(sorted.get((int) ((long) i * sorted.size() / size)));
+		return result;
+	}
+
+	public String toString() {
+		return "SearchGuard[" + maxPredicateSpace + "/" + maxPlanSpace + " " + policy + " " + predicateLimits + "]";
+	}
+
+	/** Thrown when a search is over its limit and the policy is <tt>FAIL</tt>. */
+	public static class Exceeded extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+
+		/** ID of the predicate. */
+		protected final String predicate;
+		/** Estimated search space. */
+		protected final long estimate;
+		/** The limit. */
+		protected final long limit;
+
+		/** Full constructor. */
+		public Exceeded(String predicate, String node, long estimate, long limit) {
+			super("Search space of predicate " + predicate + " at node " + node + " is " + estimate
+					+ ", over the limit of " + limit + ".");
+			this.predicate = predicate;
+			this.estimate = estimate;
+			this.limit = limit;
+		}
+
+		/** ID of the predicate. */
+		public String getPredicate() {
+			return predicate;
+		}
+
+		/** Estimated search space. */
+		public long getEstimate() {
+			return estimate;
+		}
+
+		/** The limit that was exceeded. */
+		public long getLimit() {
+			return limit;
+		}
+	}
+}
@@ -47,12 +47,10 @@ import java.util.Map;
  */
 
 public class SimpleFocusChooser extends LocalChooser {
-	/** Verbosity flag, defaults to off. */
-	public static boolean verbose = false;
 	/**
 	 * Ontology, employed for the potential focus lists linking decision process.
 	 */
-	protected Ontology ontology;
+	protected final Ontology ontology;
 
 	/** Constructor, receives the ontology. */
 	public SimpleFocusChooser(Ontology ontology) {
@@ -64,6 +62,14 @@ public class SimpleFocusChooser extends LocalChooser {
 	 */
 	public Decision choose(List<Map<String, Object>> fds, List<Frame> defaultFoci, Object currentFocus,
 			List<Frame> potentialFoci, List<Frame> focusStack, FrameSet frames) {
+		return choose(fds, defaultFoci, currentFocus, potentialFoci, focusStack, frames, PlanTracer.NONE);
+	}
+
+	/**
+	 * Choose the appropriate continuation, reporting the score of each candidate to a tracer.
+	 */
+	public Decision choose(List<Map<String, Object>> fds, List<Frame> defaultFoci, Object currentFocus,
+			List<Frame> potentialFoci, List<Frame> focusStack, FrameSet frames, PlanTracer tracer) {
 		// first heuristic: choose a shift of focus, if possible CF(new) \in PFL(last)
 		List<Integer> candidatePositions = new ArrayList<Integer>();
 		List<Frame> candidateDefaultFoci = new ArrayList<Frame>();
@@ -75,7 +81,7 @@ public class SimpleFocusChooser extends LocalChooser {
 			}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 		// second heuristic: choose to stay on focus CF(new) == CF(last)
 		for (int i = 0; i < fds.size(); i++)
 			if (defaultFoci.get(i).equals(currentFocus)) {
@@ -84,7 +90,7 @@ public class SimpleFocusChooser extends LocalChooser {
 			}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 
 		// third heuristic: choose from the focus stack CF(new) \in focus-stack
 		for (int i = 0; i < fds.size(); i++)
@@ -94,7 +100,7 @@ public class SimpleFocusChooser extends LocalChooser {
 			}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 
 		// now consider the potential foci for each chance and repeat the heuristics
 		@SuppressWarnings("unchecked")
@@ -112,7 +118,7 @@ public class SimpleFocusChooser extends LocalChooser {
 				}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 		// second heuristic: choose to stay on focus CF(new) == CF(last)
 		for (int i = 0; i < fds.size(); i++)
 			for (int j = 0; j < newPotentialFoci[i].size(); j++)
@@ -123,7 +129,7 @@ public class SimpleFocusChooser extends LocalChooser {
 				}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 
 		// third heuristic: choose from the focus stack CF(new) \in focus-stack
 		for (int i = 0; i < fds.size(); i++)
@@ -135,7 +141,7 @@ public class SimpleFocusChooser extends LocalChooser {
 				}
 		if (candidatePositions.size() > 0)
 			return chooseOnPotentialToPotentialLinks(candidatePositions, candidateDefaultFoci, fds, potentialFoci,
-					frames);
+					frames, tracer);
 		// greedy
 		return new Decision(0, defaultFoci.get(0), extractPotentialFoci(fds.get(0), frames));
 	}
@@ -144,45 +150,17 @@ public class SimpleFocusChooser extends LocalChooser {
 	 * Final decision on a smaller set of candidates using the potential to potential links.
 	 */
 	protected Decision chooseOnPotentialToPotentialLinks(List<Integer> candidatePositions,
-			List<Frame> candidateDefaultFoci, List<Map<String, Object>> fds, List<Frame> potentialFoci, FrameSet frames) {
+			List<Frame> candidateDefaultFoci, List<Map<String, Object>> fds, List<Frame> potentialFoci, FrameSet frames,
+			PlanTracer tracer) {
 		int maxPos = 0;
 		double maxLinks = -1;
 		Frame maxCurrentFocus = null;
 		List<Frame> maxPotentialFoci = null;
 		for (int c = 0; c < candidatePositions.size(); c++) {
 			int pos = candidatePositions.get(c).intValue();
-			double links = 0;
 			List<Frame> pfl = extractPotentialFoci(fds.get(pos), frames);
-			for (Frame potentialFocus : pfl) {
-				double maxValue = 0;
-				Frame linkTo = null;
-				for (int i = 0; i < potentialFoci.size(); i++) {
-					Frame oldPotentialFocus = (Frame) potentialFoci.get(i);
-					double thisValue = 0;
-					if (potentialFocus == oldPotentialFocus) {
-						thisValue = 1;
-					} else {
-						double dist = ontology.distance(potentialFocus.getType(), oldPotentialFocus.getType());
-						if (dist < 0.9)
-							thisValue = 0.9 - dist;
-					}
-					if (i == 0 || thisValue > maxValue) {
-						maxValue = thisValue;
-						linkTo = oldPotentialFocus;
-					}
-				}
-				if (maxValue > 0) {
-					if (verbose)
-						System.err.println("link: " + potentialFocus.getID() + " to: " + linkTo.getID());
-					links += maxValue;
-				}
-			}
-			if (verbose) {
-				System.err.println("Continuation with PFL:");
-				for (Frame frame : pfl)
-					System.err.println("\t" + frame.getID());
-				System.err.println("links=" + links);
-			}
+			double links = links(pfl, potentialFoci);
+			tracer.continuationScored(pos, pfl, links);
 			if (links > maxLinks) {
 				maxPos = pos;
 				maxLinks = links;
@@ -192,4 +170,31 @@ public class SimpleFocusChooser extends LocalChooser {
 		}
 		return new Decision(maxPos, maxCurrentFocus, maxPotentialFoci);
 	}
+
+	/**
+	 * Strength of the links between a new potential focus list and the previous one: each new potential focus is
+	 * linked to the closest old one (1 if they are the same frame, less the farther apart their types are).
+	 */
+	public double links(List<Frame> newPotentialFoci, List<Frame> potentialFoci) {
+		double links = 0;
+		for (Frame potentialFocus : newPotentialFoci) {
+			double maxValue = 0;
+			for (int i = 0; i < potentialFoci.size(); i++) {
+				Frame oldPotentialFocus = (Frame) potentialFoci.get(i);
+				double thisValue = 0;
+				if (potentialFocus == oldPotentialFocus) {
+					thisValue = 1;
+				} else {
+					double dist = ontology.distance(potentialFocus.getType(), oldPotentialFocus.getType());
+					if (dist < 0.9)
+						thisValue = 0.9 - dist;
+				}
+				if (i == 0 || thisValue > maxValue)
+					maxValue = thisValue;
+			}
+			if (maxValue > 0)
+				links += maxValue;
+		}
+		return links;
+	}
 }
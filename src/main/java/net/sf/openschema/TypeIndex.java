@@ -0,0 +1,93 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A <tt>TypedFrameSet</tt> that indexes the frames of another <tt>FrameSet</tt> by type, for one ontology. The frames
+ * are grouped by their type and numbered once, at construction; the frames under a given concept are then computed the
+ * first time they are requested, checking each distinct type (instead of each frame) against the ontology, and kept for
+ * later requests (see <tt>FrameSetIndex</tt>, which can also be the one the planner keeps for the frames).
+ * <p>
+ * The index is safe to share among threads, as long as the underlying frames are not modified.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class TypeIndex implements TypedFrameSet, OrdinalFrameSet {
+	/** The indexed frames. */
+	protected FrameSet frames;
+	/** The ontology the extents are computed against. */
+	protected Ontology ontology;
+	/** The frames grouped by type and the extents computed so far. */
+	protected FrameSetIndex index;
+	/** Ordinals of the frames. */
+	protected FrameOrdinals ordinals;
+
+	/**
+	 * Index a set of frames.
+	 * 
+	 * @param frames
+	 *            the frames to index.
+	 * @param ontology
+	 *            the ontology used to compute the frames under a type.
+	 */
+	public TypeIndex(FrameSet frames, Ontology ontology) {
+		this(frames, ontology, new FrameSetIndex(frames));
+	}
+
+	/** Index a set of frames reusing an index of them (such as the one the planner keeps for them). */
+	TypeIndex(FrameSet frames, Ontology ontology, FrameSetIndex index) {
+		this.frames = frames;
+		this.ontology = ontology;
+		this.index = index;
+		this.ordinals = frames instanceof OrdinalFrameSet ? ((OrdinalFrameSet) frames).getOrdinals() : index
+				.getOrdinals();
+	}
+
+	/** Get all the frames. */
+	public Collection<Frame> getFrames() {
+		return frames.getFrames();
+	}
+
+	/** Get a frame with a given name or null if is undefined. */
+	public Frame getFrame(String id) {
+		return frames.getFrame(id);
+	}
+
+	/** Dense ordinals for the frames, fixed at construction. */
+	public FrameOrdinals getOrdinals() {
+		return ordinals;
+	}
+
+	/**
+	 * Get all the frames which type is a sub-type of the given type. Returns null if the ontology is not the one this
+	 * index was built for.
+	 */
+	public List<Frame> getFramesUnderType(Object type, Ontology ontology) {
+		if (ontology != this.ontology)
+			return null;
+		return index.getFramesUnderType(type, ontology);
+	}
+}
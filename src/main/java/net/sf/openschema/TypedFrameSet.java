@@ -0,0 +1,41 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+
+package net.sf.openschema;
+
+import java.util.Collection;
+
+/**
+ * An optional extension of the <tt>FrameSet</tt> interface for backends that can retrieve the frames of a given type
+ * natively (for example, from an index or a database). The planner uses it instead of checking the type of every
+ * frame against the ontology.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public interface TypedFrameSet extends FrameSet {
+	/**
+	 * Get all the frames which type is a sub-type of the given type according to the ontology. Returns null if the
+	 * frames cannot be retrieved for that ontology, in which case the caller should check the frames one by one.
+	 */
+	public Collection<Frame> getFramesUnderType(Object type, Ontology ontology);
+}
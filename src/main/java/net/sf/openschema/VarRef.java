@@ -29,7 +29,7 @@ package net.sf.openschema;
  */
 
 class VarRef {
-	protected String var;
+	protected final String var;
 
 	public VarRef(String var) {
 		this.var = var;
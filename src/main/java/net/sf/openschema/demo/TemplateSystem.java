@@ -24,7 +24,9 @@ package net.sf.openschema.demo;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,8 @@ import net.sf.openschema.GreedyChooser;
 import net.sf.openschema.LocalChooser;
 import net.sf.openschema.Ontology;
 import net.sf.openschema.OpenSchemaPlanner;
+import net.sf.openschema.PlanTracer;
+import net.sf.openschema.PrintTracer;
 import net.sf.openschema.RDFFrameSet;
 import net.sf.openschema.RDFOntology;
 import net.sf.openschema.RandomChooser;
@@ -54,14 +58,14 @@ import org.xml.sax.InputSource;
  */
 
 public class TemplateSystem {
-	/** Verbosity flag, defaults to off. */
-	public static boolean verbose = false;
-
-	/** Main. */
+	/** Main, a leading "-v" traces the progress and the instantiation to the standard error. */
 	public static void main(String[] args) throws Exception {
+		boolean verbose = args.length > 0 && args[0].equals("-v");
+		if (verbose)
+			args = Arrays.copyOfRange(args, 1, args.length);
 		if (args.length < 2) {
 			System.err
-					.println("Usage: TemplateSystem schema.(xml|schema) data.(rdf|csv) ontology.rdfs (simple|random|greedy) attribute value attribute value ...");
+					.println("Usage: TemplateSystem [-v] schema.(xml|schema) data.(rdf|csv) ontology.rdfs (simple|random|greedy) attribute value attribute value ...");
 			System.exit(0);
 		}
 		if (verbose)
@@ -108,7 +112,8 @@ public class TemplateSystem {
 				varMapping.put(args[i], frames.getFrame(args[i + 1]));
 		if (verbose)
 			System.err.print("Instantiating...");
-		DocumentPlan plan = schema.instantiate(frames, varMapping, ontology);
+		DocumentPlan plan = schema.instantiate(frames, varMapping, ontology, verbose ? new PrintTracer(
+				new OutputStreamWriter(System.err)) : PlanTracer.NONE);
 		if (verbose) {
 			System.err.println("Instantiated.");
 			System.err.println(plan);
@@ -0,0 +1,400 @@
+/***********************************************************************
+ * OPENSCHEMA
+ * An open source implementation of document structuring schemata.
+ *
+ * Copyright (C) 2004-2013 Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA 02111, USA.
+ ***********************************************************************/
+
+package net.sf.openschema.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.sf.openschema.Frame;
+import net.sf.openschema.FrameSet;
+import net.sf.openschema.MapFrame;
+import net.sf.openschema.Ontology;
+import net.sf.openschema.RDFOntology;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * Generator of synthetic knowledge bases for the biography schema (<tt>samples/template-biography.schema</tt>), to
+ * test the planner at scale. The frames have the same shape as <tt>samples/sean.csv</tt>: people with names,
+ * occupations, birth events (with dates, places and parents), aliases, education, work events (films made, prizes and
+ * communications), relationships and relatives. Their types come from <tt>samples/ontology.rdfs</tt> plus a synthetic
+ * tree of occupations under <tt>c-occupation</tt>, which is added to the base ontology.
+ * <p>
+ * The size is controlled by the number of people, the maximum number of values of the multi-valued attributes
+ * (fan-out) and the depth and branching of the occupation tree. People and occupations referred to from other frames
+ * are picked with a Zipf distribution of a given exponent (the skew, 0 for uniform), so a few of them are much more
+ * connected than the rest. Generation is deterministic for a given seed.
+ * <p>
+ * The frames can be produced in memory or written as triples in comma separated format (the input of
+ * <tt>CsvToRdfFilterStream</tt>) or as RDF. Run <tt>main</tt> without arguments for the command line usage.
+ * 
+ * @author Pablo Ariel Duboue <pablo.duboue@gmail.com>
+ */
+
+public class KnowledgeBaseGenerator {
+	/** Namespace of the generated resources, the same as <tt>CsvToRdfFilterStream</tt>. */
+	public static final String NAMESPACE = "http://local/";
+
+	/** Kinds of relatives that are not parents nor children (those are excluded by the schema). */
+	protected static final String[] RELATIVES = { "c-brother-relative", "c-grandson-relative" };
+	/** Kinds of work events other than films and prizes. */
+	protected static final String[] OTHER_WORK_EVENTS = { "c-communication-event", "c-join-organization-event" };
+
+	/** Number of people. */
+	protected final int persons;
+	/** Maximum number of values of the multi-valued attributes. */
+	protected final int fanOut;
+	/** Depth of the occupation tree. */
+	protected final int ontologyDepth;
+	/** Children of each inner node of the occupation tree. */
+	protected final int ontologyBranching;
+	/** Exponent of the Zipf distribution used to pick people and occupations (0 for uniform). */
+	protected final double skew;
+	/** Random seed. */
+	protected final long seed;
+
+	/**
+	 * Full constructor.
+	 * 
+	 * @param persons
+	 *            number of people, at least 1. The first one is "person-1", as in the sample.
+	 * @param fanOut
+	 *            maximum number of values of the multi-valued attributes (occupations, aliases, work events,
+	 *            relationships and relatives), at least 1.
+	 * @param ontologyDepth
+	 *            depth of the occupation tree under <tt>c-occupation</tt>, at least 1.
+	 * @param ontologyBranching
+	 *            children of each inner node of the occupation tree, at least 1.
+	 * @param skew
+	 *            exponent of the Zipf distribution used to pick people and occupations, 0 for uniform.
+	 * @param seed
+	 *            random seed.
+	 */
+	public KnowledgeBaseGenerator(int persons, int fanOut, int ontologyDepth, int ontologyBranching, double skew,
+			long seed) {
+		if (persons < 1 || fanOut < 1 || ontologyDepth < 1 || ontologyBranching < 1)
+			throw new IllegalArgumentException("Sizes should be positive: persons=" + persons + " fanOut=" + fanOut
+					+ " ontologyDepth=" + ontologyDepth + " ontologyBranching=" + ontologyBranching);
+		if (skew < 0)
+			throw new IllegalArgumentException("Skew should not be negative: " + skew);
+		this.persons = persons;
+		this.fanOut = fanOut;
+		this.ontologyDepth = ontologyDepth;
+		this.ontologyBranching = ontologyBranching;
+		this.skew = skew;
+		this.seed = seed;
+	}
+
+	/** Generate the frames, in memory. */
+	public FrameSet generateFrames() {
+		return new Generation().run();
+	}
+
+	/**
+	 * Generate the ontology: a base ontology plus the occupation tree.
+	 * 
+	 * @param baseOntology
+	 *            the base ontology in RDF, such as <tt>samples/ontology.rdfs</tt>; can be null.
+	 */
+	public Ontology generateOntology(InputStream baseOntology) throws IOException {
+		return new RDFOntology(ontologyModel(baseOntology));
+	}
+
+	/** Write the frames as triples in comma separated format. */
+	public void writeCsv(Writer out) throws IOException {
+		PrintWriter writer = new PrintWriter(out);
+		for (Frame frame : generateFrames().getFrames()) {
+			writer.println(frame.getID() + ",TYPE," + frame.getType());
+			for (String key : frame.keySet())
+				for (Object value : frame.get(key))
+					writer.println(frame.getID() + "," + key + ","
+							+ (value instanceof Frame ? ((Frame) value).getID() : value));
+		}
+		writer.flush();
+		if (writer.checkError())
+			throw new IOException("Error writing the frames.");
+	}
+
+	/** Write the frames as RDF, as read from the comma separated triples by a <tt>CsvToRdfFilterStream</tt>. */
+	public void writeRdf(OutputStream out) throws IOException {
+		ByteArrayOutputStream csv = new ByteArrayOutputStream();
+		Writer writer = new OutputStreamWriter(csv, "UTF-8");
+		writeCsv(writer);
+		writer.close();
+		InputStream rdf = new CsvToRdfFilterStream(new ByteArrayInputStream(csv.toByteArray()));
+		byte[] buffer = new byte[8192];
+		for (int read = rdf.read(buffer); read != -1; read = rdf.read(buffer))
+			out.write(buffer, 0, read);
+		out.flush();
+	}
+
+	/** Write the ontology (the base ontology plus the occupation tree) as RDF. */
+	public void writeOntology(InputStream baseOntology, OutputStream out) throws IOException {
+		ontologyModel(baseOntology).write(out);
+		out.flush();
+	}
+
+	/** The ontology as an RDF model. */
+	protected Model ontologyModel(InputStream baseOntology) throws IOException {
+		Model model = ModelFactory.createDefaultModel();
+		if (baseOntology != null)
+			model.read(baseOntology, NAMESPACE);
+		List<String> level = new ArrayList<String>();
+		level.add("c-occupation");
+		for (int depth = 0; depth < ontologyDepth; depth++) {
+			List<String> next = new ArrayList<String>();
+			for (String parent : level)
+				for (int i = 0; i < ontologyBranching; i++) {
+					String child = (depth == 0 ? "c-syn-occupation" : parent) + "-" + i;
+					Resource resource = model.createResource(NAMESPACE + child);
+					resource.addProperty(RDFS.subClassOf, model.createResource(NAMESPACE + parent));
+					next.add(child);
+				}
+			level = next;
+		}
+		return model;
+	}
+
+	/** Names of the leaves of the occupation tree, the types of the occupations. */
+	protected List<String> occupationTypes() {
+		List<String> level = Arrays.asList(new String[] { "c-syn-occupation" });
+		for (int depth = 0; depth < ontologyDepth; depth++) {
+			List<String> next = new ArrayList<String>();
+			for (String parent : level)
+				for (int i = 0; i < ontologyBranching; i++)
+					next.add(parent + "-" + i);
+			level = next;
+		}
+		return level;
+	}
+
+	/** The state of one generation. */
+	protected class Generation {
+		protected final Random random = new Random(seed);
+		protected final Map<String, Frame> frames = new LinkedHashMap<String, Frame>();
+		protected final Map<String, Integer> counters = new HashMap<String, Integer>();
+		/** Cumulative Zipf weights, by number of choices. */
+		protected final Map<Integer, double[]> cumulative = new HashMap<Integer, double[]>();
+		protected final List<String> occupationTypes = occupationTypes();
+		protected Frame[] people;
+
+		protected FrameSet run() {
+			people = new Frame[persons];
+			for (int i = 0; i < persons; i++)
+				people[i] = frame("person", random.nextBoolean() ? "c-male" : "c-female");
+			for (int i = 0; i < persons; i++)
+				describe(people[i]);
+			return new FrameSet() {
+				public Collection<Frame> getFrames() {
+					return frames.values();
+				}
+
+				public Frame getFrame(String id) {
+					return frames.get(id);
+				}
+			};
+		}
+
+		/** Generate everything about a person. */
+		protected void describe(Frame person) {
+			person.add("name", name());
+			for (int i = 0, n = count(1); i < n; i++)
+				person.add("occupation", frame("occupation", occupationTypes.get(pick(occupationTypes.size()))));
+			Frame birth = frame("birth-event", "c-birth-event");
+			birth.add("date-instant", date());
+			Frame place = frame("place", "c-place");
+			place.add("city", "City " + random.nextInt(1000));
+			place.add("state", "State " + random.nextInt(50));
+			place.add("country", "Country " + random.nextInt(100));
+			birth.add("place", place);
+			birth.add("mother", otherPerson(person));
+			birth.add("father", otherPerson(person));
+			person.add("birth", birth);
+			for (int i = 0, n = count(0); i < n; i++)
+				person.add("alias", name());
+			Frame education = frame("education-graduation", "c-education-graduation");
+			Frame subject = frame("canned-focus-of-study", "c-canned-focus-of-study");
+			subject.add("canned-text", "subject " + random.nextInt(100));
+			education.add("subject-matter", subject);
+			education.add("teaching-agent", organization("college", "c-college", "name"));
+			person.add("education", education);
+			for (int i = 0, n = count(0); i < n; i++)
+				workEvent(person);
+			for (int i = 0, n = count(0); i < n; i++) {
+				Frame relationship = frame("wife", "c-wife");
+				relationship.add("significant-other", otherPerson(person));
+				person.add("significant-other", relationship);
+			}
+			for (int i = 0, n = count(0); i < n; i++) {
+				String type = RELATIVES[random.nextInt(RELATIVES.length)];
+				Frame relative = frame(type.substring(2), type);
+				relative.add("relative", otherPerson(person));
+				person.add("family", relative);
+			}
+		}
+
+		/** Generate a work event: a film made (with prizes), or some other event. */
+		protected void workEvent(Frame person) {
+			if (random.nextInt(3) > 0) {
+				Frame made = frame("film-made", "c-film-made");
+				Frame film = frame("film", "c-film");
+				Frame title = frame("name", "c-name");
+				title.add("full", "\"Film " + film.getID() + "\"");
+				film.add("name", title);
+				made.add("built", film);
+				made.add("builder", person);
+				made.add("date-instant", date());
+				person.add("work-event", made);
+				for (int i = 0, n = random.nextInt(fanOut); i < n; i++) {
+					Frame prize = frame("received-prize", "c-received-prize");
+					prize.add("reason", film);
+					prize.add("awardee", person);
+					Frame award = frame("award", "c-award");
+					award.add("title", "Award " + random.nextInt(20));
+					award.add("sub-title", "Best " + random.nextInt(20));
+					prize.add("award", award);
+					prize.add("awarder", organization("agency-organization", "c-agency-organization", "full"));
+					person.add("work-event", prize);
+				}
+			} else {
+				String type = OTHER_WORK_EVENTS[random.nextInt(OTHER_WORK_EVENTS.length)];
+				Frame event = frame(type.substring(2), type);
+				event.add("date-instant", date());
+				person.add("work-event", event);
+			}
+		}
+
+		/** Create a frame with a new ID. */
+		protected Frame frame(String prefix, String type) {
+			Integer counter = counters.get(prefix);
+			counter = new Integer(counter == null ? 1 : counter.intValue() + 1);
+			counters.put(prefix, counter);
+			Frame frame = new MapFrame(prefix + "-" + counter, type);
+			frames.put(frame.getID(), frame);
+			return frame;
+		}
+
+		protected Frame name() {
+			Frame name = frame("name", "c-name");
+			name.add("first-name", "First" + random.nextInt(1000));
+			name.add("last-name", "Last" + random.nextInt(10000));
+			return name;
+		}
+
+		protected Frame date() {
+			Frame date = frame("date", "c-date");
+			date.add("day", String.valueOf(1 + random.nextInt(28)));
+			date.add("month", String.valueOf(1 + random.nextInt(12)));
+			date.add("year", String.valueOf(1900 + random.nextInt(100)));
+			return date;
+		}
+
+		protected Frame organization(String prefix, String type, String nameKey) {
+			Frame organization = frame(prefix, type);
+			Frame name = frame("name", "c-name");
+			name.add(nameKey, "Organization " + random.nextInt(100));
+			organization.add("name", name);
+			return organization;
+		}
+
+		/** Pick a person other than the given one, if possible. */
+		protected Frame otherPerson(Frame person) {
+			Frame other = people[pick(persons)];
+			return other == person && persons > 1 ? people[(pick(persons - 1) + 1 + indexOf(person)) % persons]
+					: other;
+		}
+
+		protected int indexOf(Frame person) {
+			return Integer.parseInt(person.getID().substring("person-".length())) - 1;
+		}
+
+		/** Number of values of a multi-valued attribute, between a minimum and the fan-out. */
+		protected int count(int min) {
+			return min + random.nextInt(Math.max(fanOut - min, 0) + 1);
+		}
+
+		/** Pick one of n choices, following the Zipf distribution. */
+		protected int pick(int n) {
+			if (skew == 0.0)
+				return random.nextInt(n);
+			double[] weights = cumulative.get(new Integer(n));
+			if (weights == null) {
+				weights = new double[n];
+				double total = 0;
+				for (int i = 0; i < n; i++)
+					weights[i] = total += 1.0 / Math.pow(i + 1, skew);
+				cumulative.put(new Integer(n), weights);
+			}
+			int position = Arrays.binarySearch(weights, random.nextDouble() * weights[n - 1]);
+			return position >= 0 ? position : Math.min(-position - 1, n - 1);
+		}
+	}
+
+	/** Command line: generate the frames (as CSV or RDF) and the ontology. */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 7) {
+			System.err.println("Usage: KnowledgeBaseGenerator persons fan-out ontology-depth ontology-branching skew "
+					+ "seed output-prefix [base-ontology.rdfs] [rdf]");
+			System.err.println("Writes output-prefix.csv (or .rdf) and output-prefix-ontology.rdfs");
+			System.exit(1);
+		}
+		KnowledgeBaseGenerator generator = new KnowledgeBaseGenerator(Integer.parseInt(args[0]),
+				Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				Double.parseDouble(args[4]), Long.parseLong(args[5]));
+		String prefix = args[6];
+		boolean rdf = args.length > 8 && args[8].equals("rdf");
+		OutputStream out = new FileOutputStream(prefix + (rdf ? ".rdf" : ".csv"));
+		if (rdf)
+			generator.writeRdf(out);
+		else {
+			Writer writer = new OutputStreamWriter(out, "UTF-8");
+			generator.writeCsv(writer);
+			writer.close();
+		}
+		out.close();
+		InputStream base = args.length > 7 ? new FileInputStream(args[7]) : null;
+		out = new FileOutputStream(prefix + "-ontology.rdfs");
+		generator.writeOntology(base, out);
+		out.close();
+		if (base != null)
+			base.close();
+	}
+}
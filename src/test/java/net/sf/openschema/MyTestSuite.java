@@ -21,16 +21,42 @@
 
 package net.sf.openschema;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.management.ObjectName;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import net.sf.openschema.util.CsvToRdfFilterStream;
+import net.sf.openschema.util.KnowledgeBaseGenerator;
+import net.sf.openschema.util.SchemaToXmlFilterStream;
 
 import org.xml.sax.InputSource;
 
@@ -66,6 +92,20 @@ public class MyTestSuite extends TestCase {
 		return new OpenSchemaPlanner(inputSource, new GreedyChooser());
 	}
 
+	protected OpenSchemaPlanner biographySchema(LocalChooser chooser) throws Exception {
+		InputSource inputSource = new InputSource(new InputStreamReader(new SchemaToXmlFilterStream(
+				new FileInputStream("samples/template-biography.schema"))));
+		return new OpenSchemaPlanner(inputSource, chooser);
+	}
+
+	protected FrameSet biographyFrames() throws Exception {
+		return new RDFFrameSet(new CsvToRdfFilterStream(new FileInputStream("samples/sean.csv")), "file://sean.csv");
+	}
+
+	protected Ontology biographyOntology() throws Exception {
+		return new RDFOntology(new FileInputStream("samples/ontology.rdfs"), "file://ontology.rdfs");
+	}
+
 	protected FrameSet sampleFrames() {
 		final Frame frame1 = new MapFrame("frame-1", "c-object");
 		frame1.add("number", new Integer(5));
@@ -160,6 +200,1036 @@ public class MyTestSuite extends TestCase {
 				fd.size() == 1 + 3 && fd.containsKey("obj") && fd.get("obj").equals(new Integer(5)));
 	}
 
+	/** A planner keeping the predicate nodes reachable from each node, as found walking its full network. */
+	protected static class WalkedPlanner extends OpenSchemaPlanner {
+		/** Filled in by <tt>compile</tt>, while the superclass is being constructed. */
+		protected Map<Node, List<DecoratedNode>> walked;
+
+		public WalkedPlanner(InputSource source) throws Exception {
+			super(parse(source), new GreedyChooser());
+		}
+
+		protected void compile(Node start) {
+			walked = new HashMap<Node, List<DecoratedNode>>();
+			List<Node> pending = new ArrayList<Node>();
+			pending.add(start);
+			for (int next = 0; next < pending.size(); next++) {
+				Node node = pending.get(next);
+				walked.put(node, walk(node));
+				for (Node og : node.getOutgoing())
+					if (!walked.containsKey(og) && !pending.contains(og))
+						pending.add(og);
+			}
+			super.compile(start);
+		}
+
+		/** The breadth-first walk done by <tt>computeConfusionSet</tt> before the network was compiled. */
+		protected List<DecoratedNode> walk(Node node) {
+			List<DecoratedNode> boundaryNodes = new ArrayList<DecoratedNode>();
+			Set<DecoratedNode> seenNodes = new HashSet<DecoratedNode>();
+			List<DecoratedNode> newNodes = new ArrayList<DecoratedNode>();
+			for (Node og : node.getOutgoing())
+				newNodes.add(new DecoratedNode(og));
+			while (!newNodes.isEmpty()) {
+				DecoratedNode currentNode = newNodes.remove(0);
+				if (!seenNodes.add(currentNode))
+					continue;
+				boolean isPar = currentNode.isParBoundary() || currentNode.getNode().isParBoundary();
+				boolean isAggr = currentNode.isAggrBoundary() || currentNode.getNode().isAggrBoundary();
+				if (currentNode.getNode().isPredicate())
+					boundaryNodes.add(currentNode);
+				else
+					for (Node o : currentNode.getNode().getOutgoing())
+						newNodes.add(new DecoratedNode(o, isAggr, isPar));
+			}
+			return boundaryNodes;
+		}
+	}
+
+	public void testCompiledNetwork() throws Exception {
+		StringBuffer schemaDef = new StringBuffer();
+		schemaDef.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+		schemaDef.append("<OpenSchema xmlns=\"http://openschema.sf.net\" xmlns:fd=\"http://jfuf.sf.net/FD\">");
+		for (String id : new String[] { "a", "b", "c" }) {
+			schemaDef.append("<Predicate ID=\"" + id + "\">");
+			schemaDef.append("<Variable ID=\"Data\" Type=\"c-object\" Required=\"false\" DefaultFocus=\"true\"/>");
+			schemaDef.append("<Output><fd:FD><fd:V N=\"" + id + "\"><fd:G>Data.number</fd:G></fd:V></fd:FD></Output>");
+			schemaDef.append("</Predicate>");
+		}
+		schemaDef.append("<Schema>");
+		schemaDef.append("<Node><Predicate Name=\"a\"/></Node>");
+		schemaDef.append("<Node><KleeneStar><Node><Predicate Name=\"b\"/></Node><Node><AggrBoundary/></Node>");
+		schemaDef.append("</KleeneStar></Node>");
+		schemaDef.append("<Node><Optional><Node><ParBoundary/></Node><Node><Predicate Name=\"c\"/></Node>");
+		schemaDef.append("</Optional></Node>");
+		schemaDef.append("<Node><Choice><Node><Predicate Name=\"a\"/></Node><Node><KleenePlus><Node><AggrBoundary/>");
+		schemaDef.append("</Node><Node><Predicate Name=\"b\"/></Node></KleenePlus></Node>");
+		schemaDef.append("<Node><Sequence><Node><ParBoundary/></Node><Node><Optional><Node><Predicate Name=\"c\"/>");
+		schemaDef.append("</Node></Optional></Node></Sequence></Node></Choice></Node>");
+		schemaDef.append("<Node><AggrBoundary/></Node>");
+		schemaDef.append("</Schema>");
+		schemaDef.append("</OpenSchema>");
+		WalkedPlanner planner = new WalkedPlanner(new InputSource(new StringReader(schemaDef.toString())));
+
+		// only the top and the predicate nodes are left, each linked to its frontier as walked before compiling
+		List<OpenSchemaPlanner.Node> nodes = new ArrayList<OpenSchemaPlanner.Node>();
+		nodes.add(planner.top);
+		boolean crossedAggr = false;
+		boolean crossedPar = false;
+		for (int i = 0; i < nodes.size(); i++) {
+			OpenSchemaPlanner.Node node = nodes.get(i);
+			assertTrue("Structural node left: " + node, node == planner.top || node.isPredicate());
+			assertEquals("Frontier of " + node, planner.walked.get(node), Arrays.asList(node.getFrontier()));
+			Set<OpenSchemaPlanner.Node> linked = new HashSet<OpenSchemaPlanner.Node>();
+			for (OpenSchemaPlanner.DecoratedNode next : node.getFrontier()) {
+				linked.add(next.getNode());
+				crossedAggr |= next.isAggrBoundary();
+				crossedPar |= next.isParBoundary();
+			}
+			assertEquals("Links of " + node, linked, new HashSet<OpenSchemaPlanner.Node>(node.getOutgoing()));
+			for (OpenSchemaPlanner.Node next : node.getOutgoing())
+				if (!nodes.contains(next))
+					nodes.add(next);
+		}
+		assertEquals("Top and predicate nodes", 7, nodes.size());
+		assertTrue("No boundary crossed", crossedAggr && crossedPar);
+	}
+
+	public void testSolverMatchesExhaustiveSearch() throws Exception {
+		List<Frame> people = new ArrayList<Frame>();
+		List<Frame> events = new ArrayList<Frame>();
+		for (int i = 0; i < 6; i++) {
+			Frame event = new MapFrame("event-" + i, "c-event");
+			event.add("year", new Integer(1900 + i % 3));
+			events.add(event);
+		}
+		for (int i = 0; i < 12; i++) { // person-1 and person-10 test the canonical order
+			Frame person = new MapFrame("person-" + i, "c-person");
+			person.add("birth", events.get(i % events.size()));
+			person.add("birth", events.get((i + 2) % events.size()));
+			people.add(person);
+		}
+		Set<String> vars = new HashSet<String>(Arrays.asList(new String[] { "a", "b", "e" }));
+		List<Property> properties = new ArrayList<Property>();
+		properties.add(Property.parse("e == a.birth", vars));
+		properties.add(Property.parse("a != b", vars));
+		properties.add(Property.parse("e.year == b.birth.year", vars));
+		Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
+		allVars.put("a", people);
+		allVars.put("b", people);
+		allVars.put("e", events);
+
+		// exhaustive search
+		Set<Map<Object, Frame>> expected = new HashSet<Map<Object, Frame>>();
+		for (Frame a : people)
+			for (Frame b : people)
+				for (Frame e : events) {
+					Map<Object, Frame> assignment = new HashMap<Object, Frame>();
+					assignment.put("a", a);
+					assignment.put("b", b);
+					assignment.put("e", e);
+					boolean satisfied = true;
+					for (Property property : properties)
+						satisfied &= property.check(assignment, sampleOntology());
+					if (satisfied)
+						expected.add(assignment);
+				}
+		List<Map<Object, Frame>> found = new BacktrackingSolver(allVars, properties, sampleOntology()).solve();
+		assertEquals("Solver found a different number of assignments", expected.size(), found.size());
+		assertEquals("Solver found different assignments", expected, new HashSet<Map<Object, Frame>>(found));
+		assertFalse("Test problem is trivial", expected.isEmpty());
+
+		// assignments come in canonical order: sorted by "var=ID;" strings
+		List<String> rendered = new ArrayList<String>();
+		for (Map<Object, Frame> assignment : found)
+			rendered.add("a=" + assignment.get("a").getID() + ";b=" + assignment.get("b").getID() + ";e="
+					+ assignment.get("e").getID() + ";");
+		List<String> sorted = new ArrayList<String>(rendered);
+		Collections.sort(sorted);
+		assertEquals("Solver assignments are not in canonical order", sorted, rendered);
+
+		// with ordinals for some of the frames only (the events are numbered by the solver)
+		List<Frame> numbered = new ArrayList<Frame>(people);
+		Collections.reverse(numbered);
+		FrameOrdinals ordinals = new FrameOrdinals(numbered);
+		assertTrue("Wrong ranks", ordinals.getRank(ordinals.getOrdinal(people.get(10))) < ordinals.getRank(ordinals
+				.getOrdinal(people.get(1))));
+		BacktrackingSolver solver = new BacktrackingSolver(allVars, properties, sampleOntology(), null, ordinals);
+		int[] tuples = new int[found.size() * 3];
+		for (int i = 0; i < found.size(); i++) {
+			assertTrue("Solver with ordinals found fewer assignments", solver.advance(null));
+			solver.copyTuple(tuples, i * 3);
+		}
+		assertFalse("Solver with ordinals found more assignments", solver.advance(null));
+		for (int i = 0; i < found.size(); i++)
+			assertEquals("Wrong assignment from ordinals", found.get(i), solver.toAssignment(tuples, i * 3));
+	}
+
+	public void testDomainOrder() throws Exception {
+		String[] ids = { "a;b", "a", "b", "a;", "ab", "a:", "a;;", "a-", "abc", "b;a", "a;a" };
+		final List<Frame> all = new ArrayList<Frame>();
+		for (String id : ids)
+			all.add(new MapFrame(id, "c-object"));
+		for (int i = 0; i < 30; i++)
+			all.add(new MapFrame("other-" + i, "c-object"));
+		List<Frame> domain = new ArrayList<Frame>(all.subList(0, ids.length));
+		Collections.shuffle(domain, new Random(5));
+		// as sorted originally, by the IDs followed by ';'
+		List<String> expected = new ArrayList<String>();
+		for (String id : ids)
+			expected.add(id + ";");
+		Collections.sort(expected);
+
+		FrameOrdinals ordinals = new FrameOrdinals(all);
+		for (int i = 0; i < 2; i++) {
+			BacktrackingSolver solver = new BacktrackingSolver(Collections.<Object, List<Frame>> singletonMap("x",
+					domain), new ArrayList<Property>(), sampleOntology(), null, ordinals);
+			List<String> actual = new ArrayList<String>();
+			for (int ordinal : solver.sortedDomain(domain))
+				actual.add(solver.getFrame(ordinal).getID() + ";");
+			assertEquals(i == 0 ? "Order before ranking" : "Order by rank", expected, actual);
+			// a small domain is sorted without ranking all the frames, the frames are ranked once it adds up
+			assertEquals("Ranked", i > 0, ordinals.ranks != null);
+			solver.sortedDomain(all);
+		}
+	}
+
+	public void testCanonicalOrder() throws Exception {
+		String[][] idSets = { { "b", "ab", "a", "a-", "a:", "abc" }, { "a;b", "a", "b", "a;", "ab", "a:", "a;;" } };
+		for (String[] ids : idSets) {
+			List<Frame> frames = new ArrayList<Frame>();
+			for (String id : ids)
+				frames.add(new MapFrame(id, "c-object"));
+			for (Frame f1 : frames)
+				for (Frame f2 : frames)
+					assertEquals("Comparing " + f1.getID() + " and " + f2.getID(),
+							Integer.signum((f1.getID() + ";").compareTo(f2.getID() + ";")),
+							Integer.signum(BacktrackingSolver.CANONICAL_ORDER.compare(f1, f2)));
+
+			// z is assigned before y, so the solver has to sort the assignments
+			Set<String> vars = new HashSet<String>(Arrays.asList(new String[] { "x", "y", "z" }));
+			List<Property> properties = new ArrayList<Property>();
+			properties.add(Property.parse("x != z", vars));
+			properties.add(Property.parse("y != z", vars));
+			Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
+			allVars.put("x", frames);
+			allVars.put("y", frames.subList(1, frames.size()));
+			allVars.put("z", frames.subList(0, 4));
+			List<Map<Object, Frame>> expected = new ArrayList<Map<Object, Frame>>();
+			for (Frame x : allVars.get("x"))
+				for (Frame y : allVars.get("y"))
+					for (Frame z : allVars.get("z"))
+						if (x != z && y != z) {
+							Map<Object, Frame> assignment = new HashMap<Object, Frame>();
+							assignment.put("x", x);
+							assignment.put("y", y);
+							assignment.put("z", z);
+							expected.add(assignment);
+						}
+			// as sorted originally
+			Collections.sort(expected, new Comparator<Map<Object, Frame>>() {
+				public int compare(Map<Object, Frame> m1, Map<Object, Frame> m2) {
+					return render(m1).compareTo(render(m2));
+				}
+
+				private String render(Map<Object, Frame> m) {
+					return "x=" + m.get("x").getID() + ";y=" + m.get("y").getID() + ";z=" + m.get("z").getID()
+							+ ";";
+				}
+			});
+			BacktrackingSolver solver = new BacktrackingSolver(allVars, properties, sampleOntology());
+			assertEquals("Variables", Arrays.asList(new Object[] { "x", "z", "y" }),
+					Arrays.asList(solver.getVariables()));
+			assertEquals("Wrong order for " + Arrays.asList(ids), expected, solver.solve());
+			// with the frames ranked by the ordinals, one assignment at a time
+			solver = new BacktrackingSolver(allVars, properties, sampleOntology(), null, new FrameOrdinals(frames));
+			for (Map<Object, Frame> assignment : expected)
+				assertEquals("Wrong order with ordinals for " + Arrays.asList(ids), assignment, solver.next());
+			assertNull("More assignments with ordinals", solver.next());
+		}
+	}
+
+	public void testPropertyStatistics() throws Exception {
+		List<Frame> people = new ArrayList<Frame>();
+		for (int i = 0; i < 20; i++) {
+			Frame person = new MapFrame("person-" + i, "c-person");
+			person.add("age", new Integer(i % 5));
+			people.add(person);
+		}
+		Set<String> vars = new HashSet<String>(Arrays.asList(new String[] { "a", "b" }));
+		List<Property> properties = new ArrayList<Property>();
+		properties.add(Property.parse("a != b", vars)); // rarely fails, declared first
+		properties.add(Property.parse("a.age == b.age", vars));
+		Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
+		allVars.put("a", people);
+		allVars.put("b", people);
+
+		List<Map<Object, Frame>> expected = new BacktrackingSolver(allVars, properties, sampleOntology()).solve();
+		PropertyStatistics statistics = new PropertyStatistics();
+		for (int i = 0; i < 2; i++) // the second time, checks are ordered by the statistics
+			assertEquals("Ordering the checks changed the assignments", expected, new BacktrackingSolver(allVars,
+					properties, sampleOntology(), statistics).solve());
+		double passRate = statistics.getPassRate(properties.get(0));
+		assertTrue("Wrong pass rate: " + passRate, passRate > 0.9 && passRate < 1.0);
+		assertTrue("The selective property should rank first",
+				statistics.getRank(properties.get(1)) < statistics.getRank(properties.get(0)));
+
+		Ontology ontology = biographyOntology();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology);
+		assertFalse("Planner statistics are empty", schema.getPropertyStatistics().getProperties().isEmpty());
+	}
+
+	public void testPropertyEvaluators() throws Exception {
+		List<Frame> values = new ArrayList<Frame>();
+		values.add(null); // unbound
+		for (int i = 0; i < 3; i++) {
+			Frame event = new MapFrame("event-" + i, "c-event");
+			event.add("year", new Integer(1900 + i % 2));
+			values.add(event);
+			Frame person = new MapFrame("person-" + i, "c-person");
+			person.add("birth", event);
+			if (i > 0)
+				person.add("birth", values.get(1));
+			values.add(person);
+		}
+		// people with many births, so that comparing their paths hashes the values of one of them
+		for (int i = 0; i < 2; i++) {
+			Frame crowd = new MapFrame("crowd-" + i, "c-person");
+			for (int j = 0; j < 10 + i; j++) {
+				Frame event = new MapFrame("crowd-event-" + i + "-" + j, "c-event");
+				event.add("year", new Integer(1901 + 9 * i + j));
+				crowd.add("birth", event);
+			}
+			values.add(crowd);
+		}
+		Set<String> vars = new HashSet<String>(Arrays.asList(new String[] { "a", "b", "e" }));
+		String[] properties = { "e == a.birth", "a.birth.year == b.birth.year", "a != b", "a.birth == b", "e == 1900",
+				"a.birth.year == e.year", "a UNDER c-person", "a.birth !UNDER c-event", "e.year UNDER c-event",
+				"x == x", "x == y" };
+		Map<Object, Integer> slots = new HashMap<Object, Integer>();
+		slots.put("a", new Integer(0));
+		slots.put("b", new Integer(1));
+		slots.put("e", new Integer(2));
+		Ontology ontology = sampleOntology2();
+		for (String s : properties) {
+			Property property = Property.parse(s, vars);
+			Property.Evaluator evaluator = property.compile(slots);
+			for (Frame a : values)
+				for (Frame b : values)
+					for (Frame e : values) {
+						Map<Object, Frame> assignment = new HashMap<Object, Frame>();
+						assignment.put("a", a);
+						assignment.put("b", b);
+						assignment.put("e", e);
+						boolean expected = referenceCheck(property, assignment, ontology);
+						String message = s + " with " + assignment;
+						assertEquals(message, expected, property.check(assignment, ontology));
+						assertEquals(message, expected, evaluator.check(new Frame[] { a, b, e }, ontology));
+					}
+		}
+	}
+
+	/** Check a property by collecting all the values of each side, as properties were originally evaluated. */
+	protected boolean referenceCheck(Property property, Map<Object, Frame> vars, Ontology ontology) {
+		if (property.getNegated() != null)
+			return !referenceCheck(property.getNegated(), vars, ontology);
+		if (property.getConcept() != null) {
+			for (Object value : referenceValues(property.getUnderSide(), vars))
+				if (value instanceof Frame && ontology.isA(((Frame) value).getType(), property.getConcept()))
+					return true;
+			return false;
+		}
+		Object[] sides = property.getEqualitySides();
+		Set<Object> common = referenceValues(sides[0], vars);
+		common.retainAll(referenceValues(sides[1], vars));
+		return !common.isEmpty();
+	}
+
+	protected Set<Object> referenceValues(Object side, Map<Object, Frame> vars) {
+		if (!(side instanceof VarRef))
+			return new HashSet<Object>(Collections.singleton(side));
+		Frame frame = vars.get(((VarRef) side).getRef());
+		return new HashSet<Object>(PathIndex.resolve(frame, side instanceof PathRef ? ((PathRef) side).getPath()
+				: new String[0]));
+	}
+
+	public void testJoinDomains() throws Exception {
+		final Map<String, Frame> byId = new HashMap<String, Frame>();
+		Frame place = new MapFrame("place-0", "c-place");
+		place.add("year", "1900");
+		byId.put(place.getID(), place);
+		for (int i = 0; i < 4; i++) {
+			Frame event = new MapFrame("event-" + i, "c-event");
+			event.add("year", i % 2 == 0 ? "1900" : "1901");
+			if (i == 3)
+				event.add("year", "1900");
+			byId.put(event.getID(), event);
+		}
+		for (int i = 0; i < 4; i++) {
+			Frame person = new MapFrame("person-" + i, "c-person");
+			if (i == 0) {
+				person.add("birth", byId.get("event-0"));
+				person.add("birth", place);
+			} else if (i < 3) {
+				person.add("birth", byId.get("event-" + i));
+				person.add("birth", byId.get("event-3"));
+			}
+			byId.put(person.getID(), person);
+		}
+		FrameSet frames = new FrameSet() {
+			public Collection<Frame> getFrames() {
+				return byId.values();
+			}
+
+			public Frame getFrame(String id) {
+				return byId.get(id);
+			}
+		};
+		Ontology ontology = sampleOntology2();
+		OpenSchemaPlanner planner = sampleSchema();
+		Map<String, String> types = new HashMap<String, String>();
+		types.put("a", "c-person");
+		types.put("b", "c-person");
+		types.put("e", "c-event");
+		types.put("f", "c-event");
+		// property, bound variable (or null for none) and variable whose domain is narrowed
+		String[][] cases = { { "e == a.birth", "a", "e" }, { "a.birth == e", "e", "a" },
+				{ "e.year == 1900", null, "e" }, { "1901 == e.year", null, "e" }, { "e == event-1", null, "e" },
+				{ "e == f", "f", "e" },
+				{ "a.birth.year == b.birth.year", "a", "b" }, { "b.birth.year == e.year", "e", "b" } };
+		for (String[] c : cases) {
+			Map<String, String> vars = new HashMap<String, String>();
+			vars.put(c[2], types.get(c[2]));
+			if (c[1] != null)
+				vars.put(c[1], types.get(c[1]));
+			Property property = Property.parse(c[0], vars.keySet());
+			OpenSchemaPlanner.Predicate predicate = planner.new Predicate("p", c[2], vars, new HashSet<String>(),
+					Collections.singletonList(property), Collections.<String, Object> emptyMap());
+			List<Frame> extent = OpenSchemaPlanner.framesUnderType(types.get(c[2]), ontology, frames);
+			List<Frame> bound = c[1] == null ? Collections.<Frame> singletonList(null) : OpenSchemaPlanner
+					.framesUnderType(types.get(c[1]), ontology, frames);
+			for (Frame value : bound) {
+				Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
+				Map<Object, Object> extents = new HashMap<Object, Object>();
+				allVars.put(c[2], extent);
+				extents.put(c[2], types.get(c[2]));
+				if (c[1] != null)
+					allVars.put(c[1], Collections.singletonList(value));
+				planner.joinDomains(predicate, allVars, extents, new PathIndex(), new PathCache(), ontology, frames);
+				// exactly the frames of the type that satisfy the equality
+				Set<Frame> expected = new HashSet<Frame>();
+				for (Frame candidate : extent) {
+					Map<Object, Frame> assignment = new HashMap<Object, Frame>();
+					assignment.put(c[2], candidate);
+					if (c[1] != null)
+						assignment.put(c[1], value);
+					if (property.check(assignment, ontology))
+						expected.add(candidate);
+				}
+				String message = c[0] + " with " + c[1] + "=" + value;
+				assertTrue(message, extents.isEmpty());
+				assertEquals(message, expected, new HashSet<Frame>(allVars.get(c[2])));
+				assertEquals(message + " has repetitions", expected.size(), allVars.get(c[2]).size());
+			}
+		}
+	}
+
+	public void testPathCache() throws Exception {
+		Frame year = new MapFrame("year-1", "c-year");
+		Frame event = new MapFrame("event-1", "c-event");
+		event.add("year", year);
+		Frame person = new MapFrame("person-1", "c-person");
+		person.add("birth", event);
+		person.add("birth", event);
+		String[] birthYear = { "birth", "year" };
+		PathCache cache = new PathCache();
+		assertEquals("Values should keep order and repetitions", Arrays.asList(new Object[] { year, year }),
+				cache.resolve(person, birthYear));
+		assertSame("Values should be memoized", cache.resolve(person, birthYear), cache.resolve(person, birthYear));
+		assertEquals("Wrong counters", 1, cache.getMisses());
+
+		Frame other = new MapFrame("year-2", "c-year");
+		event.set("year", other);
+		cache.invalidate(event);
+		assertEquals("Paths through a modified frame should be followed again",
+				Collections.singletonList(other), cache.resolve(person, birthYear).subList(0, 1));
+	}
+
+	public void testMetrics() throws Exception {
+		JmxMetricsRegistry metrics = new JmxMetricsRegistry();
+		Ontology ontology = new MeteredOntology(biographyOntology(), metrics);
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		String expected = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology)
+				.toString();
+		schema.setMetricsRegistry(metrics);
+		assertEquals("Metrics changed the plan", expected,
+				schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology).toString());
+		assertEquals("One instantiation should be timed", 1, metrics.getHistogram(MetricsRegistry.INSTANTIATE_NANOS)
+				.getCount());
+		assertTrue("Clauses not reported", metrics.getHistogram(MetricsRegistry.PLAN_CLAUSES).getMax() > 0);
+		assertEquals("Cache misses not reported", schema.getCacheMisses() / 2,
+				metrics.getCount(MetricsRegistry.CACHE_MISSES));
+		assertTrue("Values tried not reported", metrics.getCount(MetricsRegistry.SEARCH_TRIED) > 0);
+		assertTrue("Ontology calls not counted", metrics.getCount(MetricsRegistry.ONTOLOGY_IS_A) > 0);
+
+		String name = "net.sf.openschema:type=Planner,name=test";
+		metrics.register(name);
+		try {
+			Object clauses = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(name),
+					MetricsRegistry.PLAN_CLAUSES + ".count");
+			assertEquals("Wrong JMX attribute", new Long(1), clauses);
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(name));
+		}
+	}
+
+	public void testTracer() throws Exception {
+		Ontology ontology = biographyOntology();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		String expected = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology)
+				.toString();
+		final List<String> events = new ArrayList<String>();
+		PlanTracer tracer = new PlanTracer() {
+			public void nodeVisited(String node, Frame focus) {
+				events.add("node");
+			}
+
+			public void decision(int position, String node, Frame focus, List<Frame> potentialFoci) {
+				events.add("decision");
+			}
+
+			public void clauseAdded(Map<String, Object> clause) {
+				events.add("clause");
+			}
+		};
+		DocumentPlan plan = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology,
+				tracer);
+		assertEquals("Tracing changed the plan", expected, plan.toString());
+		int clauses = 0;
+		for (List<List<Map<String, Object>>> paragraph : plan.getParagraphs())
+			for (List<Map<String, Object>> aggr : paragraph)
+				clauses += aggr.size();
+		assertEquals("Wrong number of clause events", clauses, Collections.frequency(events, "clause"));
+		// every decision follows a visit and precedes its clause
+		for (int i = 0; i < events.size(); i++)
+			if (events.get(i).equals("decision"))
+				assertEquals("Wrong order", "clause", events.get(i + 1));
+
+		StringWriter text = new StringWriter();
+		schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology, new PrintTracer(text));
+		assertTrue("No text trace", text.toString().startsWith("node "));
+		assertTrue("No continuations scored", text.toString().contains("\ncontinuation "));
+	}
+
+	public void testSearchGuard() throws Exception {
+		Ontology ontology = biographyOntology();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		String expected = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology)
+				.toString();
+		schema.setSearchGuard(new SearchGuard(1000000, Long.MAX_VALUE, SearchGuard.Policy.FAIL));
+		assertEquals("A loose guard changed the plan", expected,
+				schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology).toString());
+
+		schema.setSearchGuard(new SearchGuard(2, Long.MAX_VALUE, SearchGuard.Policy.FAIL));
+		try {
+			schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology);
+			fail("The guard should have failed");
+		} catch (SearchGuard.Exceeded e) {
+			assertTrue("Wrong estimate", e.getEstimate() > 2);
+		}
+
+		for (SearchGuard.Policy policy : new SearchGuard.Policy[] { SearchGuard.Policy.SAMPLE,
+				SearchGuard.Policy.TRUNCATE }) {
+			schema.setSearchGuard(new SearchGuard(2, 1000, policy));
+			final List<String> guarded = new ArrayList<String>();
+			DocumentPlan plan = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(),
+					ontology, new PlanTracer() {
+						public void searchGuarded(String node, String predicate, long estimate, long limit) {
+							guarded.add(predicate);
+						}
+					});
+			assertFalse("No search was guarded", guarded.isEmpty());
+			assertFalse("Degraded plan is empty", plan.getParagraphs().isEmpty());
+		}
+
+		Map<Object, List<Frame>> allVars = new HashMap<Object, List<Frame>>();
+		allVars.put("a", new ArrayList<Frame>(biographyFrames().getFrames()));
+		allVars.put("b", new ArrayList<Frame>(biographyFrames().getFrames()));
+		assertTrue("Degraded search too large", new SearchGuard(10, 10, SearchGuard.Policy.SAMPLE).degrade(allVars,
+				10) <= 10);
+	}
+
+	public void testExplain() throws Exception {
+		Ontology ontology = biographyOntology();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		String expected = schema.instantiate(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology)
+				.toString();
+		PlanReport report = schema.explain(biographyFrames(), Collections.<String, Frame> emptyMap(), ontology);
+		assertEquals("Explaining changed the plan", expected, report.getPlan().toString());
+		long chosen = 0;
+		long enumerated = 0;
+		for (PlanReport.NodeReport node : report.getNodes()) {
+			chosen += node.getChosen();
+			enumerated += node.getEnumerated();
+			assertTrue("Node chosen but never in a confusion set", node.getChosen() <= node.getEntered());
+		}
+		assertEquals("Wrong number of decisions", report.getClauses(), chosen);
+		assertTrue("Fewer assignments than clauses", enumerated >= chosen);
+		assertTrue("No text report", report.toString().startsWith("Plan: " + report.getClauses() + " clauses"));
+		assertTrue("No JSON report", report.toJSON().startsWith("{\"clauses\":" + report.getClauses() + ","));
+	}
+
+	public void testSchemaProfile() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		List<Map<String, Frame>> mappings = new ArrayList<Map<String, Frame>>();
+		List<String> expected = new ArrayList<String>();
+		for (String person : new String[] { "person-1", "person-2", "person-5", "person-19" }) {
+			Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame(person));
+			mappings.add(mapping);
+			expected.add(schema.instantiate(frames, mapping, ontology).toString());
+		}
+
+		SchemaProfile profile = new SchemaProfile();
+		schema.setSchemaProfile(profile);
+		List<String> actual = new ArrayList<String>();
+		for (DocumentPlan plan : BatchPlanner.instantiateAll(schema, frames, mappings, ontology, 2))
+			actual.add(plan.toString());
+		schema.setSchemaProfile(null);
+		assertEquals("Profiling changed the plans", expected, actual);
+		assertEquals("Wrong number of plans", mappings.size(), profile.getPlans());
+		long chosen = 0;
+		for (PlanReport.NodeReport node : profile.getNodes())
+			chosen += node.getChosen();
+		assertEquals("Decisions do not add up", profile.getClauses(), chosen);
+
+		String dot = schema.dump(profile);
+		assertTrue("No heatmap", dot.contains("fillcolor=\"0.000 1.0 1.000\""));
+		assertTrue("No decision edges", dot.contains("style=dashed"));
+		assertEquals("Profile changed the structure", schema.dump(true).split("\n").length + 1, dot.split("\n")
+				.length - dot.split("style=dashed").length + 1);
+	}
+
+	/** The ID, type and attributes of each frame, with frame values by ID, in the order of the frame set. */
+	protected static List<String> describe(FrameSet frames) {
+		List<String> result = new ArrayList<String>();
+		for (Frame frame : frames.getFrames()) {
+			StringBuilder description = new StringBuilder(frame.getID()).append(' ').append(frame.getType());
+			for (String attribute : new TreeSet<String>(frame.keySet())) {
+				description.append(' ').append(attribute).append('=');
+				for (Object value : frame.get(attribute))
+					description.append(value instanceof Frame ? "#" + ((Frame) value).getID() : value).append(',');
+			}
+			result.add(description.toString());
+		}
+		return result;
+	}
+
+	public void testKnowledgeBaseGenerator() throws Exception {
+		KnowledgeBaseGenerator generator = new KnowledgeBaseGenerator(50, 3, 2, 3, 1.0, 7);
+		Ontology ontology = generator.generateOntology(new FileInputStream("samples/ontology.rdfs"));
+		assertTrue("Occupations should be in the ontology", ontology.isA("c-syn-occupation-2-1", "c-occupation"));
+		FrameSet frames = generator.generateFrames();
+		assertEquals("Generation should be deterministic", describe(frames), describe(new KnowledgeBaseGenerator(50,
+				3, 2, 3, 1.0, 7).generateFrames()));
+
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+		DocumentPlan plan = schema.instantiate(frames, mapping, ontology);
+		assertTrue("Plan should cover several paragraphs", plan.getParagraphs().size() > 2);
+
+		// the same frames, through CSV and RDF
+		StringWriter csv = new StringWriter();
+		generator.writeCsv(csv);
+		FrameSet read = new RDFFrameSet(new CsvToRdfFilterStream(new ByteArrayInputStream(csv.toString()
+				.getBytes("UTF-8"))), "file://generated.csv");
+		assertEquals("Wrong number of frames read", frames.getFrames().size(), read.getFrames().size());
+		mapping = Collections.singletonMap("self", read.getFrame("person-1"));
+		assertEquals("Plans differ on the frames read", plan.toString(), schema.instantiate(read, mapping, ontology)
+				.toString());
+	}
+
+	public void testCacheCounters() throws Exception {
+		OpenSchemaPlanner schema = sampleSchema();
+		schema.instantiate(sampleFrames(), Collections.<String, Frame> emptyMap(), sampleOntology());
+		assertEquals("Values should be searched only once", 1, schema.getCacheMisses());
+		assertTrue("The Kleene star should reuse the cached values", schema.getCacheHits() > 0);
+	}
+
+	public void testTypeIndex() throws Exception {
+		FrameSet frames = sampleFrames2();
+		Ontology ontology = sampleOntology2();
+		TypeIndex index = new TypeIndex(frames, ontology);
+		Collection<Frame> objects = index.getFramesUnderType("c-object", ontology);
+		assertEquals("Wrong extent for c-object", 1, objects.size());
+		assertEquals("Wrong extent for c-object", "frame-1", objects.iterator().next().getID());
+		assertTrue("Wrong extent for c-thing", index.getFramesUnderType("c-thing", ontology).isEmpty());
+		assertNull("Index used with another ontology", index.getFramesUnderType("c-object", sampleOntology()));
+
+		OpenSchemaPlanner schema = sampleSchema();
+		assertEquals("Indexed frames produce a different plan",
+				schema.instantiate(frames, Collections.<String, Frame> emptyMap(), ontology).toString(), schema
+						.instantiate(index, Collections.<String, Frame> emptyMap(), ontology).toString());
+
+		// the planner keeps the extents of a frame set from one instantiation to the next only if asked to
+		final int[] isA = new int[1];
+		Ontology counting = new Ontology() {
+			public boolean isA(Object child, Object parent) {
+				isA[0]++;
+				return child.equals(parent);
+			}
+
+			public double distance(Object concept1, Object concept2) {
+				return concept1.equals(concept2) ? 0 : 1;
+			}
+		};
+		schema.instantiate(frames, Collections.<String, Frame> emptyMap(), counting);
+		int checked = isA[0];
+		assertTrue("Types not checked", checked > 0);
+		schema.instantiate(frames, Collections.<String, Frame> emptyMap(), counting);
+		assertEquals("Types not checked again", 2 * checked, isA[0]);
+		assertNotSame("Index kept", schema.getIndex(frames), schema.getIndex(frames));
+		schema.keepIndex(frames);
+		schema.instantiate(frames, Collections.<String, Frame> emptyMap(), counting);
+		checked = isA[0];
+		schema.instantiate(frames, Collections.<String, Frame> emptyMap(), counting);
+		assertEquals("Types checked again", checked, isA[0]);
+		FrameSetIndex kept = schema.getIndex(frames);
+		assertSame("Index not kept", kept, schema.getIndex(frames));
+		// so are the ordinals of the frames, with their ranks
+		assertNotNull("Frames not numbered", kept.getOrdinals());
+		assertSame("Ordinals not kept", kept.getOrdinals(), schema.ordinals(frames, new OpenSchemaPlanner.Cache()));
+		assertSame("Ordinals not shared", kept.getOrdinals(), new TypeIndex(frames, ontology, kept).getOrdinals());
+		schema.forgetIndex(frames);
+		FrameSetIndex rebuilt = schema.getIndex(frames);
+		assertNotSame("Index not forgotten", kept, rebuilt);
+		assertSame("Index no longer kept", rebuilt, schema.getIndex(frames));
+	}
+
+	public void testConcurrentInstantiation() throws Exception {
+		Ontology ontology = biographyOntology();
+		final FrameSet frames = biographyFrames();
+		final OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		final Ontology sharedOntology = ontology;
+		final String[] people = { "person-1", "person-2", "person-5", "person-19", "person-27" };
+		final String[] expected = new String[people.length];
+		for (int i = 0; i < people.length; i++)
+			expected[i] = schema.instantiate(frames,
+					Collections.singletonMap("self", frames.getFrame(people[i])), ontology).toString();
+
+		final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 20; i++) {
+							int person = (i + offset) % people.length;
+							String plan = schema.instantiate(frames,
+									Collections.singletonMap("self", frames.getFrame(people[person])),
+									sharedOntology).toString();
+							if (!plan.equals(expected[person]))
+								failures.add("Different plan for " + people[person]);
+						}
+					} catch (RuntimeException e) {
+						failures.add(e.toString());
+					}
+				}
+			};
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		assertTrue("Concurrent instantiations failed: " + failures, failures.isEmpty());
+	}
+
+	public void testStreamingInstantiation() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+		StringWriter writer = new StringWriter();
+		PlanWriter sink = new PlanWriter(writer);
+		schema.instantiate(frames, mapping, ontology, sink);
+		assertFalse(sink.checkError());
+		assertEquals("Streamed plan differs", schema.instantiate(frames, mapping, ontology).toString(),
+				writer.toString());
+	}
+
+	public void testIncrementalReplanning() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+		PlanRecording recording = schema.record(frames, mapping, ontology);
+		String original = schema.instantiate(frames, mapping, ontology).toString();
+		assertEquals("Recorded plan differs", original, recording.getPlan().toString());
+
+		PlanRecording unchanged = schema.replan(recording, frames, new FrameSetDelta());
+		assertEquals("Replanned plan differs", original, unchanged.getPlan().toString());
+		assertEquals("Steps not reused", recording.getSteps() - 1, unchanged.getReusedSteps());
+
+		Frame person = frames.getFrame("person-1");
+		person.set("alias", new ArrayList<Object>());
+		FrameSetDelta delta = new FrameSetDelta();
+		delta.attributeChanged(person, "alias");
+		PlanRecording changed = schema.replan(unchanged, frames, delta);
+		String expected = schema.instantiate(frames, mapping, ontology).toString();
+		assertFalse("The change should affect the plan", expected.equals(original));
+		assertEquals("Replanned plan differs from a full instantiation", expected, changed.getPlan().toString());
+		assertTrue("No steps reused", changed.getReusedSteps() > 0);
+	}
+
+	public void testBeamSearch() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new GreedyChooser());
+		Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+		// with a width of one and no preferences, beam search follows the first continuation as the greedy chooser
+		PlanScorer indifferent = new PlanScorer() {
+			public double score(Map<String, Object> clause, Frame previousFocus, List<Frame> previousPotentialFoci,
+					List<Frame> focusStack, Frame focus, List<Frame> potentialFoci) {
+				return 0;
+			}
+		};
+		assertEquals("Beam search with width 1 differs from greedy", schema.instantiate(frames, mapping, ontology)
+				.toString(), new BeamSearchPlanner(schema, indifferent, 1, 0).instantiate(frames, mapping, ontology)
+				.toString());
+
+		BeamSearchPlanner beam = new BeamSearchPlanner(schema, new FocusScorer(ontology), 3, 1);
+		String plan = beam.instantiate(frames, mapping, ontology).toString();
+		assertTrue("Empty beam search plan", plan.indexOf("1.1.1.") != -1);
+		assertEquals("Beam search is not deterministic", plan, beam.instantiate(frames, mapping, ontology).toString());
+	}
+
+	public void testWiderBeam() throws Exception {
+		StringBuffer schemaDef = new StringBuffer();
+		schemaDef.append("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>");
+		schemaDef.append("<OpenSchema xmlns=\"http://openschema.sf.net\" xmlns:fd=\"http://jfuf.sf.net/FD\">");
+		for (String id : new String[] { "a", "b", "c" }) {
+			schemaDef.append("<Predicate ID=\"" + id + "\">");
+			schemaDef.append("<Variable ID=\"Data\" Type=\"c-object\" Required=\"false\" DefaultFocus=\"true\"/>");
+			schemaDef.append("<Output><fd:FD><fd:V N=\"" + id + "\"><fd:G>Data.number</fd:G></fd:V></fd:FD></Output>");
+			schemaDef.append("</Predicate>");
+		}
+		schemaDef.append("<Schema>");
+		schemaDef.append("<Node><Choice><Node><Sequence><Node><Predicate Name=\"a\"/></Node>");
+		schemaDef.append("<Node><Predicate Name=\"b\"/></Node></Sequence></Node>");
+		schemaDef.append("<Node><Predicate Name=\"c\"/></Node></Choice></Node>");
+		schemaDef.append("</Schema>");
+		schemaDef.append("</OpenSchema>");
+		OpenSchemaPlanner schema = new OpenSchemaPlanner(new InputSource(new StringReader(schemaDef.toString())),
+				new GreedyChooser());
+		FrameSet frames = sampleFrames();
+		Ontology ontology = sampleOntology();
+		Map<String, Frame> mapping = Collections.emptyMap();
+		// "a" scores less than "c" but leads to "b", which scores more than both
+		final Map<String, Double> scores = new HashMap<String, Double>();
+		scores.put("a", 1.0);
+		scores.put("b", 10.0);
+		scores.put("c", 2.0);
+		PlanScorer scorer = new PlanScorer() {
+			public double score(Map<String, Object> clause, Frame previousFocus, List<Frame> previousPotentialFoci,
+					List<Frame> focusStack, Frame focus, List<Frame> potentialFoci) {
+				double score = 0;
+				for (String key : clause.keySet())
+					if (scores.containsKey(key))
+						score += scores.get(key);
+				return score;
+			}
+		};
+		String narrow = new BeamSearchPlanner(schema, scorer, 1, 0).instantiate(frames, mapping, ontology).toString();
+		String wide = new BeamSearchPlanner(schema, scorer, 2, 0).instantiate(frames, mapping, ontology).toString();
+		assertTrue("Greedy search should take the better first clause: " + narrow, narrow.indexOf("{c=") != -1
+				&& narrow.indexOf("{b=") == -1);
+		assertTrue("A wider beam should find the higher-scoring plan: " + wide, wide.indexOf("{a=") != -1
+				&& wide.indexOf("{b=") != -1);
+	}
+
+	public void testPlanningLimits() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame("person-1"));
+		DocumentPlan full = schema.instantiate(frames, mapping, ontology);
+
+		DocumentPlan unlimited = schema.instantiate(frames, mapping, ontology, PlanningLimits.timeout(60000,
+				Integer.MAX_VALUE, new CancellationToken()));
+		assertFalse(unlimited.isTruncated());
+		assertEquals(full.toString(), unlimited.toString());
+
+		DocumentPlan three = schema.instantiate(frames, mapping, ontology, new PlanningLimits(Long.MAX_VALUE, 3, null));
+		assertTrue(three.isTruncated());
+		String[] lines = three.toString().split("\\n");
+		assertEquals("Wrong number of clauses", 3, lines.length);
+		assertTrue("Truncated plan is not a prefix", full.toString().startsWith(three.toString()));
+
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		DocumentPlan cancelled = schema.instantiate(frames, mapping, ontology, new PlanningLimits(Long.MAX_VALUE,
+				Integer.MAX_VALUE, token));
+		assertTrue(cancelled.isTruncated());
+		assertEquals("DocumentPlan:", cancelled.toString());
+	}
+
+	public void testSchemaCompiler() throws Exception {
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null)
+			return; // running on a JRE
+		File dir = File.createTempFile("openschema", "");
+		dir.delete();
+		try {
+			File pkg = new File(dir, "compiled");
+			pkg.mkdirs();
+			File file = new File(pkg, "BiographyPlanner.java");
+			Writer writer = new FileWriter(file);
+			SchemaCompiler.compile(new InputSource(new InputStreamReader(new SchemaToXmlFilterStream(
+					new FileInputStream("samples/template-biography.schema")))), "compiled.BiographyPlanner", writer);
+			writer.close();
+			assertEquals("Generated source does not compile", 0, javac.run(null, null, null, "-classpath",
+					System.getProperty("java.class.path"), file.getPath()));
+
+			Ontology ontology = biographyOntology();
+			FrameSet frames = biographyFrames();
+			OpenSchemaPlanner interpreted = biographySchema(new SimpleFocusChooser(ontology));
+			ClassLoader loader = new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader());
+			OpenSchemaPlanner compiled = (OpenSchemaPlanner) loader.loadClass("compiled.BiographyPlanner")
+					.getConstructor(LocalChooser.class).newInstance(new SimpleFocusChooser(ontology));
+			assertEquals("Compiled schema differs", interpreted.dump(), compiled.dump());
+
+			// the generated checks agree with the parsed properties, on values of the paths they follow too
+			List<Frame> values = new ArrayList<Frame>(frames.getFrames());
+			for (Frame frame : frames.getFrames())
+				for (String attribute : frame.keySet())
+					for (Object value : frame.get(attribute))
+						if (value instanceof Frame)
+							values.add((Frame) value);
+			values.add(null);
+			Random random = new Random(13);
+			for (String id : interpreted.predicates.keySet()) {
+				List<Property> parsed = interpreted.predicates.get(id).getProperties();
+				List<Property> generated = compiled.predicates.get(id).getProperties();
+				assertEquals("Properties of " + id, parsed.toString(), generated.toString());
+				for (int i = 0; i < parsed.size(); i++) {
+					assertTrue("Not generated: " + generated.get(i), generated.get(i) instanceof CompiledProperty);
+					assertEquals(parsed.get(i).variables(), generated.get(i).variables());
+					assertEquals(parsed.get(i).attributes(), generated.get(i).attributes());
+					assertEquals(parsed.get(i).getEqualitySides() == null,
+							generated.get(i).getEqualitySides() == null);
+					Map<Object, Integer> slots = new HashMap<Object, Integer>();
+					for (String var : parsed.get(i).variables())
+						slots.put(var, new Integer(slots.size()));
+					Property.Evaluator parsedEvaluator = parsed.get(i).compile(slots);
+					Property.Evaluator generatedEvaluator = generated.get(i).compile(slots);
+					// frames with the attributes read, to start from (the sample has no data for some of them)
+					List<Frame> readers = new ArrayList<Frame>();
+					for (Frame value : values)
+						if (value != null && !Collections.disjoint(value.keySet(), parsed.get(i).attributes()))
+							readers.add(value);
+					boolean inData = !readers.isEmpty() || parsed.get(i).attributes().isEmpty();
+					if (readers.isEmpty())
+						readers = values;
+					int holding = 0;
+					for (int j = 0; j < 2000; j++) {
+						Map<Object, Frame> vars = new HashMap<Object, Frame>();
+						Frame[] slotted = new Frame[slots.size()];
+						List<Map.Entry<Object, Integer>> order = new ArrayList<Map.Entry<Object, Integer>>(slots
+								.entrySet());
+						if (j % 4 < 2)
+							Collections.reverse(order);
+						for (Map.Entry<Object, Integer> slot : order) {
+							Frame value = values.get(random.nextInt(values.size()));
+							if (j % 2 == 0 && vars.isEmpty())
+								value = readers.get(random.nextInt(readers.size()));
+							// half the time, a value reached from the variable set before
+							if (j % 2 == 0 && !vars.isEmpty()) {
+								List<Frame> reached = new ArrayList<Frame>();
+								reached(vars.values().iterator().next(), 2, reached);
+								if (!reached.isEmpty())
+									value = reached.get(random.nextInt(reached.size()));
+							}
+							vars.put(slot.getKey(), value);
+							slotted[slot.getValue().intValue()] = value;
+						}
+						boolean expected = parsed.get(i).check(vars, ontology);
+						assertEquals(parsed.get(i) + " on " + vars, expected, generated.get(i).check(vars, ontology));
+						assertEquals(parsed.get(i) + " on " + vars, parsedEvaluator.check(slotted, ontology),
+								generatedEvaluator.check(slotted, ontology));
+						if (expected)
+							holding++;
+					}
+					assertTrue("Never holds: " + parsed.get(i), holding > 0 || !inData);
+				}
+			}
+
+			for (String person : new String[] { "person-1", "person-5" }) {
+				Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame(person));
+				assertEquals("Compiled plan differs", interpreted.instantiate(frames, mapping, ontology).toString(),
+						compiled.instantiate(frames, mapping, ontology).toString());
+			}
+		} finally {
+			delete(dir);
+		}
+	}
+
+	/** Add the frames reached from a frame in up to a number of steps. */
+	protected static void reached(Frame frame, int steps, List<Frame> result) {
+		if (frame == null || steps == 0)
+			return;
+		for (String attribute : frame.keySet())
+			for (Object next : frame.get(attribute))
+				if (next instanceof Frame) {
+					result.add((Frame) next);
+					reached((Frame) next, steps - 1, result);
+				}
+	}
+
+	/** Delete a file or a directory with all its contents. */
+	protected static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	public void testBatchInstantiation() throws Exception {
+		Ontology ontology = biographyOntology();
+		FrameSet frames = biographyFrames();
+		OpenSchemaPlanner schema = biographySchema(new SimpleFocusChooser(ontology));
+		final List<Map<String, Frame>> mappings = new ArrayList<Map<String, Frame>>();
+		List<String> expected = new ArrayList<String>();
+		for (String person : new String[] { "person-1", "person-2", "person-5", "person-19", "person-27" }) {
+			Map<String, Frame> mapping = Collections.singletonMap("self", frames.getFrame(person));
+			mappings.add(mapping);
+			expected.add(schema.instantiate(frames, mapping, ontology).toString());
+		}
+
+		List<String> actual = new ArrayList<String>();
+		for (DocumentPlan plan : BatchPlanner.instantiateAll(schema, frames, mappings, ontology, 3))
+			actual.add(plan.toString());
+		assertEquals("Batch plans differ from sequential ones", expected, actual);
+
+		final String[] received = new String[mappings.size()];
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			new BatchPlanner(schema, executor).instantiateAll(frames, mappings, ontology, 2,
+					new BatchPlanner.Listener() {
+						public void planned(int position, Map<String, Frame> initialMapping, DocumentPlan plan) {
+							assertSame(mappings.get(position), initialMapping);
+							received[position] = plan.toString();
+						}
+					});
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals("Streamed batch plans differ from sequential ones", expected, Arrays.asList(received));
+	}
+
 	public void testSchemaCreation() throws Exception {
 		OpenSchemaPlanner schema = sampleSchema();
 		String dump = schema.dump();